@@ -1,26 +1,43 @@
 package bcccp;
 
 import java.awt.EventQueue;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import bcccp.carpark.CarSensor;
 import bcccp.carpark.Carpark;
+import bcccp.carpark.ChargeEngine;
+import bcccp.carpark.DebouncedCarSensor;
 import bcccp.carpark.Gate;
+import bcccp.carpark.ICarSensor;
 import bcccp.carpark.ITimeProvider;
+import bcccp.carpark.LaneCarSensor;
+import bcccp.carpark.LaneCarparkObserver;
+import bcccp.carpark.LaneEventLoop;
+import bcccp.carpark.LaneGate;
 import bcccp.carpark.TimeProvider;
 import bcccp.carpark.entry.EntryController;
 import bcccp.carpark.entry.EntryUI;
+import bcccp.carpark.entry.LaneEntryUI;
 import bcccp.carpark.exit.ExitController;
 import bcccp.carpark.exit.ExitUI;
+import bcccp.carpark.exit.LaneExitUI;
+import bcccp.carpark.paystation.LanePaystationUI;
 import bcccp.carpark.paystation.PaystationController;
 import bcccp.carpark.paystation.PaystationUI;
+import bcccp.carpark.tariff.Tariff;
+import bcccp.tickets.BarcodeFilter;
 import bcccp.tickets.adhoc.AdhocTicketFactory;
 import bcccp.tickets.adhoc.IAdhocTicket;
-import bcccp.tickets.adhoc.AdhocTicketDAO;
-import bcccp.tickets.adhoc.IAdhocTicketDAO;
+import bcccp.tickets.adhoc.JournalledAdhocTicketDAO;
+import bcccp.tickets.season.FilteredSeasonTicketDAO;
 import bcccp.tickets.season.ISeasonTicket;
-import bcccp.tickets.season.ISeasonTicketDAO;
 import bcccp.tickets.season.SeasonTicket;
 import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.SeasonTicketLoader;
 import bcccp.tickets.season.UsageRecordFactory;
 
 public class Main {
@@ -41,14 +58,49 @@ public class Main {
 					Gate xgate = new Gate(1330, 320);
 					CarSensor xos = new CarSensor("Exit Outside Sensor", 1330, 440);
 					
-					IAdhocTicketDAO adhocTicketDAO = new AdhocTicketDAO(new AdhocTicketFactory());
-					ISeasonTicketDAO seasonTicketDAO = new SeasonTicketDAO(new UsageRecordFactory());
+					// Adhoc tickets are journalled so that a restart keeps the cars in the park.
+					// A barcode is looked up by the ticket number in it, so unknown ones need no filter.
+					JournalledAdhocTicketDAO adhocTicketDAO = new JournalledAdhocTicketDAO(new AdhocTicketFactory(), 
+							Paths.get(System.getProperty("bcccp.data", "data")));
+					// Closing writes out the events since the last sync when the program exits.
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+						try {
+							adhocTicketDAO.close();
+						}
+						catch (IOException e) {
+							e.printStackTrace();
+						}
+					}, "adhoc-journal-close"));
+					// Expired season tickets are swept out every hour so they stop taking up spaces.
+					SeasonTicketDAO seasonTickets = new SeasonTicketDAO(new UsageRecordFactory(), 10000);
+					ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+						Thread thread = new Thread(runnable, "season-ticket-expiry");
+						thread.setDaemon(true);
+						return thread;
+					});
+					FilteredSeasonTicketDAO seasonTicketDAO = new FilteredSeasonTicketDAO(
+							seasonTickets, new BarcodeFilter(10000, 0.01));
+					seasonTicketDAO.scheduleExpirySweep(sweeper, TimeUnit.HOURS.toMillis(1));
+					
+					// Season tickets can be loaded in bulk from a file.
+					String seasonTicketFile = System.getProperty("bcccp.seasonTickets");
+					if (seasonTicketFile != null) {
+						SeasonTicketLoader.load(seasonTicketFile, seasonTicketDAO);
+					}
 					ITimeProvider timeProvider = new TimeProvider();
 					
-					Carpark carpark = new Carpark("Bathurst Chase", 5, adhocTicketDAO, seasonTicketDAO, timeProvider);
+					// An optional tariff file replaces the default rates.
+					ChargeEngine chargeEngine = args.length > 0 
+							? new ChargeEngine(Tariff.load(args[0]).compile()) 
+							: ChargeEngine.getDefault();
+					
+					Carpark carpark = new Carpark("Bathurst Chase", 5, adhocTicketDAO, seasonTicketDAO, timeProvider, chargeEngine);
 					
-					ISeasonTicket t1 = new SeasonTicket("S1111","Bathurst Chase", 0L, 0L);
-					ISeasonTicket t2 = new SeasonTicket("S2222","Bathurst Chase", 0L, 0L);
+					// The demo tickets are valid for a year, so the sweep leaves them alone.
+					long now = System.currentTimeMillis();
+					long aYear = TimeUnit.DAYS.toMillis(365);
+					ISeasonTicket t1 = new SeasonTicket("S1111","Bathurst Chase", now, now + aYear);
+					ISeasonTicket t2 = new SeasonTicket("S2222","Bathurst Chase", now, now + aYear);
 					
 					carpark.registerSeasonTicket(t1);
 					carpark.registerSeasonTicket(t2);
@@ -59,19 +111,35 @@ public class Main {
 					carpark.recordSeasonTicketEntry(t1.getId());
 					
 					IAdhocTicket ticket = carpark.issueAdhocTicket();
-					ticket.pay(System.currentTimeMillis(), 5.0f);
+					ticket.pay(System.currentTimeMillis(), 500);
+					
+					// Each lane's controller runs on the lane's own thread, fed by its sensors, its panel
+					// and the carpark. What it shows on a panel is handed back to the event dispatch thread.
+					LaneEventLoop entryLane = new LaneEventLoop("entry", 256);
+					LaneEventLoop payLane = new LaneEventLoop("paystation", 256);
+					LaneEventLoop exitLane = new LaneEventLoop("exit", 256);
+					
+					// Sensor chatter is settled before it reaches a lane.
+					long holdMillis = Long.getLong("bcccp.sensorHoldMillis", 50);
+					long stableMillis = Long.getLong("bcccp.sensorStableMillis", 200);
+					ICarSensor entryOutside = new LaneCarSensor(DebouncedCarSensor.wrap(eos, holdMillis, stableMillis), entryLane);
+					ICarSensor entryInside = new LaneCarSensor(DebouncedCarSensor.wrap(eis, holdMillis, stableMillis), entryLane);
+					ICarSensor exitInside = new LaneCarSensor(DebouncedCarSensor.wrap(xis, holdMillis, stableMillis), exitLane);
+					ICarSensor exitOutside = new LaneCarSensor(DebouncedCarSensor.wrap(xos, holdMillis, stableMillis), exitLane);
 					
-					@SuppressWarnings("unused")
 					EntryController entryController = 
-							new EntryController(carpark, egate, eos, eis, eui);
+							new EntryController(carpark, new LaneGate(egate, EventQueue::invokeLater), entryOutside, entryInside, 
+									new LaneEntryUI(eui, entryLane, EventQueue::invokeLater));
+					carpark.register(new LaneCarparkObserver(entryController, entryLane));
 					
 					@SuppressWarnings("unused")
 					PaystationController payController = 
-							new PaystationController(carpark, pui);
+							new PaystationController(carpark, new LanePaystationUI(pui, payLane, EventQueue::invokeLater));
 					
 					@SuppressWarnings("unused")
 					ExitController exitController = 
-					new ExitController(carpark, xgate, xis, xos, xui);
+					new ExitController(carpark, new LaneGate(xgate, EventQueue::invokeLater), exitInside, exitOutside, 
+							new LaneExitUI(xui, exitLane, EventQueue::invokeLater));
 					
 					eos.setVisible(true);
 					egate.setVisible(true);
@@ -1,9 +1,6 @@
 package bcccp.carpark;
 
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bcccp.tickets.adhoc.IAdhocTicket;
 import bcccp.tickets.adhoc.IAdhocTicketDAO;
@@ -13,13 +10,18 @@ import bcccp.tickets.season.ISeasonTicketDAO;
 public class Carpark implements ICarpark {
 	
 	
-	private List<ICarparkObserver> observers;
+	private CarparkEventBus eventBus;
 	private String carparkId;
 	private int capacity;
-	private int nParked;
+	// Cars parked on adhoc tickets. Spaces reserved for season tickets are the season
+	// ticket DAO's count, which is kept by its map, so neither needs a lock to read.
+	private AtomicInteger adhocParked;
 	private IAdhocTicketDAO adhocTicketDAO;
 	private ISeasonTicketDAO seasonTicketDAO;
 	private ITimeProvider timeProvider;
+	private ChargeEngine chargeEngine;
+	private SeasonTicketValidity seasonTicketValidity;
+	private boolean quiet;
 	
 	
 	
@@ -28,32 +30,58 @@ public class Carpark implements ICarpark {
 			ISeasonTicketDAO seasonTicketDAO,
 			ITimeProvider timeProvider) {
 		
+		this(name, capacity, adhocTicketDAO, seasonTicketDAO, timeProvider, ChargeEngine.getDefault());
+	}
+	
+	
+	
+	public Carpark(String name, int capacity, 
+			IAdhocTicketDAO adhocTicketDAO, 
+			ISeasonTicketDAO seasonTicketDAO,
+			ITimeProvider timeProvider,
+			ChargeEngine chargeEngine) {
+		
+		// Observers are told on the bus's pool, so a slow one never holds up the gate that changed the carpark.
+		this(name, capacity, adhocTicketDAO, seasonTicketDAO, timeProvider, chargeEngine, new CarparkEventBus());
+	}
+	
+	
+	
+	public Carpark(String name, int capacity, 
+			IAdhocTicketDAO adhocTicketDAO, 
+			ISeasonTicketDAO seasonTicketDAO,
+			ITimeProvider timeProvider,
+			ChargeEngine chargeEngine,
+			CarparkEventBus eventBus) {
+		
 		this.validateName(name);
 		this.validateCapacity(capacity);
 		this.carparkId = name;
 		this.capacity = capacity;
-		observers = new ArrayList<>();
+		this.eventBus = eventBus;
 		this.adhocTicketDAO = adhocTicketDAO;
+		// A DAO restored after a restart may already have cars parked on its tickets.
+		this.adhocParked = new AtomicInteger(
+				adhocTicketDAO.getTicketsInState(IAdhocTicket.STATE.CURRENT).size()
+				+ adhocTicketDAO.getTicketsInState(IAdhocTicket.STATE.PAID).size());
 		this.seasonTicketDAO = seasonTicketDAO;
 		this.timeProvider = timeProvider;
+		this.chargeEngine = chargeEngine;
+		this.seasonTicketValidity = new SeasonTicketValidity(timeProvider, ZoneOffsetTable.systemDefault());
 	}
 
 	
 	
 	@Override
 	public void register(ICarparkObserver observer) {
-		if (!observers.contains(observer)) {
-			observers.add(observer);
-		}
+		eventBus.subscribe(observer);
 	}
 
 	
 	
 	@Override
 	public void deregister(ICarparkObserver observer) {
-		if (observers.contains(observer)) {
-			observers.remove(observer);
-		}
+		eventBus.unsubscribe(observer);
 	}
 	
 	private void validateName(String name) {
@@ -72,10 +100,9 @@ public class Carpark implements ICarpark {
 	
 	
 	
+	// Observers are told through the event bus, on this thread unless the bus hands them on.
 	private void notifyObservers() {
-		for (ICarparkObserver observer : observers) {
-			observer.notifyCarparkEvent();
-		}
+		eventBus.publish();
 	}
 
 	
@@ -89,7 +116,27 @@ public class Carpark implements ICarpark {
 	
 	@Override
 	public boolean isFull() {
-		return nParked + seasonTicketDAO.getNumberOfTickets() == capacity;
+		return getOccupancy() >= capacity;
+	}
+	
+	
+	
+	@Override
+	public long getCurrentTimeMillis() {
+		return timeProvider.getCurrentTimeMillis();
+	}
+	
+	
+	
+	@Override
+	public int getAvailableSpaces() {
+		return Math.max(0, capacity - getOccupancy());
+	}
+	
+	
+	
+	private int getOccupancy() {
+		return adhocParked.get() + seasonTicketDAO.getNumberOfTickets();
 	}
 	
 	
@@ -112,9 +159,20 @@ public class Carpark implements ICarpark {
 	
 		
 	@Override
-	public float calculateAddHocTicketCharge(long entryDateTime) {
-		ChargeCalculator calculator = new ChargeCalculator(entryDateTime, System.currentTimeMillis());
-		return calculator.calcParkingCharge();
+	public long calculateAddHocTicketCharge(long entryDateTime) {
+		return chargeEngine.chargeCents(entryDateTime, timeProvider.getCurrentTimeMillis());
+	}
+
+	
+	
+	// What would be collected, in cents, if every car currently parked paid at the given time.
+	@Override
+	public long quoteAll(long asOfMillis) {
+		long[] entryDateTimes = adhocTicketDAO.streamCurrentTickets()
+				.filter(IAdhocTicket::isCurrent)
+				.mapToLong(IAdhocTicket::getEntryDateTime)
+				.toArray();
+		return chargeEngine.quoteCents(entryDateTimes, entryDateTimes.length, asOfMillis);
 	}
 
 	
@@ -124,16 +182,23 @@ public class Carpark implements ICarpark {
 		ISeasonTicket ticket = seasonTicketDAO.findTicketById(barcode);
 		
 		// The ticket could not be found.
-		if (ticket == null) {
-			return false;
-		}
-		
-		if (!this.isTicketCurrent(ticket)) {
-			return false;
-		}
-		
-		// The ticket is current, check that the current time is in business hours.
-		return this.isCurrentTimeBusinessHours();
+		return ticket != null && seasonTicketValidity.isValid(ticket);
+	}
+	
+	
+	
+	@Override
+	public boolean isSeasonTicketValidForEntry(String ticketId) {
+		ISeasonTicket ticket = seasonTicketDAO.findTicketById(ticketId);
+		return ticket != null && !ticket.inUse() && seasonTicketValidity.isValid(ticket);
+	}
+	
+	
+	
+	@Override
+	public boolean isSeasonTicketValidForExit(String ticketId) {
+		ISeasonTicket ticket = seasonTicketDAO.findTicketById(ticketId);
+		return ticket != null && ticket.inUse() && seasonTicketValidity.isValid(ticket);
 	}
 	
 
@@ -164,43 +229,33 @@ public class Carpark implements ICarpark {
 
 	
 	
-	private boolean isTicketCurrent(ISeasonTicket ticket) {
-		LocalDateTime currentDateTime = this.timeProvider.getLocalDateTime();
-		LocalDateTime start = Utilities.toLocalDateTime(ticket.getStartValidPeriod());
-		LocalDateTime end = Utilities.toLocalDateTime(ticket.getEndValidPeriod());
-		
-		return Utilities.isTimeOnOrAfter(currentDateTime, start) 
-				&& Utilities.isTimeOnOrBefore(currentDateTime, end);
-	}
-	
-	
-	
-	private boolean isCurrentTimeBusinessHours() {
-		LocalTime currentDateTime = this.timeProvider.getLocalDateTime().toLocalTime();
-		return Utilities.isTimeOnOrAfter(currentDateTime, Constants.START_BUSINESS_TIME)
-				&& Utilities.isTimeOnOrBefore(currentDateTime, Constants.END_BUSINESS_TIME);
+	// Stops the carpark logging every ticket, such as when a simulation drives it.
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
 	}
 	
 	
 	
 	private void log(String message) {
-		System.out.println("Carpark : " + message);
+		if (!quiet) {
+			System.out.println("Carpark : " + message);
+		}
 	}
 
 
 
 	@Override
 	public void recordAdhocTicketEntry() {
-		nParked++;
-		
+		adhocParked.incrementAndGet();
 	}
 
 
 
 	@Override
 	public void recordAdhocTicketExit() {
-		nParked--;
-		if (this.isFull()) {
+		// Entry lanes waiting on a full carpark are told a space may have come free.
+		int parked = adhocParked.getAndDecrement();
+		if (parked + seasonTicketDAO.getNumberOfTickets() >= capacity) {
 			notifyObservers();
 		}
 	}
@@ -0,0 +1,149 @@
+package bcccp.carpark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Delivers carpark events to observers without holding up the lane that raised them.
+// Publishing walks a copy-on-write snapshot of the subscribers and only bumps a counter
+// on each. A carpark event carries no data, so each subscriber's queue holds at most one
+// event: events raised while one is waiting or being delivered are folded into the next
+// delivery, and a slow subscriber only ever sees fewer, later events.
+// Each subscriber is delivered to by one task at a time on the executor.
+public class CarparkEventBus {
+
+	private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "carpark-events");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Executor executor;
+
+	private ConcurrentMap<ICarparkObserver, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+	private volatile Subscriber[] snapshot = new Subscriber[0];
+
+
+
+	private class Subscriber implements Runnable {
+		private final ICarparkObserver observer;
+		private final AtomicInteger pending = new AtomicInteger();
+		private final LongAdder published = new LongAdder();
+		private final LongAdder delivered = new LongAdder();
+		private final AtomicLong maxLagNanos = new AtomicLong();
+		private volatile long pendingSince;
+		private volatile boolean cancelled;
+
+		Subscriber(ICarparkObserver observer) {
+			this.observer = observer;
+		}
+
+		void post() {
+			published.increment();
+			if (pending.getAndIncrement() == 0) {
+				pendingSince = System.nanoTime();
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			int batch;
+			do {
+				batch = pending.get();
+				long started = System.nanoTime();
+				maxLagNanos.accumulateAndGet(started - pendingSince, Math::max);
+				if (!cancelled) {
+					try {
+						observer.notifyCarparkEvent();
+					}
+					catch (RuntimeException e) {
+						log("observer " + observer + " failed: " + e);
+					}
+				}
+				delivered.increment();
+				// Anything raised since has waited at most from the start of this delivery.
+				pendingSince = started;
+			}
+			while (pending.addAndGet(-batch) != 0);
+		}
+	}
+
+
+
+	// Delivers on a shared pool of daemon threads, so observers must be safe to call from any thread.
+	public CarparkEventBus() {
+		this(DEFAULT_EXECUTOR);
+	}
+
+
+
+	// Delivers on the executor, such as EventQueue::invokeLater for observers that update a UI.
+	public CarparkEventBus(Executor executor) {
+		this.executor = executor;
+	}
+
+
+
+	public synchronized void subscribe(ICarparkObserver observer) {
+		if (subscribers.putIfAbsent(observer, new Subscriber(observer)) == null) {
+			snapshot = subscribers.values().toArray(new Subscriber[0]);
+		}
+	}
+
+
+
+	public synchronized void unsubscribe(ICarparkObserver observer) {
+		Subscriber subscriber = subscribers.remove(observer);
+		if (subscriber != null) {
+			subscriber.cancelled = true;
+			snapshot = subscribers.values().toArray(new Subscriber[0]);
+		}
+	}
+
+
+
+	// Never blocks on a subscriber.
+	public void publish() {
+		for (Subscriber subscriber : snapshot) {
+			subscriber.post();
+		}
+	}
+
+
+
+	// Events raised for the observer that it has not been told about yet.
+	public int getPendingEvents(ICarparkObserver observer) {
+		Subscriber subscriber = subscribers.get(observer);
+		return subscriber == null ? 0 : subscriber.pending.get();
+	}
+
+
+
+	// Events raised for the observer that were folded into another delivery.
+	public long getCoalescedEvents(ICarparkObserver observer) {
+		Subscriber subscriber = subscribers.get(observer);
+		return subscriber == null ? 0 
+				: Math.max(0, subscriber.published.sum() - subscriber.pending.get() - subscriber.delivered.sum());
+	}
+
+
+
+	// The longest an event has waited before delivery to the observer started.
+	public long getMaxLagNanos(ICarparkObserver observer) {
+		Subscriber subscriber = subscribers.get(observer);
+		return subscriber == null ? 0 : subscriber.maxLagNanos.get();
+	}
+
+
+
+	private void log(String message) {
+		System.out.println("CarparkEventBus : " + message);
+	}
+}
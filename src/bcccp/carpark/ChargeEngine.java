@@ -0,0 +1,199 @@
+package bcccp.carpark;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import bcccp.carpark.tariff.RateTable;
+import bcccp.carpark.tariff.Tariff;
+
+// Closed-form parking charge calculation on local epoch minutes.
+// The charge for a stay is the difference of two running totals from the
+// compiled RateTable, so whole weeks and whole days are counted directly and
+// the cost does not depend on the length of the stay or the number of rate bands.
+// The primitive methods do not allocate, so they are safe for the paystation hot path.
+public class ChargeEngine {
+
+	private static final int MINUTES_IN_HOUR = 60;
+
+	private static final int MINUTES_IN_DAY = 24 * MINUTES_IN_HOUR;
+
+	// Batches at least this big are quoted across the fork/join pool.
+	private static final int PARALLEL_QUOTE_THRESHOLD = 8192;
+
+	private static final ChargeEngine DEFAULT = new ChargeEngine(Tariff.defaultTariff().compile());
+
+	private RateTable rateTable;
+
+	private ZoneOffsetTable zoneOffsets;
+
+	// Number of stays charged, so the load from the paystations can be watched.
+	private LongAdder chargeCount = new LongAdder();
+
+	// Days of the stays charged that came whole from the precomputed totals, and part
+	// days at either end that needed a minute lookup. They are the hits and misses a
+	// per-day charge cache would report, without the cache, as every day is a lookup.
+	private LongAdder fullDays = new LongAdder();
+
+	private LongAdder partDays = new LongAdder();
+
+
+
+	public ChargeEngine(RateTable rateTable) {
+		this(rateTable, ZoneOffsetTable.systemDefault());
+	}
+
+
+
+	public ChargeEngine(RateTable rateTable, ZoneOffsetTable zoneOffsets) {
+		if (rateTable == null || zoneOffsets == null) {
+			throw new RuntimeException("The charge engine needs a rate table and zone offsets.");
+		}
+		this.rateTable = rateTable;
+		this.zoneOffsets = zoneOffsets;
+	}
+
+
+
+	// The engine for the tariff described by Constants.
+	public static ChargeEngine getDefault() {
+		return DEFAULT;
+	}
+
+
+
+	// Charge for a stay between two instants, rounded down to the minute in local time.
+	public double calcCharge(long entryDateTimeMillis, long exitDateTimeMillis) {
+		return calcChargeBetweenMinutes(toLocalMinute(entryDateTimeMillis), toLocalMinute(exitDateTimeMillis));
+	}
+
+
+
+	// Charge in whole cents for a stay between two instants, rounded half up.
+	public long chargeCents(long entryDateTimeMillis, long exitDateTimeMillis) {
+		return chargeCentsBetweenMinutes(toLocalMinute(entryDateTimeMillis), toLocalMinute(exitDateTimeMillis));
+	}
+
+
+
+	public long chargeCentsBetweenMinutes(long startMinute, long endMinute) {
+		return (centMinutesBetween(startMinute, endMinute) + MINUTES_IN_HOUR / 2) / MINUTES_IN_HOUR;
+	}
+
+
+
+	// Total charge in cents if every stay in the batch ended at the exit time.
+	// The running total at the exit is shared by every stay, and each stay is
+	// rounded to cents on its own as it would be at the paystation.
+	// Stays that start after the exit time are not charged.
+	public long quoteCents(long[] entryDateTimes, int count, long exitDateTimeMillis) {
+		long exitMinute = toLocalMinute(exitDateTimeMillis);
+		long exitTotal = rateTable.centMinutesBefore(exitMinute);
+		chargeCount.add(count);
+		if (count < PARALLEL_QUOTE_THRESHOLD) {
+			long total = 0;
+			for (int i = 0; i < count; i++) {
+				total += quoteCents(toLocalMinute(entryDateTimes[i]), exitMinute, exitTotal);
+			}
+			return total;
+		}
+
+		return Arrays.stream(entryDateTimes, 0, count).parallel()
+				.map(entry -> quoteCents(toLocalMinute(entry), exitMinute, exitTotal))
+				.sum();
+	}
+
+
+
+	private long quoteCents(long entryMinute, long exitMinute, long exitTotal) {
+		if (entryMinute > exitMinute) {
+			return 0;
+		}
+		countDays(entryMinute, exitMinute);
+		return (exitTotal - rateTable.centMinutesBefore(entryMinute) + MINUTES_IN_HOUR / 2) / MINUTES_IN_HOUR;
+	}
+
+
+
+	// Charge between two local epoch minutes.
+	public double calcChargeBetweenMinutes(long startMinute, long endMinute) {
+		return toDollars(centMinutesBetween(startMinute, endMinute));
+	}
+
+
+
+	// Charge within a single day, with the end minute of a day to midnight being MINUTES_IN_DAY.
+	public double calcDayCharge(int startMinute, int endMinute, DayOfWeek dayOfWeek) {
+		if (startMinute < 0 || endMinute > MINUTES_IN_DAY || endMinute < startMinute) {
+			throw new RuntimeException("The end time should be after the start time.");
+		}
+
+		return toDollars(rateTable.centMinutesInDay(rateTable.getDayType(dayOfWeek), startMinute, endMinute));
+	}
+
+
+
+	// Minutes since the epoch on the local wall clock.
+	public long toLocalMinute(long millis) {
+		return Math.floorDiv(zoneOffsets.toLocalMillis(millis), 60 * 1000L);
+	}
+
+
+
+	public long getChargeCount() {
+		return chargeCount.sum();
+	}
+
+
+
+	public long getFullDaysCharged() {
+		return fullDays.sum();
+	}
+
+
+
+	public long getPartDaysCharged() {
+		return partDays.sum();
+	}
+
+
+
+	public static int toMinuteOfDay(LocalTime time) {
+		return time.getHour() * MINUTES_IN_HOUR + time.getMinute();
+	}
+
+
+
+	private long centMinutesBetween(long startMinute, long endMinute) {
+		if (endMinute < startMinute) {
+			throw new RuntimeException("The end time should be after the start time.");
+		}
+		chargeCount.increment();
+		countDays(startMinute, endMinute);
+		return rateTable.centMinutesBetween(startMinute, endMinute);
+	}
+
+
+
+	private void countDays(long startMinute, long endMinute) {
+		long startDay = Math.floorDiv(startMinute, MINUTES_IN_DAY);
+		long endDay = Math.floorDiv(endMinute, MINUTES_IN_DAY);
+		if (startDay == endDay) {
+			if (endMinute > startMinute) {
+				partDays.increment();
+			}
+			return;
+		}
+		boolean partStart = Math.floorMod(startMinute, MINUTES_IN_DAY) != 0;
+		boolean partEnd = Math.floorMod(endMinute, MINUTES_IN_DAY) != 0;
+		fullDays.add(endDay - startDay - (partStart ? 1 : 0));
+		partDays.add((partStart ? 1 : 0) + (partEnd ? 1 : 0));
+	}
+
+
+
+	private static double toDollars(long centMinutes) {
+		return centMinutes / (100.0 * MINUTES_IN_HOUR);
+	}
+}
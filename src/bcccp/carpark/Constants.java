@@ -10,9 +10,13 @@ public class Constants {
 
 	public static final double MINUTES_IN_DAY = MIN_IN_HOUR * 24;
 	
-	public static final double AFTER_HOURS_RATE_PER_MIN = 2.0 / MIN_IN_HOUR;
+	public static final long AFTER_HOURS_CENTS_PER_HOUR = 200;
 
-	public static final double BUSINESS_HOURS_RATE_PER_MIN = 5.0 / MIN_IN_HOUR;
+	public static final long BUSINESS_HOURS_CENTS_PER_HOUR = 500;
+
+	public static final double AFTER_HOURS_RATE_PER_MIN = AFTER_HOURS_CENTS_PER_HOUR / 100.0 / MIN_IN_HOUR;
+
+	public static final double BUSINESS_HOURS_RATE_PER_MIN = BUSINESS_HOURS_CENTS_PER_HOUR / 100.0 / MIN_IN_HOUR;
 	
 	public static final LocalTime START_BUSINESS_TIME = LocalTime.of(7,  0);
 	
@@ -0,0 +1,192 @@
+package bcccp.carpark;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A car sensor that tells its responders only about changes that have settled.
+// Loop detectors chatter, flipping between detected and not several times as a car
+// crosses them. A change is passed on once the sensor has held it for the hold time,
+// and a passed on state is kept for at least the minimum stable interval before the
+// next change can be. Flips that come back before then are never seen by the responders,
+// and carIsDetected answers with the settled state so it agrees with what they were told.
+// Every change is passed on from the scheduler's thread, handed to it in the order the
+// changes settled, so responders are told in that order. With no hold time a change
+// that comes after the stable interval is handed over straight away.
+public class DebouncedCarSensor implements ICarSensor, ICarSensorResponder {
+
+	private static final ScheduledExecutorService DEFAULT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "sensor-debounce");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ICarSensor sensor;
+
+	private long holdNanos;
+
+	private long minStableNanos;
+
+	private ScheduledExecutorService scheduler;
+
+	private CopyOnWriteArrayList<ICarSensorResponder> responders = new CopyOnWriteArrayList<>();
+
+	private boolean rawDetected;
+
+	private long rawChangedNanos;
+
+	private volatile boolean settledDetected;
+
+	private long settledNanos;
+
+	private ScheduledFuture<?> pending;
+
+	private long rawEvents;
+
+	private long forwardedEvents;
+
+
+
+	// Settles on the shared debounce thread.
+	public static DebouncedCarSensor wrap(ICarSensor sensor, long holdMillis, long minStableMillis) {
+		return wrap(sensor, holdMillis, minStableMillis, DEFAULT_SCHEDULER);
+	}
+
+
+
+	// The scheduler should run one task at a time so that changes are passed on in order.
+	// The debounced sensor listens to the sensor only once it is built.
+	public static DebouncedCarSensor wrap(ICarSensor sensor, long holdMillis, long minStableMillis,
+			ScheduledExecutorService scheduler) {
+		DebouncedCarSensor debounced = new DebouncedCarSensor(sensor, holdMillis, minStableMillis, scheduler);
+		sensor.registerResponder(debounced);
+		return debounced;
+	}
+
+
+
+	private DebouncedCarSensor(ICarSensor sensor, long holdMillis, long minStableMillis,
+			ScheduledExecutorService scheduler) {
+		if (holdMillis < 0 || minStableMillis < 0) {
+			throw new RuntimeException("DebouncedCarSensor : hold time and stable interval cannot be negative");
+		}
+		this.sensor = sensor;
+		this.holdNanos = TimeUnit.MILLISECONDS.toNanos(holdMillis);
+		this.minStableNanos = TimeUnit.MILLISECONDS.toNanos(minStableMillis);
+		this.scheduler = scheduler;
+		this.rawDetected = sensor.carIsDetected();
+		this.settledDetected = rawDetected;
+		this.settledNanos = System.nanoTime() - minStableNanos;
+	}
+
+
+
+	@Override
+	public synchronized void carEventDetected(String detectorId, boolean detected) {
+		rawEvents++;
+		long now = System.nanoTime();
+		rawDetected = detected;
+		rawChangedNanos = now;
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+		long due = Math.max(now + holdNanos, settledNanos + minStableNanos);
+		if (detected == settledDetected) {
+			return;
+		}
+		if (due <= now) {
+			settle(now);
+		}
+		else {
+			pending = scheduler.schedule(this::settleIfHeld, due - now, TimeUnit.NANOSECONDS);
+		}
+	}
+
+
+
+	// Runs once the latest change may have settled; a later change will have cancelled it.
+	private synchronized void settleIfHeld() {
+		pending = null;
+		long now = System.nanoTime();
+		long due = Math.max(rawChangedNanos + holdNanos, settledNanos + minStableNanos);
+		if (rawDetected == settledDetected) {
+			return;
+		}
+		if (due > now) {
+			pending = scheduler.schedule(this::settleIfHeld, due - now, TimeUnit.NANOSECONDS);
+			return;
+		}
+		settle(now);
+	}
+
+
+
+	// Handed over under the lock, so the scheduler's queue holds changes in the order they settled.
+	private void settle(long now) {
+		boolean detected = rawDetected;
+		settledDetected = detected;
+		settledNanos = now;
+		forwardedEvents++;
+		scheduler.execute(() -> tellResponders(detected));
+	}
+
+
+
+	private void tellResponders(boolean detected) {
+		String detectorId = sensor.getId();
+		for (ICarSensorResponder responder : responders) {
+			responder.carEventDetected(detectorId, detected);
+		}
+	}
+
+
+
+	@Override
+	public void registerResponder(ICarSensorResponder responder) {
+		responders.addIfAbsent(responder);
+	}
+
+
+
+	@Override
+	public void deregisterResponder(ICarSensorResponder responder) {
+		responders.remove(responder);
+	}
+
+
+
+	@Override
+	public String getId() {
+		return sensor.getId();
+	}
+
+
+
+	// The settled state, which may lag the sensor by up to the hold time.
+	@Override
+	public boolean carIsDetected() {
+		return settledDetected;
+	}
+
+
+
+	public synchronized long getRawEvents() {
+		return rawEvents;
+	}
+
+
+
+	public synchronized long getForwardedEvents() {
+		return forwardedEvents;
+	}
+
+
+
+	// Events from the sensor that never reached the responders.
+	public synchronized long getSuppressedEvents() {
+		return rawEvents - forwardedEvents;
+	}
+}
@@ -0,0 +1,56 @@
+package bcccp.carpark;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// A car sensor without a window, driven by calling detect.
+// Responders are told on the calling thread, as the Swing sensor tells them on its button's.
+public class HeadlessCarSensor implements ICarSensor {
+
+	private String detectorId;
+	private volatile boolean carDetected;
+	private CopyOnWriteArrayList<ICarSensorResponder> responders = new CopyOnWriteArrayList<>();
+
+
+
+	public HeadlessCarSensor(String detectorId) {
+		this.detectorId = detectorId;
+	}
+
+
+
+	@Override
+	public void registerResponder(ICarSensorResponder responder) {
+		responders.addIfAbsent(responder);
+	}
+
+
+
+	@Override
+	public void deregisterResponder(ICarSensorResponder responder) {
+		responders.remove(responder);
+	}
+
+
+
+	@Override
+	public String getId() {
+		return detectorId;
+	}
+
+
+
+	@Override
+	public boolean carIsDetected() {
+		return carDetected;
+	}
+
+
+
+	// A car arrives at or leaves the sensor.
+	public void detect(boolean detected) {
+		carDetected = detected;
+		for (ICarSensorResponder responder : responders) {
+			responder.carEventDetected(detectorId, detected);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package bcccp.carpark;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A gate without a window, which counts how often it has been raised.
+public class HeadlessGate implements IGate {
+
+	private volatile boolean raised;
+	private AtomicInteger raises = new AtomicInteger();
+
+
+
+	@Override
+	public void raise() {
+		if (!raised) {
+			raises.incrementAndGet();
+		}
+		raised = true;
+	}
+
+
+
+	@Override
+	public void lower() {
+		raised = false;
+	}
+
+
+
+	@Override
+	public boolean isRaised() {
+		return raised;
+	}
+
+
+
+	public int getRaises() {
+		return raises.get();
+	}
+}
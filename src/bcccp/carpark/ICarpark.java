@@ -9,18 +9,25 @@ public interface ICarpark {
 	public void deregister(ICarparkObserver observer);
 	public String getName();
 	public boolean isFull();
+	// The carpark's clock, which lanes use to stamp tickets.
+	public long getCurrentTimeMillis();
+	public int getAvailableSpaces();
 	
 	public IAdhocTicket issueAdhocTicket();
 	public void recordAdhocTicketEntry();
 	public IAdhocTicket getAdhocTicket(String barcode);
-	public float calculateAddHocTicketCharge(long entryDateTime);
+	public long calculateAddHocTicketCharge(long entryDateTime);
 	public void recordAdhocTicketExit();
+	public long quoteAll(long asOfMillis);
 	
 	public void registerSeasonTicket(ISeasonTicket seasonTicket);
 	public void deregisterSeasonTicket(ISeasonTicket seasonTicket);
 
 	public boolean isSeasonTicketValid(String ticketId);
 	public boolean isSeasonTicketInUse(String ticketId);
+	// Valid and not in use, or valid and in use, in a single lookup.
+	public boolean isSeasonTicketValidForEntry(String ticketId);
+	public boolean isSeasonTicketValidForExit(String ticketId);
 	public void recordSeasonTicketEntry(String ticketId);
 	public void recordSeasonTicketExit(String ticketId);
 
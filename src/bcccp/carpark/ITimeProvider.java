@@ -6,4 +6,7 @@ public interface ITimeProvider {
 
 	// Gets the local time.
 	LocalDateTime getLocalDateTime();
+	
+	// Gets the current time in milliseconds since the epoch.
+	long getCurrentTimeMillis();
 }
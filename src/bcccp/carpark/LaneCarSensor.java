@@ -0,0 +1,54 @@
+package bcccp.carpark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// A car sensor whose responders are told on their lane's thread rather than the sensor's.
+public class LaneCarSensor implements ICarSensor {
+
+	private ICarSensor sensor;
+	private LaneEventLoop lane;
+	private ConcurrentMap<ICarSensorResponder, ICarSensorResponder> forwarders = new ConcurrentHashMap<>();
+
+
+
+	public LaneCarSensor(ICarSensor sensor, LaneEventLoop lane) {
+		this.sensor = sensor;
+		this.lane = lane;
+	}
+
+
+
+	@Override
+	public void registerResponder(ICarSensorResponder responder) {
+		ICarSensorResponder forwarder = (detectorId, detected) -> 
+				lane.execute(() -> responder.carEventDetected(detectorId, detected));
+		if (forwarders.putIfAbsent(responder, forwarder) == null) {
+			sensor.registerResponder(forwarder);
+		}
+	}
+
+
+
+	@Override
+	public void deregisterResponder(ICarSensorResponder responder) {
+		ICarSensorResponder forwarder = forwarders.remove(responder);
+		if (forwarder != null) {
+			sensor.deregisterResponder(forwarder);
+		}
+	}
+
+
+
+	@Override
+	public String getId() {
+		return sensor.getId();
+	}
+
+
+
+	@Override
+	public boolean carIsDetected() {
+		return sensor.carIsDetected();
+	}
+}
@@ -0,0 +1,23 @@
+package bcccp.carpark;
+
+// A carpark observer that is told on its lane's thread rather than the thread that
+// changed the carpark, so a controller only ever runs on its own lane.
+public class LaneCarparkObserver implements ICarparkObserver {
+
+	private ICarparkObserver observer;
+	private LaneEventLoop lane;
+
+
+
+	public LaneCarparkObserver(ICarparkObserver observer, LaneEventLoop lane) {
+		this.observer = observer;
+		this.lane = lane;
+	}
+
+
+
+	@Override
+	public void notifyCarparkEvent() {
+		lane.execute(observer::notifyCarparkEvent);
+	}
+}
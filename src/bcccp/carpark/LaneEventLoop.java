@@ -0,0 +1,208 @@
+package bcccp.carpark;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs everything that happens at one lane, in the order it happened, on the lane's own thread.
+// Sensors, panels and the carpark hand their events to the lane instead of calling its
+// controller, so a controller only ever runs on one thread and needs no locks, and the
+// lanes of a carpark run side by side.
+// The queue is lock-free and bounded: an event that would take it past its capacity is
+// refused rather than left to pile up behind a stuck controller. The lane's thread parks
+// while the queue is empty and is woken by the event that makes it non-empty.
+public class LaneEventLoop implements Executor {
+
+	private static class Posted {
+		private final Runnable task;
+		private final long postedNanos;
+
+		Posted(Runnable task, long postedNanos) {
+			this.task = task;
+			this.postedNanos = postedNanos;
+		}
+	}
+
+	private String name;
+
+	private int capacity;
+
+	private Queue<Posted> queue = new ConcurrentLinkedQueue<>();
+
+	// Events accepted and not yet run; a producer claims a place here before queueing.
+	private AtomicInteger depth = new AtomicInteger();
+
+	private AtomicInteger maxDepth = new AtomicInteger();
+
+	private LongAdder processed = new LongAdder();
+
+	private LongAdder rejected = new LongAdder();
+
+	private AtomicLong maxAgeNanos = new AtomicLong();
+
+	private LongAdder totalAgeNanos = new LongAdder();
+
+	private volatile boolean running = true;
+
+	private Thread thread;
+
+
+
+	public LaneEventLoop(String name, int capacity) {
+		if (capacity <= 0) {
+			throw new RuntimeException("LaneEventLoop : capacity must be positive");
+		}
+		this.name = name;
+		this.capacity = capacity;
+		thread = new Thread(this::runLoop, "lane-" + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+
+	// Queues the event for the lane's thread; throws if the queue is full or the lane is shut down.
+	@Override
+	public void execute(Runnable task) {
+		if (!running) {
+			rejected.increment();
+			throw new RejectedExecutionException("Lane " + name + " is shut down");
+		}
+		int before;
+		do {
+			before = depth.get();
+			if (before >= capacity) {
+				rejected.increment();
+				throw new RejectedExecutionException("Lane " + name + " event queue is full");
+			}
+		}
+		while (!depth.compareAndSet(before, before + 1));
+		// A shutdown since the check above may have seen the queue empty and let the
+		// thread go, so the place is given back rather than queueing an event that never runs.
+		if (!running) {
+			depth.decrementAndGet();
+			LockSupport.unpark(thread);
+			rejected.increment();
+			throw new RejectedExecutionException("Lane " + name + " is shut down");
+		}
+		maxDepth.accumulateAndGet(before + 1, Math::max);
+		queue.offer(new Posted(task, System.nanoTime()));
+		if (before == 0) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+
+
+	private void runLoop() {
+		while (running || depth.get() > 0) {
+			Posted posted = queue.poll();
+			if (posted == null) {
+				// A producer that has claimed a place may not have queued its event yet.
+				if (depth.get() > 0) {
+					Thread.yield();
+				}
+				else {
+					LockSupport.park(this);
+				}
+				continue;
+			}
+			long age = System.nanoTime() - posted.postedNanos;
+			maxAgeNanos.accumulateAndGet(age, Math::max);
+			totalAgeNanos.add(age);
+			try {
+				posted.task.run();
+			}
+			catch (Throwable e) {
+				// Errors too, so one bad event cannot stop the lane and leave its queue to fill.
+				log("event failed: " + e);
+			}
+			processed.increment();
+			depth.decrementAndGet();
+		}
+	}
+
+
+
+	// Refuses new events, runs the ones already queued and stops the lane's thread.
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+
+
+	public boolean awaitTermination(long millis) throws InterruptedException {
+		thread.join(millis);
+		return !thread.isAlive();
+	}
+
+
+
+	// Whether the caller is on the lane's thread.
+	public boolean inLane() {
+		return Thread.currentThread() == thread;
+	}
+
+
+
+	public String getName() {
+		return name;
+	}
+
+
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+
+	// Events waiting or running.
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+
+
+	public int getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+
+
+	public long getProcessedEvents() {
+		return processed.sum();
+	}
+
+
+
+	public long getRejectedEvents() {
+		return rejected.sum();
+	}
+
+
+
+	// The longest an event has waited in the queue before it ran.
+	public long getMaxEventAgeNanos() {
+		return maxAgeNanos.get();
+	}
+
+
+
+	public long getMeanEventAgeNanos() {
+		long events = processed.sum();
+		return events == 0 ? 0 : totalAgeNanos.sum() / events;
+	}
+
+
+
+	private void log(String message) {
+		System.out.println("LaneEventLoop " + name + " : " + message);
+	}
+}
@@ -0,0 +1,44 @@
+package bcccp.carpark;
+
+import java.util.concurrent.Executor;
+
+// A gate driven from a lane's thread whose raising and lowering run on the executor,
+// such as EventQueue::invokeLater for a Swing gate. The gate is taken to be up or down
+// as soon as it is told, so the controller sees what it asked for.
+public class LaneGate implements IGate {
+
+	private IGate gate;
+	private Executor output;
+	private volatile boolean raised;
+
+
+
+	public LaneGate(IGate gate, Executor output) {
+		this.gate = gate;
+		this.output = output;
+		this.raised = gate.isRaised();
+	}
+
+
+
+	@Override
+	public void raise() {
+		raised = true;
+		output.execute(gate::raise);
+	}
+
+
+
+	@Override
+	public void lower() {
+		raised = false;
+		output.execute(gate::lower);
+	}
+
+
+
+	@Override
+	public boolean isRaised() {
+		return raised;
+	}
+}
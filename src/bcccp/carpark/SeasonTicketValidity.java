@@ -0,0 +1,68 @@
+package bcccp.carpark;
+
+import bcccp.tickets.season.ISeasonTicket;
+
+// Season ticket checks on local epoch millis, for the entry and exit lanes.
+// A ticket's valid period is already a pair of epoch millis, which the zone offset
+// table moves onto the local clock without any date objects. Today's business hours
+// are worked out once, at the first check of each day, so a check is a few long
+// comparisons.
+class SeasonTicketValidity {
+
+	private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000L;
+
+	private static final long NANOS_IN_MILLI = 1000 * 1000L;
+
+	private ITimeProvider timeProvider;
+
+	private ZoneOffsetTable zoneOffsets;
+
+	private volatile BusinessDay today = new BusinessDay(Long.MIN_VALUE);
+
+
+
+	// Business hours of one day in local epoch millis, both ends included.
+	private static class BusinessDay {
+		private final long dayStart;
+		private final long start;
+		private final long end;
+
+		BusinessDay(long dayStart) {
+			this.dayStart = dayStart;
+			this.start = dayStart + Constants.START_BUSINESS_TIME.toNanoOfDay() / NANOS_IN_MILLI;
+			this.end = dayStart + Constants.END_BUSINESS_TIME.toNanoOfDay() / NANOS_IN_MILLI;
+		}
+
+		boolean contains(long localMillis) {
+			return localMillis >= start && localMillis <= end;
+		}
+	}
+
+
+
+	SeasonTicketValidity(ITimeProvider timeProvider, ZoneOffsetTable zoneOffsets) {
+		this.timeProvider = timeProvider;
+		this.zoneOffsets = zoneOffsets;
+	}
+
+
+
+	// Whether now is in business hours and within the ticket's valid period.
+	boolean isValid(ISeasonTicket ticket) {
+		long now = zoneOffsets.toLocalMillis(timeProvider.getCurrentTimeMillis());
+		return isBusinessHours(now)
+				&& now >= zoneOffsets.toLocalMillis(ticket.getStartValidPeriod())
+				&& now <= zoneOffsets.toLocalMillis(ticket.getEndValidPeriod());
+	}
+
+
+
+	private boolean isBusinessHours(long localMillis) {
+		BusinessDay day = today;
+		if (localMillis < day.dayStart || localMillis >= day.dayStart + MILLIS_IN_DAY) {
+			day = new BusinessDay(Math.floorDiv(localMillis, MILLIS_IN_DAY) * MILLIS_IN_DAY);
+			today = day;
+		}
+		return day.contains(localMillis);
+	}
+}
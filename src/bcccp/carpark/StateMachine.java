@@ -0,0 +1,144 @@
+package bcccp.carpark;
+
+// A finite state machine whose transitions are a table indexed by state and event.
+// Each cell holds the action for that event in that state, which returns the state
+// to move to, or null to stay. Each state can have an entry action, which may itself
+// return a state to move straight on to; those moves are followed in a loop rather
+// than by the actions calling back into the machine.
+// Firing an event is an array lookup and allocates nothing. Moves between each pair
+// of states are counted and the time spent in their entry actions is summed.
+// A machine belongs to one lane and is not safe to fire from several threads.
+public class StateMachine<S extends Enum<S>, E extends Enum<E>> {
+
+	// Performed on an event or on entering a state, given the state being left.
+	public interface Action<S> {
+		public S perform(S from);
+	}
+
+	private S[] states;
+
+	private int eventCount;
+
+	private Action<S>[] transitions;
+
+	private Action<S>[] unhandled;
+
+	private Action<S>[] entryActions;
+
+	private long[] transitionCounts;
+
+	private long[] transitionNanos;
+
+	private S state;
+
+	private S previous;
+
+
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public StateMachine(Class<S> stateType, Class<E> eventType) {
+		states = stateType.getEnumConstants();
+		eventCount = eventType.getEnumConstants().length;
+		transitions = new Action[states.length * eventCount];
+		unhandled = new Action[eventCount];
+		entryActions = new Action[states.length];
+		transitionCounts = new long[states.length * states.length];
+		transitionNanos = new long[states.length * states.length];
+	}
+
+
+
+	// Moves to the target on the event in any of the states.
+	@SafeVarargs
+	public final StateMachine<S, E> on(E event, S target, S... from) {
+		return on(event, previous -> target, from);
+	}
+
+
+
+	// Performs the action on the event in any of the states.
+	@SafeVarargs
+	public final StateMachine<S, E> on(E event, Action<S> action, S... from) {
+		for (S state : from) {
+			transitions[state.ordinal() * eventCount + event.ordinal()] = action;
+		}
+		return this;
+	}
+
+
+
+	// Performs the action on the event in any state without its own action for it.
+	public StateMachine<S, E> otherwise(E event, Action<S> action) {
+		unhandled[event.ordinal()] = action;
+		return this;
+	}
+
+
+
+	public StateMachine<S, E> onEntry(S state, Action<S> action) {
+		entryActions[state.ordinal()] = action;
+		return this;
+	}
+
+
+
+	public void fire(E event) {
+		Action<S> action = transitions[state.ordinal() * eventCount + event.ordinal()];
+		if (action == null) {
+			action = unhandled[event.ordinal()];
+			if (action == null) {
+				return;
+			}
+		}
+		S target = action.perform(state);
+		if (target != null) {
+			moveTo(target);
+		}
+	}
+
+
+
+	// Moves to the state, running its entry action and any moves that follow from it.
+	public void moveTo(S target) {
+		while (target != null) {
+			S from = state;
+			previous = from;
+			state = target;
+			Action<S> entryAction = entryActions[target.ordinal()];
+			long started = System.nanoTime();
+			S next = entryAction == null ? null : entryAction.perform(from);
+			if (from != null) {
+				int index = from.ordinal() * states.length + target.ordinal();
+				transitionCounts[index]++;
+				transitionNanos[index] += System.nanoTime() - started;
+			}
+			target = next;
+		}
+	}
+
+
+
+	public S getState() {
+		return state;
+	}
+
+
+
+	// The state before the current one, for states that go back to where they came from.
+	public S getPrevious() {
+		return previous;
+	}
+
+
+
+	public long getTransitionCount(S from, S to) {
+		return transitionCounts[from.ordinal() * states.length + to.ordinal()];
+	}
+
+
+
+	// Time spent in the entry action of to, over all the moves from from.
+	public long getTransitionNanos(S from, S to) {
+		return transitionNanos[from.ordinal() * states.length + to.ordinal()];
+	}
+}
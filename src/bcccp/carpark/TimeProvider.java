@@ -1,11 +1,28 @@
 package bcccp.carpark;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 // Used to assist with mocking current time.
+// The local time comes from the zone offset table rather than the zone rules.
 public class TimeProvider implements ITimeProvider{
 
 	public LocalDateTime getLocalDateTime() {
-		return Utilities.toLocalDateTime(System.currentTimeMillis());
+		return toLocalDateTime(getCurrentTimeMillis());
+	}
+	
+	
+	
+	public long getCurrentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+	
+	
+	
+	// The local date time of an instant, for providers that keep their own clock.
+	public static LocalDateTime toLocalDateTime(long epochMillis) {
+		long localMillis = ZoneOffsetTable.systemDefault().toLocalMillis(epochMillis);
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(localMillis, 1000L), 
+				(int) Math.floorMod(localMillis, 1000L) * 1000000, ZoneOffset.UTC);
 	}
 }
@@ -0,0 +1,82 @@
+package bcccp.carpark;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Precomputed UTC offsets for a time zone.
+// Converting an instant to local wall clock time is a binary search over
+// primitive arrays, so it does not create Instant or ZonedDateTime objects.
+public class ZoneOffsetTable {
+
+	// Transitions are tabled between 1900 and 2100; anything outside falls back to the zone rules.
+	private static final long TABLE_START_MILLIS = -2208988800000L;
+
+	private static final long TABLE_END_MILLIS = 4102444800000L;
+
+	private static final ZoneOffsetTable SYSTEM_DEFAULT = new ZoneOffsetTable(ZoneId.systemDefault());
+
+	private final ZoneRules rules;
+
+	// offsetMillis[i] applies before transitionMillis[i], the last offset applies after the last transition.
+	private final long[] transitionMillis;
+
+	private final int[] offsetMillis;
+
+
+
+	public ZoneOffsetTable(ZoneId zoneId) {
+		this.rules = zoneId.getRules();
+
+		List<ZoneOffsetTransition> transitions = new ArrayList<>();
+		ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(TABLE_START_MILLIS));
+		while (transition != null && transition.toEpochSecond() * 1000 < TABLE_END_MILLIS) {
+			transitions.add(transition);
+			transition = rules.nextTransition(transition.getInstant());
+		}
+
+		transitionMillis = new long[transitions.size()];
+		offsetMillis = new int[transitions.size() + 1];
+		offsetMillis[0] = toMillis(rules.getOffset(Instant.ofEpochMilli(TABLE_START_MILLIS)));
+		for (int i = 0; i < transitions.size(); i++) {
+			transitionMillis[i] = transitions.get(i).toEpochSecond() * 1000;
+			offsetMillis[i + 1] = toMillis(transitions.get(i).getOffsetAfter());
+		}
+	}
+
+
+
+	// The table for the default time zone when the application started.
+	public static ZoneOffsetTable systemDefault() {
+		return SYSTEM_DEFAULT;
+	}
+
+
+
+	public int getOffsetMillis(long epochMillis) {
+		if (epochMillis < TABLE_START_MILLIS || epochMillis >= TABLE_END_MILLIS) {
+			return toMillis(rules.getOffset(Instant.ofEpochMilli(epochMillis)));
+		}
+
+		int index = Arrays.binarySearch(transitionMillis, epochMillis);
+		return index >= 0 ? offsetMillis[index + 1] : offsetMillis[-index - 1];
+	}
+
+
+
+	// Milliseconds since the epoch on the local wall clock.
+	public long toLocalMillis(long epochMillis) {
+		return epochMillis + getOffsetMillis(epochMillis);
+	}
+
+
+
+	private static int toMillis(ZoneOffset offset) {
+		return offset.getTotalSeconds() * 1000;
+	}
+}
@@ -6,6 +6,7 @@ import bcccp.carpark.ICarSensorResponder;
 import bcccp.carpark.ICarpark;
 import bcccp.carpark.ICarparkObserver;
 import bcccp.carpark.IGate;
+import bcccp.carpark.StateMachine;
 import bcccp.tickets.adhoc.IAdhocTicket;
 
 public class EntryController 
@@ -15,8 +16,10 @@ public class EntryController
 	
 	public enum STATE { IDLE, WAITING, FULL, VALIDATED, ISSUED, TAKEN, ENTERING, ENTERED, BLOCKED } 
 	
-	private STATE state_;
-	private STATE prevState_;
+	private enum EVENT { OUTSIDE_DETECTED, OUTSIDE_CLEARED, INSIDE_DETECTED, INSIDE_CLEARED,
+		BUTTON_PUSHED, TICKET_INSERTED, TICKET_TAKEN, CARPARK_CHANGED }
+	
+	private StateMachine<STATE, EVENT> machine_;
 	private String message;
 	
 	private IGate entryGate_;
@@ -28,6 +31,8 @@ public class EntryController
 	private IAdhocTicket  adhocTicket = null;
 	private long entryTime;
 	private String seasonTicketId = null;
+	private String insertedBarcode = null;
+	private boolean quiet;
 	
 	
 
@@ -35,25 +40,80 @@ public class EntryController
 			ICarSensor os, 
 			ICarSensor is,
 			IEntryUI ui) {
+		this(carpark, entryGate, os, is, ui, false);
+	}
+	
+	
+	
+	// A quiet controller does not log every step, such as when a simulation drives it.
+	public EntryController(Carpark carpark, IGate entryGate, 
+			ICarSensor os, 
+			ICarSensor is,
+			IEntryUI ui,
+			boolean quiet) {
 		
+		this.quiet = quiet;
 		this.carpark = carpark;
 		this.entryGate_ = entryGate;
 		this.outsideEntrySensor_ = os;
 		this.insideEntrySensor_ = is;
 		this.ui = ui;
+		this.machine_ = buildMachine();
 		
 		outsideEntrySensor_.registerResponder(this);
 		insideEntrySensor_.registerResponder(this);
 		ui.registerController(this);
 		
-		setState(STATE.IDLE);
+		machine_.moveTo(STATE.IDLE);
 		
 	}
+	
+	
+	
+	// The transitions on each event, and what happens on entering each state.
+	private StateMachine<STATE, EVENT> buildMachine() {
+		StateMachine<STATE, EVENT> machine = new StateMachine<>(STATE.class, EVENT.class);
+	
+		machine.on(EVENT.INSIDE_CLEARED, from -> machine.getPrevious(), STATE.BLOCKED)
+			.on(EVENT.OUTSIDE_DETECTED, STATE.WAITING, STATE.IDLE)
+			.on(EVENT.INSIDE_DETECTED, STATE.BLOCKED, STATE.IDLE, STATE.WAITING, STATE.FULL, STATE.VALIDATED, STATE.ISSUED)
+			.on(EVENT.OUTSIDE_CLEARED, STATE.IDLE, STATE.WAITING, STATE.FULL, STATE.VALIDATED, STATE.ISSUED, STATE.TAKEN)
+			.on(EVENT.INSIDE_DETECTED, STATE.ENTERING, STATE.TAKEN)
+			.on(EVENT.OUTSIDE_CLEARED, STATE.ENTERED, STATE.ENTERING)
+			.on(EVENT.INSIDE_CLEARED, STATE.TAKEN, STATE.ENTERING)
+			.on(EVENT.OUTSIDE_DETECTED, STATE.ENTERING, STATE.ENTERED)
+			.on(EVENT.INSIDE_CLEARED, STATE.IDLE, STATE.ENTERED);
+	
+		machine.on(EVENT.BUTTON_PUSHED, from -> issueTicket(), STATE.WAITING)
+			.otherwise(EVENT.BUTTON_PUSHED, from -> wrongState("ButtonPushed"))
+			.on(EVENT.TICKET_INSERTED, from -> validateTicket(insertedBarcode), STATE.WAITING)
+			.otherwise(EVENT.TICKET_INSERTED, from -> wrongState("ticketInserted"))
+			.on(EVENT.TICKET_TAKEN, STATE.TAKEN, STATE.ISSUED, STATE.VALIDATED)
+			.otherwise(EVENT.TICKET_TAKEN, from -> wrongState("ticketTaken"))
+			.on(EVENT.CARPARK_CHANGED, from -> carpark.isFull() ? null : STATE.WAITING, STATE.FULL);
+	
+		machine.onEntry(STATE.BLOCKED, from -> show(STATE.BLOCKED, "Blocked"))
+			.onEntry(STATE.IDLE, this::enterIdle)
+			.onEntry(STATE.WAITING, from -> showWhileCarOutside(STATE.WAITING, "Push Button"))
+			.onEntry(STATE.FULL, from -> show(STATE.FULL, "Carpark Full"))
+			.onEntry(STATE.VALIDATED, from -> showWhileCarOutside(STATE.VALIDATED, "Ticket Validated"))
+			.onEntry(STATE.ISSUED, from -> showWhileCarOutside(STATE.ISSUED, "Take Ticket"))
+			.onEntry(STATE.TAKEN, from -> {
+				show(STATE.TAKEN, "Ticket Taken");
+				entryGate_.raise();
+				return null;
+			})
+			.onEntry(STATE.ENTERING, from -> show(STATE.ENTERING, "Entering"))
+			.onEntry(STATE.ENTERED, from -> show(STATE.ENTERED, "Entered"));
+		return machine;
+	}
 
 	
 	
 	private void log(String message) {
-		System.out.println("EntryController : " + message);
+		if (!quiet) {
+			System.out.println("EntryController : " + message);
+		}
 	}
 
 
@@ -63,87 +123,36 @@ public class EntryController
 
 		log("carEventDetected: " + detectorId + ", car Detected: " + carDetected );
 		
-		switch (state_) {
-		
-		case BLOCKED: 
-			if (detectorId.equals(insideEntrySensor_.getId()) && !carDetected) {
-				setState(prevState_);
-			}
-			break;
-			
-		case IDLE: 
-			log("eventDetected: IDLE");
-			if (detectorId.equals(outsideEntrySensor_.getId()) && carDetected) {
-				log("eventDetected: setting state to WAITING");
-				setState(STATE.WAITING);
-			}
-			else if (detectorId.equals(insideEntrySensor_.getId()) && carDetected) {
-				setState(STATE.BLOCKED);
-			}
-			break;
-			
-		case WAITING: 
-		case FULL: 
-		case VALIDATED: 
-		case ISSUED: 
-			if (detectorId.equals(outsideEntrySensor_.getId()) && !carDetected) {
-				setState(STATE.IDLE);
-			}
-			else if (detectorId.equals(insideEntrySensor_.getId()) && carDetected) {
-				setState(STATE.BLOCKED);
+		if (detectorId.equals(outsideEntrySensor_.getId())) {
+			machine_.fire(carDetected ? EVENT.OUTSIDE_DETECTED : EVENT.OUTSIDE_CLEARED);
 			}
-			break;
-			
-		case TAKEN: 
-			if (detectorId.equals(outsideEntrySensor_.getId()) && !carDetected) {
-				setState(STATE.IDLE);
-			}
-			else if (detectorId.equals(insideEntrySensor_.getId()) && carDetected) {
-				setState(STATE.ENTERING);
-			}
-			break;
-			
-		case ENTERING: 
-			if (detectorId.equals(outsideEntrySensor_.getId()) && !carDetected) {
-				setState(STATE.ENTERED);
-			}
-			else if (detectorId.equals(insideEntrySensor_.getId()) && !carDetected) {
-				setState(STATE.TAKEN);
-			}
-			break;
-			
-		case ENTERED: 
-			if (detectorId.equals(outsideEntrySensor_.getId()) && carDetected) {
-				setState(STATE.ENTERING);
-			}
-			else if (detectorId.equals(insideEntrySensor_.getId()) && !carDetected) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		default: 
-			break;
-			
+		else if (detectorId.equals(insideEntrySensor_.getId())) {
+			machine_.fire(carDetected ? EVENT.INSIDE_DETECTED : EVENT.INSIDE_CLEARED);
 		}
 		
 	}
 
 	
 	
-	private void setState(STATE newState) {
-		switch (newState) {
+	private STATE show(STATE state, String message) {
+		log("setState: " + state);
+		this.message = message;
+		ui.display(message);
+		return null;
+	}
 		
-		case BLOCKED: 
-			log("setState: BLOCKED");
-			prevState_ = state_;
-			state_ = STATE.BLOCKED;
-			message = "Blocked";
-			ui.display(message);
-			break;
 			
-		case IDLE: 
-			log("setState: IDLE");
-			if (prevState_ == STATE.ENTERED) {
+	
+	// Shown only while a car is still outside; once it has gone the lane is idle again.
+	private STATE showWhileCarOutside(STATE state, String message) {
+		show(state, message);
+		return outsideEntrySensor_.carIsDetected() ? null : STATE.IDLE;
+	}
+	
+	
+	
+	private STATE enterIdle(STATE from) {
+		if (from == STATE.ENTERED) {
 				if (adhocTicket != null) {
 					adhocTicket.enter(entryTime);
 					carpark.recordAdhocTicketEntry();
@@ -156,178 +165,103 @@ public class EntryController
 					seasonTicketId = null;
 				}
 			}
-			message = "Idle";
-			state_ = STATE.IDLE;
-			prevState_ = state_;
-			ui.display(message);
-			if (outsideEntrySensor_.carIsDetected()) {
-				setState(STATE.WAITING);
-			}
+		show(STATE.IDLE, "Idle");
 			if (entryGate_.isRaised()) {
 				entryGate_.lower();
 			}
 			ui.discardTicket();
-			break;
-			
-		case WAITING: 
-			log("setState: WAITING");
-			message = "Push Button";
-			state_ = STATE.WAITING;
-			prevState_ = state_;
-			ui.display(message);
-			if (!outsideEntrySensor_.carIsDetected()) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		case FULL: 
-			log("setState: FULL");
-			message = "Carpark Full";
-			state_ = STATE.FULL;
-			prevState_ = state_;
-			ui.display(message);
-			break;
-			
-		case VALIDATED: 
-			log("setState: VALIDATED");
-			message = "Ticket Validated";
-			state_ = STATE.VALIDATED;
-			prevState_ = state_;
-			ui.display(message);
-			if (!outsideEntrySensor_.carIsDetected()) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		case ISSUED: 
-			log("setState: ISSUED");
-			message = "Take Ticket";
-			state_ = STATE.ISSUED;
-			prevState_ = state_;
-			ui.display(message);
-			if (!outsideEntrySensor_.carIsDetected()) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		case TAKEN: 
-			log("setState: TAKEN");
-			message = "Ticket Taken";
-			state_ = STATE.TAKEN;
-			prevState_ = state_;
-			ui.display(message);
-			entryGate_.raise();
-			break;
-			
-		case ENTERING: 
-			log("setState: ENTERING");
-			message = "Entering";
-			state_ = STATE.ENTERING;
-			prevState_ = state_;
-			ui.display(message);
-			break;
-			
-		case ENTERED: 
-			log("setState: ENTERED");
-			message = "Entered";
-			state_ = STATE.ENTERED;
-			prevState_ = state_;
-			ui.display(message);
-			break;
-			
-		default: 
-			break;
-			
+		return outsideEntrySensor_.carIsDetected() ? STATE.WAITING : null;
 		}
 				
+	
+	
+	private STATE wrongState(String event) {
+		ui.beep();
+		log(event + ": called while in incorrect state");
+		return null;
 	}
 	
+	
+	
 	public STATE getState() {
-		return this.state_;
+		return machine_.getState();
+	}
+	
+	
+	
+	public long getTransitionCount(STATE from, STATE to) {
+		return machine_.getTransitionCount(from, to);
+	}
+	
+	
+	
+	public long getTransitionNanos(STATE from, STATE to) {
+		return machine_.getTransitionNanos(from, to);
 	}
 
 	
 	
 	@Override
 	public void buttonPushed() {
-		if (state_ == STATE.WAITING) {
-			if (!carpark.isFull()) {
+		machine_.fire(EVENT.BUTTON_PUSHED);
+	}
+	
+	
+	
+	private STATE issueTicket() {
+		if (carpark.isFull()) {
+			return STATE.FULL;
+		}
 				adhocTicket = carpark.issueAdhocTicket();
 				
 				String carparkId = adhocTicket.getCarparkId();
 				int ticketNo = adhocTicket.getTicketNo();
-				entryTime = System.currentTimeMillis();
-				//entryTime = adhocTicket.getEntryDateTime();
+				entryTime = carpark.getCurrentTimeMillis();
 				String barcode = adhocTicket.getBarcode();
 				
 				ui.printTicket(carparkId, ticketNo, entryTime, barcode);
-				setState(STATE.ISSUED);
-			}
-			else {
-				setState(STATE.FULL);
-			}
-		}
-		else {
-			ui.beep();
-			log("ButtonPushed: called while in incorrect state");
-		}
-		
+		return STATE.ISSUED;
 	}
 
 	
 	
 	@Override
 	public void ticketInserted(String barcode) {
-		if (state_ == STATE.WAITING) {
+		insertedBarcode = barcode;
+		machine_.fire(EVENT.TICKET_INSERTED);
+		insertedBarcode = null;
+	}
+	
+	
+	
+	private STATE validateTicket(String barcode) {
 			try {
-				if (carpark.isSeasonTicketValid(barcode) &&
-					!carpark.isSeasonTicketInUse(barcode)) {
+				if (carpark.isSeasonTicketValidForEntry(barcode)) {
 					this.seasonTicketId = barcode;
-					setState(STATE.VALIDATED);
+				return STATE.VALIDATED;
 				}
-				else {
+		}
+		catch (NumberFormatException e) {
+			// Treated as an invalid ticket.
+		}
 					ui.beep();
 					seasonTicketId = null;
 					log("ticketInserted: invalid ticket id");				
-				}
-			}
-			catch (NumberFormatException e) {
-				ui.beep();
-				seasonTicketId = null;
-				log("ticketInserted: invalid ticket id");				
-			}
-		}
-		else {
-			ui.beep();
-			log("ticketInserted: called while in incorrect state");
-		}
-		
+		return null;
 	}
 	
 	
 	
 	@Override
 	public void ticketTaken() {
-		if (state_ == STATE.ISSUED || state_ == STATE.VALIDATED ) {
-			setState(STATE.TAKEN);
-		}
-		else {
-			ui.beep();
-			log("ticketTaken: called while in incorrect state");
-		}
-		
+		machine_.fire(EVENT.TICKET_TAKEN);
 	}
 
 
 
 	@Override
 	public void notifyCarparkEvent() {
-		if (state_ == STATE.FULL) {
-			if (!carpark.isFull()) {
-				setState(STATE.WAITING);
-			}
-		}
-		
+		machine_.fire(EVENT.CARPARK_CHANGED);
 	}
 
 	
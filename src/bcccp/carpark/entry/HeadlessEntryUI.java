@@ -0,0 +1,100 @@
+package bcccp.carpark.entry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An entry panel without a window. Pushing the button, inserting a season ticket
+// and taking a ticket are calls, and what the panel shows can be read back.
+public class HeadlessEntryUI implements IEntryUI {
+
+	private IEntryController controller;
+	private volatile String displayText = "";
+	private volatile String printedBarcode;
+	private AtomicInteger beeps = new AtomicInteger();
+
+
+
+	@Override
+	public void registerController(IEntryController controller) {
+		this.controller = controller;
+	}
+
+
+
+	@Override
+	public void deregisterController() {
+		this.controller = null;
+	}
+
+
+
+	@Override
+	public void display(String message) {
+		displayText = message;
+	}
+
+
+
+	@Override
+	public void printTicket(String carparkId, int tNo, long entryDatetime, String barcode) {
+		printedBarcode = barcode;
+	}
+
+
+
+	@Override
+	public boolean ticketPrinted() {
+		return printedBarcode != null;
+	}
+
+
+
+	@Override
+	public void discardTicket() {
+		printedBarcode = null;
+	}
+
+
+
+	@Override
+	public void beep() {
+		beeps.incrementAndGet();
+	}
+
+
+
+	public void pushButton() {
+		controller.buttonPushed();
+	}
+
+
+
+	public void insertTicket(String barcode) {
+		controller.ticketInserted(barcode);
+	}
+
+
+
+	public void takeTicket() {
+		controller.ticketTaken();
+		printedBarcode = null;
+	}
+
+
+
+	public String getDisplayText() {
+		return displayText;
+	}
+
+
+
+	// The barcode of the ticket waiting to be taken, or null.
+	public String getPrintedBarcode() {
+		return printedBarcode;
+	}
+
+
+
+	public int getBeeps() {
+		return beeps.get();
+	}
+}
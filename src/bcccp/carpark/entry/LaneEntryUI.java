@@ -0,0 +1,109 @@
+package bcccp.carpark.entry;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import bcccp.carpark.LaneEventLoop;
+
+// An entry panel whose button and ticket slot reach the controller on its lane's thread.
+// What the controller tells the panel is passed on through the output executor.
+public class LaneEntryUI implements IEntryUI {
+
+	private IEntryUI ui;
+	private LaneEventLoop lane;
+	private Executor output;
+
+
+
+	// Output goes straight to the panel on the lane's thread.
+	public LaneEntryUI(IEntryUI ui, LaneEventLoop lane) {
+		this(ui, lane, Runnable::run);
+	}
+
+
+
+	// Output to the panel runs on the executor, such as EventQueue::invokeLater for a Swing panel.
+	public LaneEntryUI(IEntryUI ui, LaneEventLoop lane, Executor output) {
+		this.ui = ui;
+		this.lane = lane;
+		this.output = output;
+	}
+
+
+
+	@Override
+	public void registerController(IEntryController controller) {
+		ui.registerController(new IEntryController() {
+			@Override
+			public void buttonPushed() {
+				lane.execute(controller::buttonPushed);
+			}
+
+			@Override
+			public void ticketInserted(String barcode) {
+				lane.execute(() -> controller.ticketInserted(barcode));
+			}
+
+			@Override
+			public void ticketTaken() {
+				lane.execute(controller::ticketTaken);
+			}
+		});
+	}
+
+
+
+	@Override
+	public void deregisterController() {
+		ui.deregisterController();
+	}
+
+
+
+	@Override
+	public void display(String message) {
+		output.execute(() -> ui.display(message));
+	}
+
+
+
+	@Override
+	public void printTicket(String id, int tNo, long entryDatetime, String barcode) {
+		output.execute(() -> ui.printTicket(id, tNo, entryDatetime, barcode));
+	}
+
+
+
+	@Override
+	public boolean ticketPrinted() {
+		// Asked after the output already queued, so the answer includes a ticket just printed.
+		// It waits for the output executor, so it is for the lane's thread, not the panel's.
+		FutureTask<Boolean> printed = new FutureTask<>(ui::ticketPrinted);
+		output.execute(printed);
+		try {
+			return printed.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("LaneEntryUI : interrupted waiting for the panel", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("LaneEntryUI : could not ask the panel for its ticket", e.getCause());
+		}
+	}
+
+
+
+	@Override
+	public void discardTicket() {
+		output.execute(ui::discardTicket);
+	}
+
+
+
+	@Override
+	public void beep() {
+		output.execute(ui::beep);
+	}
+}
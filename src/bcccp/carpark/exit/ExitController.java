@@ -5,18 +5,20 @@ import bcccp.carpark.ICarSensor;
 import bcccp.carpark.ICarSensorResponder;
 import bcccp.carpark.ICarpark;
 import bcccp.carpark.IGate;
+import bcccp.carpark.StateMachine;
 import bcccp.tickets.adhoc.IAdhocTicket;
 
 public class ExitController 
 		implements ICarSensorResponder,
 		           IExitController {
 	
-	private enum STATE { IDLE, WAITING, PROCESSED, REJECTED, TAKEN, EXITING, EXITED, BLOCKED } 
+	public enum STATE { IDLE, WAITING, PROCESSED, REJECTED, TAKEN, EXITING, EXITED, BLOCKED } 
 	
-	private STATE state;
-	private STATE prevState;
+	private enum EVENT { INSIDE_DETECTED, INSIDE_CLEARED, OUTSIDE_DETECTED, OUTSIDE_CLEARED,
+		TICKET_INSERTED, TICKET_TAKEN }
+	
+	private StateMachine<STATE, EVENT> machine;
 	private String message;
-	//private String prevMessage;
 	
 	private IGate exitGate;
 	private ICarSensor is;
@@ -27,6 +29,8 @@ public class ExitController
 	private IAdhocTicket  adhocTicket = null;
 	private long exitTime;
 	private String seasonTicketId = null;
+	private String insertedTicket = null;
+	private boolean quiet;
 	
 	
 
@@ -34,25 +38,84 @@ public class ExitController
 			ICarSensor is,
 			ICarSensor os, 
 			IExitUI ui) {
+		this(carpark, exitGate, is, os, ui, false);
+	}
+	
+	
+	
+	// A quiet controller does not log every step, such as when a simulation drives it.
+	public ExitController(Carpark carpark, IGate exitGate, 
+			ICarSensor is,
+			ICarSensor os, 
+			IExitUI ui,
+			boolean quiet) {
 		
+		this.quiet = quiet;
 		this.carpark = carpark;
 		this.exitGate = exitGate;
 		this.is = is;
 		this.os = os;
 		this.ui = ui;
+		this.machine = buildMachine();
 		
 		os.registerResponder(this);
 		is.registerResponder(this);
 		ui.registerController(this);
 
-		prevState = STATE.IDLE;		
-		setState(STATE.IDLE);		
+		machine.moveTo(STATE.IDLE);		
+	}
+
+	
+	
+	// The transitions on each event, and what happens on entering each state.
+	private StateMachine<STATE, EVENT> buildMachine() {
+		StateMachine<STATE, EVENT> machine = new StateMachine<>(STATE.class, EVENT.class);
+		
+		machine.on(EVENT.INSIDE_CLEARED, from -> machine.getPrevious(), STATE.BLOCKED)
+			.on(EVENT.INSIDE_DETECTED, STATE.WAITING, STATE.IDLE)
+			.on(EVENT.OUTSIDE_DETECTED, STATE.BLOCKED, STATE.IDLE, STATE.WAITING, STATE.PROCESSED)
+			.on(EVENT.INSIDE_CLEARED, STATE.IDLE, STATE.WAITING, STATE.PROCESSED, STATE.TAKEN)
+			.on(EVENT.OUTSIDE_DETECTED, STATE.EXITING, STATE.TAKEN)
+			.on(EVENT.INSIDE_CLEARED, STATE.EXITED, STATE.EXITING)
+			.on(EVENT.OUTSIDE_CLEARED, STATE.TAKEN, STATE.EXITING)
+			.on(EVENT.INSIDE_DETECTED, STATE.EXITING, STATE.EXITED)
+			.on(EVENT.OUTSIDE_CLEARED, STATE.IDLE, STATE.EXITED);
+		
+		machine.on(EVENT.TICKET_INSERTED, from -> processTicket(insertedTicket), STATE.WAITING)
+			.otherwise(EVENT.TICKET_INSERTED, from -> {
+				ui.beep();
+				ui.discardTicket();
+				log("ticketInserted: called while in incorrect state");
+				return STATE.REJECTED;
+			})
+			.on(EVENT.TICKET_TAKEN, from -> {
+				exitGate.raise();
+				return STATE.TAKEN;
+			}, STATE.PROCESSED)
+			.on(EVENT.TICKET_TAKEN, STATE.WAITING, STATE.REJECTED)
+			.otherwise(EVENT.TICKET_TAKEN, from -> {
+				ui.beep();
+				log("ticketTaken: called while in incorrect state");
+				return null;
+			});
+		
+		machine.onEntry(STATE.BLOCKED, from -> show(STATE.BLOCKED, "Blocked"))
+			.onEntry(STATE.IDLE, this::enterIdle)
+			.onEntry(STATE.WAITING, from -> showWhileCarInside(STATE.WAITING, "Insert Ticket"))
+			.onEntry(STATE.PROCESSED, from -> showWhileCarInside(STATE.PROCESSED, "Take Processed Ticket"))
+			.onEntry(STATE.REJECTED, from -> showWhileCarInside(STATE.REJECTED, "Take Rejected Ticket"))
+			.onEntry(STATE.TAKEN, from -> show(STATE.TAKEN, "Ticket Taken"))
+			.onEntry(STATE.EXITING, from -> show(STATE.EXITING, "Exiting"))
+			.onEntry(STATE.EXITED, from -> show(STATE.EXITED, "Exited"));
+		return machine;
 	}
 
 	
 	
 	private void log(String message) {
-		System.out.println("ExitController : " + message);
+		if (!quiet) {
+			System.out.println("ExitController : " + message);
+		}
 	}
 
 
@@ -62,86 +125,36 @@ public class ExitController
 
 		log("carEventDetected: " + detectorId + ", car Detected: " + carDetected );
 		
-		switch (state) {
-		
-		case BLOCKED: 
-			if (detectorId.equals(is.getId()) && !carDetected) {
-				setState(prevState);
+		if (detectorId.equals(is.getId())) {
+			machine.fire(carDetected ? EVENT.INSIDE_DETECTED : EVENT.INSIDE_CLEARED);
 			}
-			break;
-			
-		case IDLE: 
-			log("eventDetected: IDLE");
-			if (detectorId.equals(is.getId()) && carDetected) {
-				log("eventDetected: setting state to WAITING");
-				setState(STATE.WAITING);
-			}
-			else if (detectorId.equals(os.getId()) && carDetected) {
-				setState(STATE.BLOCKED);
-			}
-			break;
-			
-		case WAITING: 
-		case PROCESSED: 
-			if (detectorId.equals(is.getId()) && !carDetected) {
-				setState(STATE.IDLE);
-			}
-			else if (detectorId.equals(os.getId()) && carDetected) {
-				setState(STATE.BLOCKED);
-			}
-			break;
-			
-		case TAKEN: 
-			if (detectorId.equals(is.getId()) && !carDetected) {
-				setState(STATE.IDLE);
-			}
-			else if (detectorId.equals(os.getId()) && carDetected) {
-				setState(STATE.EXITING);
-			}
-			break;
-			
-		case EXITING: 
-			if (detectorId.equals(is.getId()) && !carDetected) {
-				setState(STATE.EXITED);
-			}
-			else if (detectorId.equals(os.getId()) && !carDetected) {
-				setState(STATE.TAKEN);
-			}
-			break;
-			
-		case EXITED: 
-			if (detectorId.equals(is.getId()) && carDetected) {
-				setState(STATE.EXITING);
-			}
-			else if (detectorId.equals(os.getId()) && !carDetected) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		default: 
-			break;
-			
+		else if (detectorId.equals(os.getId())) {
+			machine.fire(carDetected ? EVENT.OUTSIDE_DETECTED : EVENT.OUTSIDE_CLEARED);
 		}
 		
 	}
 
 	
 	
-	private void setState(STATE newState) {
-		switch (newState) {
+	private STATE show(STATE state, String message) {
+		log("setState: " + state);
+		this.message = message;
+		ui.display(message);
+		return null;
+	}
 		
-		case BLOCKED: 
-			log("setState: BLOCKED");
-			prevState = state;
-			//prevMessage = message;
-			state = STATE.BLOCKED;
-			message = "Blocked";
-			ui.display(message);
-			break;
 			
-		case IDLE: 
-			log("setState: IDLE");
-			if (prevState == STATE.EXITED) {
+	
+	// Shown only while a car is still at the reader; once it has gone the lane is idle again.
+	private STATE showWhileCarInside(STATE state, String message) {
+		show(state, message);
+		return is.carIsDetected() ? null : STATE.IDLE;
+	}
+
+	
+	
+	private STATE enterIdle(STATE from) {
+		if (from == STATE.EXITED) {
 				if (adhocTicket != null) {
 					adhocTicket.exit(exitTime);
 					carpark.recordAdhocTicketExit();
@@ -154,88 +167,30 @@ public class ExitController
 			adhocTicket = null;
 			seasonTicketId = null;
 			
-			message = "Idle";
-			state = STATE.IDLE;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			if (is.carIsDetected()) {
-				setState(STATE.WAITING);
-			}
+		show(STATE.IDLE, "Idle");
 			if (exitGate.isRaised()) {
 				exitGate.lower();
 			}
 			exitTime = 0;
-			break;
-			
-		case WAITING: 
-			log("setState: WAITING");
-			message = "Insert Ticket";
-			state = STATE.WAITING;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			if (!is.carIsDetected()) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		case PROCESSED: 
-			log("setState: PROCESSED");
-			message = "Take Processed Ticket";
-			state = STATE.PROCESSED;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			if (!is.carIsDetected()) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		case REJECTED: 
-			log("setState: REJECTED");
-			message = "Take Rejected Ticket";
-			state = STATE.REJECTED;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			if (!is.carIsDetected()) {
-				setState(STATE.IDLE);
-			}
-			break;
-			
-		case TAKEN: 
-			log("setState: TAKEN");
-			message = "Ticket Taken";
-			state = STATE.TAKEN;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			break;
-			
-		case EXITING: 
-			log("setState: EXITING");
-			message = "Exiting";
-			state = STATE.EXITING;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			break;
-			
-		case EXITED: 
-			log("setState: EXITED");
-			message = "Exited";
-			state = STATE.EXITED;
-			//prevMessage = message;
-			prevState = state;
-			ui.display(message);
-			break;
-			
-		default: 
-			break;
-			
+		return is.carIsDetected() ? STATE.WAITING : null;
 		}
 				
+	
+	
+	public STATE getState() {
+		return machine.getState();
+	}
+
+	
+	
+	public long getTransitionCount(STATE from, STATE to) {
+		return machine.getTransitionCount(from, to);
+	}
+
+	
+	
+	public long getTransitionNanos(STATE from, STATE to) {
+		return machine.getTransitionNanos(from, to);
 	}
 
 	
@@ -248,53 +203,34 @@ public class ExitController
 	
 	@Override
 	public void ticketInserted(String ticketStr) {
-		if (state == STATE.WAITING) {
+		insertedTicket = ticketStr;
+		machine.fire(EVENT.TICKET_INSERTED);
+		insertedTicket = null;
+	}
+	
+	
+	
+	private STATE processTicket(String ticketStr) {
 			if (isAdhocTicket(ticketStr)) {
 				adhocTicket = carpark.getAdhocTicket(ticketStr);
-				exitTime = System.currentTimeMillis();
+				exitTime = carpark.getCurrentTimeMillis();
 				if (adhocTicket != null && adhocTicket.isPaid()) {
-					setState(STATE.PROCESSED);
-				}
-				else {
-					ui.beep();
-					setState(STATE.REJECTED);						
+				return STATE.PROCESSED;
 				}
 			}
-			else if (carpark.isSeasonTicketValid(ticketStr) &&
-					 carpark.isSeasonTicketInUse(ticketStr)){					
+			else if (carpark.isSeasonTicketValidForExit(ticketStr)){					
 				seasonTicketId = ticketStr;
-				setState(STATE.PROCESSED);
+			return STATE.PROCESSED;
 			}
-			else {
 				ui.beep();
-				setState(STATE.REJECTED);						
-			}
-		}
-		else {
-			ui.beep();
-			ui.discardTicket();
-			log("ticketInserted: called while in incorrect state");
-			setState(STATE.REJECTED);						
-		}
-		
+		return STATE.REJECTED;
 	}
 	
 	
 	
 	@Override
 	public void ticketTaken() {
-		if (state == STATE.PROCESSED)  {
-			exitGate.raise();
-			setState(STATE.TAKEN);
-		}
-		else if (state == STATE.REJECTED) {
-			setState(STATE.WAITING);
-		}
-		else {
-			ui.beep();
-			log("ticketTaken: called while in incorrect state");
-		}
-		
+		machine.fire(EVENT.TICKET_TAKEN);
 	}
 
 
@@ -0,0 +1,79 @@
+package bcccp.carpark.exit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An exit panel without a window. Inserting and taking a ticket are calls,
+// and what the panel shows can be read back.
+public class HeadlessExitUI implements IExitUI {
+
+	private IExitController controller;
+	private volatile String displayText = "";
+	private AtomicInteger beeps = new AtomicInteger();
+	private AtomicInteger discards = new AtomicInteger();
+
+
+
+	@Override
+	public void registerController(IExitController controller) {
+		this.controller = controller;
+	}
+
+
+
+	@Override
+	public void deregisterController() {
+		this.controller = null;
+	}
+
+
+
+	@Override
+	public void display(String message) {
+		displayText = message;
+	}
+
+
+
+	@Override
+	public void beep() {
+		beeps.incrementAndGet();
+	}
+
+
+
+	@Override
+	public void discardTicket() {
+		discards.incrementAndGet();
+	}
+
+
+
+	public void insertTicket(String barcode) {
+		controller.ticketInserted(barcode);
+	}
+
+
+
+	public void takeTicket() {
+		controller.ticketTaken();
+	}
+
+
+
+	public String getDisplayText() {
+		return displayText;
+	}
+
+
+
+	public int getBeeps() {
+		return beeps.get();
+	}
+
+
+
+	// Tickets the reader has kept.
+	public int getDiscards() {
+		return discards.get();
+	}
+}
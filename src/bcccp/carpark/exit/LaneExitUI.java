@@ -0,0 +1,75 @@
+package bcccp.carpark.exit;
+
+import java.util.concurrent.Executor;
+
+import bcccp.carpark.LaneEventLoop;
+
+// An exit panel whose ticket slot reaches the controller on its lane's thread.
+// What the controller tells the panel is passed on through the output executor.
+public class LaneExitUI implements IExitUI {
+
+	private IExitUI ui;
+	private LaneEventLoop lane;
+	private Executor output;
+
+
+
+	// Output goes straight to the panel on the lane's thread.
+	public LaneExitUI(IExitUI ui, LaneEventLoop lane) {
+		this(ui, lane, Runnable::run);
+	}
+
+
+
+	// Output to the panel runs on the executor, such as EventQueue::invokeLater for a Swing panel.
+	public LaneExitUI(IExitUI ui, LaneEventLoop lane, Executor output) {
+		this.ui = ui;
+		this.lane = lane;
+		this.output = output;
+	}
+
+
+
+	@Override
+	public void registerController(IExitController controller) {
+		ui.registerController(new IExitController() {
+			@Override
+			public void ticketInserted(String ticketStr) {
+				lane.execute(() -> controller.ticketInserted(ticketStr));
+			}
+
+			@Override
+			public void ticketTaken() {
+				lane.execute(controller::ticketTaken);
+			}
+		});
+	}
+
+
+
+	@Override
+	public void deregisterController() {
+		ui.deregisterController();
+	}
+
+
+
+	@Override
+	public void display(String message) {
+		output.execute(() -> ui.display(message));
+	}
+
+
+
+	@Override
+	public void beep() {
+		output.execute(ui::beep);
+	}
+
+
+
+	@Override
+	public void discardTicket() {
+		output.execute(ui::discardTicket);
+	}
+}
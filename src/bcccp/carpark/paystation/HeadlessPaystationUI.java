@@ -0,0 +1,94 @@
+package bcccp.carpark.paystation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A pay station without a window. Inserting a ticket, paying and taking the ticket
+// are calls, and what the pay station shows can be read back.
+public class HeadlessPaystationUI implements IPaystationUI {
+
+	private IPaystationController controller;
+	private volatile String displayText = "";
+	private volatile String printedBarcode;
+	private volatile long printedChargeCents;
+	private AtomicInteger beeps = new AtomicInteger();
+
+
+
+	@Override
+	public void registerController(IPaystationController controller) {
+		this.controller = controller;
+	}
+
+
+
+	@Override
+	public void deregisterController() {
+		this.controller = null;
+	}
+
+
+
+	@Override
+	public void printTicket(String carparkId, int ticketNo, long entryTime, long paidTime, long chargeCents, String barcode) {
+		printedChargeCents = chargeCents;
+		printedBarcode = barcode;
+	}
+
+
+
+	@Override
+	public void display(String message) {
+		displayText = message;
+	}
+
+
+
+	@Override
+	public void beep() {
+		beeps.incrementAndGet();
+	}
+
+
+
+	public void insertTicket(String barcode) {
+		controller.ticketInserted(barcode);
+	}
+
+
+
+	public void pay() {
+		controller.ticketPaid();
+	}
+
+
+
+	public void takeTicket() {
+		controller.ticketTaken();
+		printedBarcode = null;
+	}
+
+
+
+	public String getDisplayText() {
+		return displayText;
+	}
+
+
+
+	// The barcode of the paid ticket waiting to be taken, or null.
+	public String getPrintedBarcode() {
+		return printedBarcode;
+	}
+
+
+
+	public long getPrintedChargeCents() {
+		return printedChargeCents;
+	}
+
+
+
+	public int getBeeps() {
+		return beeps.get();
+	}
+}
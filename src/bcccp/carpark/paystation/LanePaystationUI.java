@@ -0,0 +1,80 @@
+package bcccp.carpark.paystation;
+
+import java.util.concurrent.Executor;
+
+import bcccp.carpark.LaneEventLoop;
+
+// A pay station panel whose ticket slot and pay button reach the controller on its lane's thread.
+// What the controller tells the panel is passed on through the output executor.
+public class LanePaystationUI implements IPaystationUI {
+
+	private IPaystationUI ui;
+	private LaneEventLoop lane;
+	private Executor output;
+
+
+
+	// Output goes straight to the panel on the lane's thread.
+	public LanePaystationUI(IPaystationUI ui, LaneEventLoop lane) {
+		this(ui, lane, Runnable::run);
+	}
+
+
+
+	// Output to the panel runs on the executor, such as EventQueue::invokeLater for a Swing panel.
+	public LanePaystationUI(IPaystationUI ui, LaneEventLoop lane, Executor output) {
+		this.ui = ui;
+		this.lane = lane;
+		this.output = output;
+	}
+
+
+
+	@Override
+	public void registerController(IPaystationController controller) {
+		ui.registerController(new IPaystationController() {
+			@Override
+			public void ticketInserted(String barcode) {
+				lane.execute(() -> controller.ticketInserted(barcode));
+			}
+
+			@Override
+			public void ticketPaid() {
+				lane.execute(controller::ticketPaid);
+			}
+
+			@Override
+			public void ticketTaken() {
+				lane.execute(controller::ticketTaken);
+			}
+		});
+	}
+
+
+
+	@Override
+	public void deregisterController() {
+		ui.deregisterController();
+	}
+
+
+
+	@Override
+	public void printTicket(String carparkId, int ticketNo, long entryTime, long paidTime, long chargeCents, String barcode) {
+		output.execute(() -> ui.printTicket(carparkId, ticketNo, entryTime, paidTime, chargeCents, barcode));
+	}
+
+
+
+	@Override
+	public void display(String message) {
+		output.execute(() -> ui.display(message));
+	}
+
+
+
+	@Override
+	public void beep() {
+		output.execute(ui::beep);
+	}
+}
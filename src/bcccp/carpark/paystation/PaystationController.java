@@ -1,6 +1,8 @@
 package bcccp.carpark.paystation;
 
 import bcccp.carpark.ICarpark;
+import bcccp.carpark.StateMachine;
+import bcccp.tickets.Cents;
 import bcccp.tickets.adhoc.IAdhocTicket;
 
 public class PaystationController 
@@ -9,18 +11,30 @@ public class PaystationController
 	
 	public enum STATE { IDLE, WAITING, REJECTED, PAID } 
 	
-	private STATE state_;
+	private enum EVENT { TICKET_INSERTED, TICKET_PAID, TICKET_TAKEN }
+	
+	private StateMachine<STATE, EVENT> machine_;
 	
 	private IPaystationUI ui_;
 	
 	private ICarpark carpark_;
 
 	private IAdhocTicket  adhocTicket_ = null;
-	private float charge_;
+	private long chargeCents_;
+	private StringBuilder displayBuilder_ = new StringBuilder();
+	private String insertedBarcode_ = null;
+	private boolean quiet_;
 	
 	
 
 	public PaystationController(ICarpark carpark, IPaystationUI ui) {
+		this(carpark, ui, false);
+	}
+	
+	
+	
+	// A quiet controller does not log every step, such as when a simulation drives it.
+	public PaystationController(ICarpark carpark, IPaystationUI ui, boolean quiet) {
 		
 		// Throw runtime exception if either parameter is null
 
@@ -36,8 +50,10 @@ public class PaystationController
 		}
 		
 		
+		this.quiet_ = quiet;
 		this.carpark_ = carpark;
 		this.ui_ = ui;
+		this.machine_ = buildMachine();
 		
 		ui.registerController(this);		
 		setState(STATE.IDLE);		
@@ -46,107 +62,126 @@ public class PaystationController
 	
 	
 	private void log(String message) {
-		System.out.println("EntryController : " + message);
+		if (!quiet_) {
+			System.out.println("EntryController : " + message);
+		}
 	}
 
 	
 	
-	public void setState(STATE newState) {
-		switch (newState) {
+	// The transitions on each event, and what happens on entering each state.
+	private StateMachine<STATE, EVENT> buildMachine() {
+		StateMachine<STATE, EVENT> machine = new StateMachine<>(STATE.class, EVENT.class);
 		
-		case IDLE: 
-			state_ = STATE.IDLE;
-			ui_.display("Idle");
-			
-			log("setState: IDLE");
-			break;
-			
-		case WAITING: 
-			state_ = STATE.WAITING;
-			log("setState: WAITING");
-			break;
-			
-		case REJECTED: 
-			state_ = STATE.REJECTED;
-			log("setState: REJECTED");
-			break;
-			
-		case PAID: 
-			state_ = STATE.PAID;
-			ui_.display("Paid");
-			log("setState: PAID");
-			break;			
-			
-		default: 
-			break;
-			
-		}			
+		machine.on(EVENT.TICKET_INSERTED, from -> chargeTicket(insertedBarcode_), STATE.IDLE)
+			.otherwise(EVENT.TICKET_INSERTED, from -> wrongState("ticketInserted"))
+			.on(EVENT.TICKET_PAID, from -> payTicket(), STATE.WAITING)
+			.otherwise(EVENT.TICKET_PAID, from -> wrongState("ticketPaid"))
+			.on(EVENT.TICKET_TAKEN, from -> wrongState("ticketTaken"), STATE.IDLE)
+			.otherwise(EVENT.TICKET_TAKEN, from -> STATE.IDLE);
+		
+		machine.onEntry(STATE.IDLE, from -> show(STATE.IDLE, "Idle"))
+			.onEntry(STATE.WAITING, from -> show(STATE.WAITING, null))
+			.onEntry(STATE.REJECTED, from -> show(STATE.REJECTED, null))
+			.onEntry(STATE.PAID, from -> show(STATE.PAID, "Paid"));
+		return machine;
+	}
+	
+	
+	
+	private STATE show(STATE state, String message) {
+		if (message != null) {
+			ui_.display(message);
+		}
+		log("setState: " + state);
+		return null;
+	}
+	
+	
+	
+	private STATE wrongState(String event) {
+		ui_.beep();
+		log(event + ": called while in incorrect state");
+		return null;
+	}
+	
+	
+	
+	public void setState(STATE newState) {
+		machine_.moveTo(newState);
 	}
 	
 	public STATE getState() {
-		return this.state_;
+		return machine_.getState();
+	}
+	
+	
+	
+	public long getTransitionCount(STATE from, STATE to) {
+		return machine_.getTransitionCount(from, to);
+	}
+	
+	
+	
+	public long getTransitionNanos(STATE from, STATE to) {
+		return machine_.getTransitionNanos(from, to);
 	}
 
 	
 	
 	@Override
 	public void ticketInserted(String barcode) {
-		if (state_ == STATE.IDLE) {
+		insertedBarcode_ = barcode;
+		machine_.fire(EVENT.TICKET_INSERTED);
+		insertedBarcode_ = null;
+	}
+	
+	
+	
+	private STATE chargeTicket(String barcode) {
 			adhocTicket_ = carpark_.getAdhocTicket(barcode);
-			if (adhocTicket_ != null) {
-				charge_ = carpark_.calculateAddHocTicketCharge(adhocTicket_.getEntryDateTime());
-				ui_.display("Pay " + String.format("%.2f", charge_));
-				setState(STATE.WAITING);
-			}
-			else {
-				ui_.beep();
-				ui_.display("Take Rejected Ticket");
-				setState(STATE.REJECTED);
-				log("ticketInserted: ticket is not current");				
-			}
-		}
-		else {
+		if (adhocTicket_ == null) {
 			ui_.beep();
-			log("ticketInserted: called while in incorrect state");				
+			ui_.display("Take Rejected Ticket");
+			log("ticketInserted: ticket is not current");
+			return STATE.REJECTED;
 		}
+				chargeCents_ = carpark_.calculateAddHocTicketCharge(adhocTicket_.getEntryDateTime());
+				displayBuilder_.setLength(0);
+		ui_.display(Cents.append(displayBuilder_.append("Pay "), chargeCents_).toString());
+		return STATE.WAITING;
 	}
 	
 	
 	
 	@Override
 	public void ticketPaid() {
-		if (state_ == STATE.WAITING) {
-			long payTime = System.currentTimeMillis();
+		machine_.fire(EVENT.TICKET_PAID);
+	}
+	
+	
+	
+	private STATE payTicket() {
+			long payTime = carpark_.getCurrentTimeMillis();
 			
-			adhocTicket_.pay(payTime, charge_);
+			adhocTicket_.pay(payTime, chargeCents_);
 			
 			String carparkId = adhocTicket_.getCarparkId();
 			int ticketNo = adhocTicket_.getTicketNo();
 			long entryTime = adhocTicket_.getEntryDateTime();
 			long paidTime = adhocTicket_.getPaidDateTime();
-			float charge = adhocTicket_.getCharge();
+			long chargeCents = adhocTicket_.getChargeCents();
 			String barcode = adhocTicket_.getBarcode();
 			
-			ui_.printTicket(carparkId, ticketNo, entryTime, paidTime, charge, barcode);
-			setState(STATE.PAID);
-		}
-		else {
-			ui_.beep();
-			log("ticketPaid: called while in incorrect state");				
-		}
+			ui_.printTicket(carparkId, ticketNo, entryTime, paidTime, chargeCents, barcode);
+		return STATE.PAID;
 	}
 
 	
 	
 	@Override
 	public void ticketTaken() {
-		if (state_ == STATE.IDLE) {
-			ui_.beep();
-			log("ticketTaken: called while in incorrect state");				
-		}
-		else {
-			setState(STATE.IDLE);
-		}
+		machine_.fire(EVENT.TICKET_TAKEN);
 	}
 
 }
@@ -20,6 +20,8 @@ import javax.swing.JTextArea;
 import java.awt.Color;
 import javax.swing.UIManager;
 
+import bcccp.tickets.Cents;
+
 @SuppressWarnings("serial")
 public class PaystationUI extends JFrame implements IPaystationUI {
 
@@ -199,7 +201,7 @@ public class PaystationUI extends JFrame implements IPaystationUI {
 	
 	
 	@Override
-	public void printTicket(String carparkId, int tNo, long entryTime, long paidTime, float charge, String barcode) {
+	public void printTicket(String carparkId, int tNo, long entryTime, long paidTime, long chargeCents, String barcode) {
 		Date entryDate = new Date(entryTime);
 		Date paidDate = new Date(paidTime);
 		StringBuilder builder = new StringBuilder();
@@ -207,7 +209,7 @@ public class PaystationUI extends JFrame implements IPaystationUI {
 		builder.append("Ticket No  : " + tNo + "\n");
 		builder.append("Entry Time : " + entryDate + "\n");
 		builder.append("Paid  Time : " + paidDate + "\n");
-		builder.append("Charge     : " + String.format("%.2f", charge) + "\n");
+		builder.append("Charge     : " + Cents.format(chargeCents) + "\n");
 		builder.append("Barcode    : " + barcode + "\n");
 		
 		ticketPrinterTextArea.setText(builder.toString());			
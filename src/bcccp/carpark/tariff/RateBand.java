@@ -0,0 +1,50 @@
+package bcccp.carpark.tariff;
+
+// A rate applying between two minutes of a day, end exclusive.
+public class RateBand {
+
+	public static final int MINUTES_IN_DAY = 24 * 60;
+
+	private int startMinute;
+	private int endMinute;
+	private long centsPerHour;
+
+
+
+	public RateBand(int startMinute, int endMinute, long centsPerHour) {
+		if (startMinute < 0 || endMinute > MINUTES_IN_DAY || endMinute <= startMinute) {
+			throw new RuntimeException("The rate band end time should be after the start time.");
+		}
+		if (centsPerHour < 0) {
+			throw new RuntimeException("The rate band should not have a negative rate.");
+		}
+
+		this.startMinute = startMinute;
+		this.endMinute = endMinute;
+		this.centsPerHour = centsPerHour;
+	}
+
+
+
+	public int getStartMinute() {
+		return startMinute;
+	}
+
+
+
+	public int getEndMinute() {
+		return endMinute;
+	}
+
+
+
+	public long getCentsPerHour() {
+		return centsPerHour;
+	}
+
+
+
+	public String toString() {
+		return "RateBand : " + startMinute + " - " + endMinute + " : " + centsPerHour + " cents/hour";
+	}
+}
@@ -0,0 +1,168 @@
+package bcccp.carpark.tariff;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import bcccp.carpark.tariff.Tariff.DayType;
+
+// A tariff compiled for charging.
+// Every type of day and the regular week are kept as running totals of the
+// rate for each minute, so the charge between two local minutes is a pair of
+// table lookups plus a binary search of the holidays, however many bands there are.
+// Totals are in cent-minutes per hour; divide by 60 to get cents.
+public class RateTable {
+
+	private static final int MINUTES_IN_DAY = RateBand.MINUTES_IN_DAY;
+
+	private static final int DAYS_IN_WEEK = 7;
+
+	private static final int MINUTES_IN_WEEK = DAYS_IN_WEEK * MINUTES_IN_DAY;
+
+	// 1970-01-01 was a Thursday, so week 0 starts three days earlier on a Monday.
+	private static final long EPOCH_MONDAY_OFFSET_DAYS = 3;
+
+	// Running totals within a day, indexed by day type then minute of day (0 to 1440).
+	private final long[][] dayTotals;
+
+	// Running totals within the regular week starting on Monday, indexed by minute of week (0 to 10080).
+	private final long[] weekTotals;
+
+	// Day type of each day of the regular week, Monday first.
+	private final DayType[] weekDayTypes;
+
+	private final long[] holidayEpochDays;
+
+	// Extra charge of all holidays before each holiday compared with the regular week.
+	private final long[] holidayAdjustmentsBefore;
+
+
+
+	RateTable(Tariff tariff) {
+		dayTotals = new long[DayType.values().length][];
+		for (DayType dayType : DayType.values()) {
+			dayTotals[dayType.ordinal()] = compileDay(dayType, tariff.getBands(dayType), isUsed(tariff, dayType));
+		}
+		if (tariff.getBands(DayType.HOLIDAY).isEmpty()) {
+			dayTotals[DayType.HOLIDAY.ordinal()] = dayTotals[DayType.NON_BUSINESS.ordinal()];
+		}
+
+		weekDayTypes = new DayType[DAYS_IN_WEEK];
+		weekTotals = new long[MINUTES_IN_WEEK + 1];
+		for (int day = 0; day < DAYS_IN_WEEK; day++) {
+			weekDayTypes[day] = tariff.getDayType(DayOfWeek.of(day + 1));
+			long[] totals = dayTotals[weekDayTypes[day].ordinal()];
+			long dayStart = weekTotals[day * MINUTES_IN_DAY];
+			for (int minute = 1; minute <= MINUTES_IN_DAY; minute++) {
+				weekTotals[day * MINUTES_IN_DAY + minute] = dayStart + totals[minute];
+			}
+		}
+
+		holidayEpochDays = new long[tariff.getHolidays().size()];
+		holidayAdjustmentsBefore = new long[holidayEpochDays.length + 1];
+		int i = 0;
+		for (LocalDate holiday : tariff.getHolidays()) {
+			holidayEpochDays[i] = holiday.toEpochDay();
+			long regular = dayTotals[regularDayType(holidayEpochDays[i]).ordinal()][MINUTES_IN_DAY];
+			long onHoliday = dayTotals[DayType.HOLIDAY.ordinal()][MINUTES_IN_DAY];
+			holidayAdjustmentsBefore[i + 1] = holidayAdjustmentsBefore[i] + onHoliday - regular;
+			i++;
+		}
+	}
+
+
+
+	// A day type that no day of the week falls on needs no bands, such as BUSINESS in a
+	// tariff with no business days. Holidays without bands are charged as non business days.
+	private static boolean isUsed(Tariff tariff, DayType dayType) {
+		if (dayType == DayType.HOLIDAY) {
+			return false;
+		}
+		for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+			if (tariff.getDayType(dayOfWeek) == dayType) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+
+	// The bands must cover the whole day if there are any, or if the day type is used.
+	private static long[] compileDay(DayType dayType, List<RateBand> bands, boolean used) {
+		long[] rates = new long[MINUTES_IN_DAY];
+		boolean[] covered = new boolean[MINUTES_IN_DAY];
+		for (RateBand band : bands) {
+			for (int minute = band.getStartMinute(); minute < band.getEndMinute(); minute++) {
+				rates[minute] = band.getCentsPerHour();
+				covered[minute] = true;
+			}
+		}
+
+		long[] totals = new long[MINUTES_IN_DAY + 1];
+		for (int minute = 0; minute < MINUTES_IN_DAY; minute++) {
+			if (!covered[minute] && (used || !bands.isEmpty())) {
+				throw new RuntimeException("The " + dayType + " rate bands do not cover minute " + minute + " of the day.");
+			}
+			totals[minute + 1] = totals[minute] + rates[minute];
+		}
+		return totals;
+	}
+
+
+
+	// Running total from the reference Monday to a local epoch minute.
+	public long centMinutesBefore(long localMinute) {
+		long epochDay = Math.floorDiv(localMinute, MINUTES_IN_DAY);
+		int minuteOfDay = Math.toIntExact(Math.floorMod(localMinute, MINUTES_IN_DAY));
+		long daysSinceMonday = epochDay + EPOCH_MONDAY_OFFSET_DAYS;
+		long weeks = Math.floorDiv(daysSinceMonday, DAYS_IN_WEEK);
+		int dayOfWeek = Math.toIntExact(Math.floorMod(daysSinceMonday, DAYS_IN_WEEK));
+
+		long total = weeks * weekTotals[MINUTES_IN_WEEK] + weekTotals[dayOfWeek * MINUTES_IN_DAY + minuteOfDay];
+
+		int index = Arrays.binarySearch(holidayEpochDays, epochDay);
+		if (index >= 0) {
+			total += holidayAdjustmentsBefore[index]
+					+ dayTotals[DayType.HOLIDAY.ordinal()][minuteOfDay]
+					- dayTotals[weekDayTypes[dayOfWeek].ordinal()][minuteOfDay];
+		}
+		else {
+			total += holidayAdjustmentsBefore[-index - 1];
+		}
+		return total;
+	}
+
+
+
+	public long centMinutesBetween(long startMinute, long endMinute) {
+		return centMinutesBefore(endMinute) - centMinutesBefore(startMinute);
+	}
+
+
+
+	public long centMinutesInDay(DayType dayType, int startMinute, int endMinute) {
+		long[] totals = dayTotals[dayType.ordinal()];
+		return totals[endMinute] - totals[startMinute];
+	}
+
+
+
+	public DayType getDayType(DayOfWeek dayOfWeek) {
+		return weekDayTypes[dayOfWeek.getValue() - 1];
+	}
+
+
+
+	// The rate in cents per hour for a minute of the regular week, Monday 00:00 being minute 0.
+	public long getCentsPerHour(int minuteOfWeek) {
+		return weekTotals[minuteOfWeek + 1] - weekTotals[minuteOfWeek];
+	}
+
+
+
+	private DayType regularDayType(long epochDay) {
+		return weekDayTypes[Math.toIntExact(Math.floorMod(epochDay + EPOCH_MONDAY_OFFSET_DAYS, DAYS_IN_WEEK))];
+	}
+}
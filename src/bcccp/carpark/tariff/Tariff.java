@@ -0,0 +1,189 @@
+package bcccp.carpark.tariff;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import bcccp.carpark.Constants;
+
+// Rate bands for each type of day, the business days of the week and a holiday calendar.
+// A tariff is compiled into a RateTable before it is used to charge.
+//
+// Tariff files have one entry per line, for example:
+//   business-days MONDAY TUESDAY WEDNESDAY THURSDAY FRIDAY
+//   band BUSINESS 07:00 19:00 500
+//   band NON_BUSINESS 00:00 24:00 200
+//   holiday 2017-12-25
+// Rates are in cents per hour. Lines starting with # are ignored.
+// A type of day that no day of the week falls on needs no bands, so a tariff with no
+// business-days line needs only NON_BUSINESS bands.
+public class Tariff {
+
+	public enum DayType { BUSINESS, NON_BUSINESS, HOLIDAY }
+
+	private Set<DayOfWeek> businessDays;
+	private Map<DayType, List<RateBand>> bands;
+	private Set<LocalDate> holidays;
+
+
+
+	public Tariff(Set<DayOfWeek> businessDays) {
+		this.businessDays = EnumSet.noneOf(DayOfWeek.class);
+		this.businessDays.addAll(businessDays);
+		bands = new EnumMap<>(DayType.class);
+		for (DayType dayType : DayType.values()) {
+			bands.put(dayType, new ArrayList<RateBand>());
+		}
+		holidays = new TreeSet<>();
+	}
+
+
+
+	// The tariff described by Constants, with holidays charged as non business days.
+	public static Tariff defaultTariff() {
+		Tariff tariff = new Tariff(EnumSet.copyOf(Constants.BUSINESS_DAYS));
+		int startBusiness = toMinuteOfDay(Constants.START_BUSINESS_TIME);
+		int endBusiness = toMinuteOfDay(Constants.END_BUSINESS_TIME);
+
+		tariff.addBand(DayType.BUSINESS, new RateBand(0, startBusiness, Constants.AFTER_HOURS_CENTS_PER_HOUR));
+		tariff.addBand(DayType.BUSINESS, new RateBand(startBusiness, endBusiness, Constants.BUSINESS_HOURS_CENTS_PER_HOUR));
+		tariff.addBand(DayType.BUSINESS, new RateBand(endBusiness, RateBand.MINUTES_IN_DAY, Constants.AFTER_HOURS_CENTS_PER_HOUR));
+		tariff.addBand(DayType.NON_BUSINESS, new RateBand(0, RateBand.MINUTES_IN_DAY, Constants.AFTER_HOURS_CENTS_PER_HOUR));
+		tariff.addBand(DayType.HOLIDAY, new RateBand(0, RateBand.MINUTES_IN_DAY, Constants.AFTER_HOURS_CENTS_PER_HOUR));
+		return tariff;
+	}
+
+
+
+	public static Tariff load(String fileName) {
+		try (Reader reader = new FileReader(fileName)) {
+			return load(reader);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not read the tariff file " + fileName, e);
+		}
+	}
+
+
+
+	public static Tariff load(Reader reader) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		Tariff tariff = new Tariff(EnumSet.noneOf(DayOfWeek.class));
+		String line;
+		int lineNo = 0;
+		while ((line = lines.readLine()) != null) {
+			lineNo++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] fields = line.split("\\s+");
+			try {
+				tariff.parseLine(fields);
+			}
+			catch (RuntimeException e) {
+				throw new RuntimeException("Invalid tariff entry on line " + lineNo + ": " + line, e);
+			}
+		}
+		return tariff;
+	}
+
+
+
+	private void parseLine(String[] fields) {
+		switch (fields[0]) {
+
+		case "business-days":
+			for (int i = 1; i < fields.length; i++) {
+				businessDays.add(DayOfWeek.valueOf(fields[i].toUpperCase()));
+			}
+			break;
+
+		case "band":
+			if (fields.length != 5) {
+				throw new RuntimeException("A band needs a day type, start time, end time and rate");
+			}
+			addBand(DayType.valueOf(fields[1].toUpperCase()),
+					new RateBand(parseMinuteOfDay(fields[2]), parseMinuteOfDay(fields[3]), Long.parseLong(fields[4])));
+			break;
+
+		case "holiday":
+			for (int i = 1; i < fields.length; i++) {
+				addHoliday(LocalDate.parse(fields[i]));
+			}
+			break;
+
+		default:
+			throw new RuntimeException("Unknown tariff entry " + fields[0]);
+		}
+	}
+
+
+
+	public void addBand(DayType dayType, RateBand band) {
+		for (RateBand other : bands.get(dayType)) {
+			if (band.getStartMinute() < other.getEndMinute() && other.getStartMinute() < band.getEndMinute()) {
+				throw new RuntimeException("The rate band overlaps an existing " + dayType + " band.");
+			}
+		}
+		bands.get(dayType).add(band);
+	}
+
+
+
+	public void addHoliday(LocalDate date) {
+		holidays.add(date);
+	}
+
+
+
+	public DayType getDayType(DayOfWeek dayOfWeek) {
+		return businessDays.contains(dayOfWeek) ? DayType.BUSINESS : DayType.NON_BUSINESS;
+	}
+
+
+
+	public List<RateBand> getBands(DayType dayType) {
+		return Collections.unmodifiableList(bands.get(dayType));
+	}
+
+
+
+	public Set<LocalDate> getHolidays() {
+		return Collections.unmodifiableSet(holidays);
+	}
+
+
+
+	public RateTable compile() {
+		return new RateTable(this);
+	}
+
+
+
+	private static int parseMinuteOfDay(String time) {
+		if (time.equals("24:00")) {
+			return RateBand.MINUTES_IN_DAY;
+		}
+		return toMinuteOfDay(LocalTime.parse(time));
+	}
+
+
+
+	private static int toMinuteOfDay(LocalTime time) {
+		return time.getHour() * 60 + time.getMinute();
+	}
+}
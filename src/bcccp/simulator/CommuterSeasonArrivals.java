@@ -0,0 +1,66 @@
+package bcccp.simulator;
+
+import java.time.LocalTime;
+import java.util.Random;
+
+import bcccp.carpark.Constants;
+
+// Season ticket holders who drive in each business day around one time and leave
+// around another, with normally distributed spread. Times are kept within business
+// hours, when season tickets are accepted.
+public class CommuterSeasonArrivals implements ITrafficPattern {
+
+	private static final long MILLIS_IN_MINUTE = 60 * 1000L;
+
+	private static final long NANOS_IN_MILLI = 1000 * 1000L;
+
+	private int tickets;
+
+	private long meanArrival;
+
+	private long arrivalSpreadMillis;
+
+	private long meanDeparture;
+
+	private long departureSpreadMillis;
+
+
+
+	public CommuterSeasonArrivals(int tickets, LocalTime meanArrival, long arrivalSpreadMillis,
+			LocalTime meanDeparture, long departureSpreadMillis) {
+		this.tickets = tickets;
+		this.meanArrival = meanArrival.toNanoOfDay() / NANOS_IN_MILLI;
+		this.arrivalSpreadMillis = arrivalSpreadMillis;
+		this.meanDeparture = meanDeparture.toNanoOfDay() / NANOS_IN_MILLI;
+		this.departureSpreadMillis = departureSpreadMillis;
+	}
+
+
+
+	@Override
+	public void schedule(TrafficSimulator simulator, long startMillis, long endMillis, Random random) {
+		long opens = Constants.START_BUSINESS_TIME.toNanoOfDay() / NANOS_IN_MILLI + MILLIS_IN_MINUTE;
+		long closes = Constants.END_BUSINESS_TIME.toNanoOfDay() / NANOS_IN_MILLI - MILLIS_IN_MINUTE;
+		for (int i = 0; i < tickets; i++) {
+			String ticketId = "S" + (i + 1);
+			simulator.registerSeasonTicket(ticketId, startMillis, endMillis);
+			for (long day = TrafficSimulator.localDayStart(startMillis); day < endMillis; day = TrafficSimulator.nextLocalDay(day)) {
+				if (!Constants.BUSINESS_DAYS.contains(TrafficSimulator.localDayOfWeek(day))) {
+					continue;
+				}
+				long arrival = clamp(meanArrival + (long) (random.nextGaussian() * arrivalSpreadMillis), opens, closes);
+				long departure = clamp(meanDeparture + (long) (random.nextGaussian() * departureSpreadMillis), 
+						arrival + 30 * MILLIS_IN_MINUTE, closes);
+				if (day + arrival >= startMillis && day + departure < endMillis && departure > arrival) {
+					simulator.scheduleSeasonCar(ticketId, day + arrival, day + departure);
+				}
+			}
+		}
+	}
+
+
+
+	private static long clamp(long value, long min, long max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
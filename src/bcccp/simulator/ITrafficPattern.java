@@ -0,0 +1,10 @@
+package bcccp.simulator;
+
+import java.util.Random;
+
+// A source of cars for the simulator, which schedules its cars between the start and end.
+public interface ITrafficPattern {
+
+	public void schedule(TrafficSimulator simulator, long startMillis, long endMillis, Random random);
+
+}
@@ -0,0 +1,79 @@
+package bcccp.simulator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Adhoc cars arriving as a Poisson process whose rate is set for each hour of the
+// local day, staying for an exponentially distributed time.
+public class PeakHourArrivals implements ITrafficPattern {
+
+	private static final long MILLIS_IN_HOUR = 60 * 60 * 1000L;
+
+	private static final long MIN_STAY_MILLIS = 5 * 60 * 1000L;
+
+	private double[] carsPerHour;
+
+	private long meanStayMillis;
+
+
+
+	// carsPerHour has a rate for each of the 24 hours of the local day.
+	public PeakHourArrivals(double[] carsPerHour, long meanStayMillis) {
+		if (carsPerHour.length != 24) {
+			throw new RuntimeException("PeakHourArrivals : need 24 hourly rates, not " + carsPerHour.length);
+		}
+		this.carsPerHour = Arrays.copyOf(carsPerHour, 24);
+		this.meanStayMillis = meanStayMillis;
+	}
+
+
+
+	// A quiet night, and morning and evening peaks of peakCarsPerHour.
+	public static PeakHourArrivals dailyPeaks(double peakCarsPerHour, long meanStayMillis) {
+		double[] carsPerHour = new double[24];
+		for (int hour = 0; hour < 24; hour++) {
+			if (hour >= 7 && hour < 10 || hour >= 16 && hour < 19) {
+				carsPerHour[hour] = peakCarsPerHour;
+			}
+			else if (hour >= 6 && hour < 22) {
+				carsPerHour[hour] = peakCarsPerHour / 4;
+			}
+			else {
+				carsPerHour[hour] = peakCarsPerHour / 40;
+			}
+		}
+		return new PeakHourArrivals(carsPerHour, meanStayMillis);
+	}
+
+
+
+	@Override
+	public void schedule(TrafficSimulator simulator, long startMillis, long endMillis, Random random) {
+		long time = startMillis;
+		while (time < endMillis) {
+			long hourEnd = TrafficSimulator.nextLocalHour(time);
+			double rate = carsPerHour[TrafficSimulator.localHour(time)];
+			if (rate <= 0) {
+				time = hourEnd;
+				continue;
+			}
+			// The gaps are memoryless, so a gap that runs past the hour starts again at the new rate.
+			long arrival = time + (long) (exponential(random) / rate * MILLIS_IN_HOUR);
+			if (arrival >= hourEnd) {
+				time = hourEnd;
+				continue;
+			}
+			time = arrival;
+			if (time < endMillis) {
+				long stay = Math.max(MIN_STAY_MILLIS, (long) (exponential(random) * meanStayMillis));
+				simulator.scheduleAdhocCar(time, stay);
+			}
+		}
+	}
+
+
+
+	private static double exponential(Random random) {
+		return -Math.log(1 - random.nextDouble());
+	}
+}
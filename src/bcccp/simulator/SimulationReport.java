@@ -0,0 +1,156 @@
+package bcccp.simulator;
+
+import java.util.Arrays;
+import java.util.Date;
+
+// What a simulation run did: how many cars got in and out, how fast the controllers
+// cycled the gates, and how full the carpark was over the run.
+public class SimulationReport {
+
+	private static final double NANOS_IN_SECOND = 1e9;
+
+	private static final double MILLIS_IN_HOUR = 60 * 60 * 1000.0;
+
+	private long virtualMillis;
+	private long wallNanos;
+	private int carsArrived;
+	private int carsEntered;
+	private int carsTurnedAway;
+	private int carsExited;
+	private int exitsRejected;
+	private long[] gateCycleNanos;
+	private long[] sampleTimes;
+	private int[] occupied;
+	private int[] available;
+
+
+
+	public SimulationReport(long virtualMillis, long wallNanos, int carsArrived, int carsEntered,
+			int carsTurnedAway, int carsExited, int exitsRejected, long[] gateCycleNanos,
+			long[] sampleTimes, int[] occupied, int[] available) {
+		this.virtualMillis = virtualMillis;
+		this.wallNanos = wallNanos;
+		this.carsArrived = carsArrived;
+		this.carsEntered = carsEntered;
+		this.carsTurnedAway = carsTurnedAway;
+		this.carsExited = carsExited;
+		this.exitsRejected = exitsRejected;
+		this.gateCycleNanos = gateCycleNanos;
+		Arrays.sort(this.gateCycleNanos);
+		this.sampleTimes = sampleTimes;
+		this.occupied = occupied;
+		this.available = available;
+	}
+
+
+
+	public int getCarsArrived() {
+		return carsArrived;
+	}
+
+
+
+	public int getCarsEntered() {
+		return carsEntered;
+	}
+
+
+
+	// Cars that could not get in, because the carpark was full or their season ticket was refused.
+	public int getCarsTurnedAway() {
+		return carsTurnedAway;
+	}
+
+
+
+	public int getCarsExited() {
+		return carsExited;
+	}
+
+
+
+	public int getExitsRejected() {
+		return exitsRejected;
+	}
+
+
+
+	public int getGateCycles() {
+		return gateCycleNanos.length;
+	}
+
+
+
+	// Gate cycles run per second of wall clock time.
+	public double getGateCyclesPerSecond() {
+		return wallNanos == 0 ? 0 : gateCycleNanos.length * NANOS_IN_SECOND / wallNanos;
+	}
+
+
+
+	// Cars in and out per hour of simulated time.
+	public double getCarsPerVirtualHour() {
+		return virtualMillis == 0 ? 0 : (carsEntered + carsExited) * MILLIS_IN_HOUR / virtualMillis;
+	}
+
+
+
+	// The wall clock time the controllers took for a gate cycle, at the percentile from 0 to 100.
+	public long getGateCycleNanos(double percentile) {
+		if (gateCycleNanos.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100 * gateCycleNanos.length) - 1;
+		return gateCycleNanos[Math.max(0, Math.min(gateCycleNanos.length - 1, index))];
+	}
+
+
+
+	// The times occupancy was sampled, in epoch millis.
+	public long[] getSampleTimes() {
+		return sampleTimes.clone();
+	}
+
+
+
+	// Cars inside the carpark at each sample.
+	public int[] getOccupied() {
+		return occupied.clone();
+	}
+
+
+
+	// Spaces left for adhoc cars at each sample, after those reserved for season tickets.
+	public int[] getAvailable() {
+		return available.clone();
+	}
+
+
+
+	public int getPeakOccupied() {
+		int peak = 0;
+		for (int cars : occupied) {
+			peak = Math.max(peak, cars);
+		}
+		return peak;
+	}
+
+
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("Simulated %.1f hours in %.3f s%n", virtualMillis / MILLIS_IN_HOUR, wallNanos / NANOS_IN_SECOND));
+		builder.append(String.format("Cars       : %d arrived, %d entered, %d turned away, %d exited, %d exits rejected%n",
+				carsArrived, carsEntered, carsTurnedAway, carsExited, exitsRejected));
+		builder.append(String.format("Throughput : %.0f gate cycles/s, %.1f cars/simulated hour%n",
+				getGateCyclesPerSecond(), getCarsPerVirtualHour()));
+		builder.append(String.format("Gate cycle : p50 %d us, p90 %d us, p99 %d us, max %d us%n",
+				getGateCycleNanos(50) / 1000, getGateCycleNanos(90) / 1000, getGateCycleNanos(99) / 1000, getGateCycleNanos(100) / 1000));
+		builder.append(String.format("Occupancy  : peak %d%n", getPeakOccupied()));
+		// One line an hour is enough to see the curve.
+		for (int i = 0; i < sampleTimes.length; i += 4) {
+			builder.append(String.format("  %tF %<tR  %5d parked, %5d available%n", new Date(sampleTimes[i]), occupied[i], available[i]));
+		}
+		return builder.toString();
+	}
+}
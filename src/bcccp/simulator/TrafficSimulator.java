@@ -0,0 +1,453 @@
+package bcccp.simulator;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import bcccp.carpark.Carpark;
+import bcccp.carpark.CarparkEventBus;
+import bcccp.carpark.ChargeEngine;
+import bcccp.carpark.HeadlessCarSensor;
+import bcccp.carpark.HeadlessGate;
+import bcccp.carpark.ZoneOffsetTable;
+import bcccp.carpark.entry.EntryController;
+import bcccp.carpark.entry.HeadlessEntryUI;
+import bcccp.carpark.exit.ExitController;
+import bcccp.carpark.exit.HeadlessExitUI;
+import bcccp.carpark.paystation.HeadlessPaystationUI;
+import bcccp.carpark.paystation.PaystationController;
+import bcccp.tickets.adhoc.AdhocTicketDAO;
+import bcccp.tickets.adhoc.AdhocTicketFactory;
+import bcccp.tickets.season.SeasonTicket;
+import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.UsageRecordFactory;
+
+// Drives cars through the real controllers and carpark on headless devices.
+// Arrivals come from traffic patterns and are run as discrete events on a virtual clock,
+// so a day of traffic takes as long as the controllers take to process it. Each car
+// queues for the entry lane with the shortest queue, pays at a pay station shortly before
+// leaving, and queues for an exit lane. Gate cycles are timed on the wall clock, and
+// occupancy is sampled on the virtual clock.
+public class TrafficSimulator {
+
+	private static final long MILLIS_IN_MINUTE = 60 * 1000L;
+	private static final long MILLIS_IN_HOUR = 60 * MILLIS_IN_MINUTE;
+	private static final long MILLIS_IN_DAY = 24 * MILLIS_IN_HOUR;
+
+	// How long a car holds a lane, and how long before leaving it pays.
+	private static final long GATE_CYCLE_MILLIS = 10 * 1000L;
+	private static final long PAY_LEAD_MILLIS = 5 * MILLIS_IN_MINUTE;
+
+	private static final long SAMPLE_INTERVAL_MILLIS = 15 * MILLIS_IN_MINUTE;
+
+	private enum EVENT { ENTRY_ARRIVAL, ENTRY_LANE_FREE, PAY, EXIT_ARRIVAL, EXIT_LANE_FREE, SAMPLE }
+
+	private VirtualClock clock;
+	private Carpark carpark;
+	private SeasonTicketDAO seasonTicketDAO;
+	private Random random;
+	private long startMillis;
+
+	private List<EntryLane> entryLanes = new ArrayList<>();
+	private List<ExitLane> exitLanes = new ArrayList<>();
+	private List<HeadlessPaystationUI> paystations = new ArrayList<>();
+	private int nextPaystation;
+
+	private List<ITrafficPattern> patterns = new ArrayList<>();
+	private PriorityQueue<Event> events = new PriorityQueue<>();
+	private long nextSequence;
+
+	private int carsArrived;
+	private int carsEntered;
+	private int carsTurnedAway;
+	private int carsExited;
+	private int exitsRejected;
+	private int carsInside;
+	private long[] gateCycleNanos = new long[1024];
+	private int gateCycles;
+	private long[] sampleTimes = new long[64];
+	private int[] occupied = new int[64];
+	private int[] available = new int[64];
+	private int samples;
+
+
+
+	private static class Car {
+		private final String seasonTicketId;
+		private final long stayMillis;
+		private long departure;
+		private String barcode;
+
+		Car(String seasonTicketId, long stayMillis, long departure) {
+			this.seasonTicketId = seasonTicketId;
+			this.stayMillis = stayMillis;
+			this.departure = departure;
+		}
+	}
+
+
+
+	private static class Event implements Comparable<Event> {
+		private final long time;
+		private final long sequence;
+		private final EVENT type;
+		private final Car car;
+		private final Object lane;
+
+		Event(long time, long sequence, EVENT type, Car car, Object lane) {
+			this.time = time;
+			this.sequence = sequence;
+			this.type = type;
+			this.car = car;
+			this.lane = lane;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			int compare = Long.compare(time, other.time);
+			return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+		}
+	}
+
+
+
+	private static class EntryLane {
+		private final HeadlessCarSensor outside;
+		private final HeadlessCarSensor inside;
+		private final HeadlessEntryUI ui = new HeadlessEntryUI();
+		private final EntryController controller;
+		private final ArrayDeque<Car> queue = new ArrayDeque<>();
+		private boolean busy;
+
+		EntryLane(Carpark carpark, int lane, boolean quiet) {
+			outside = new HeadlessCarSensor("Entry " + lane + " Outside Sensor");
+			inside = new HeadlessCarSensor("Entry " + lane + " Inside Sensor");
+			controller = new EntryController(carpark, new HeadlessGate(), outside, inside, ui, quiet);
+		}
+
+		// Whether the car got in, rather than being turned away.
+		boolean enter(Car car) {
+			outside.detect(true);
+			if (car.seasonTicketId != null) {
+				ui.insertTicket(car.seasonTicketId);
+				if (controller.getState() != EntryController.STATE.VALIDATED) {
+					outside.detect(false);
+					return false;
+				}
+			}
+			else {
+				ui.pushButton();
+				if (controller.getState() != EntryController.STATE.ISSUED) {
+					outside.detect(false);
+					return false;
+				}
+				car.barcode = ui.getPrintedBarcode();
+			}
+			ui.takeTicket();
+			inside.detect(true);
+			outside.detect(false);
+			inside.detect(false);
+			return true;
+		}
+	}
+
+
+
+	private static class ExitLane {
+		private final HeadlessCarSensor inside;
+		private final HeadlessCarSensor outside;
+		private final HeadlessGate gate = new HeadlessGate();
+		private final HeadlessExitUI ui = new HeadlessExitUI();
+		private final ArrayDeque<Car> queue = new ArrayDeque<>();
+		private boolean busy;
+
+		ExitLane(Carpark carpark, int lane, boolean quiet) {
+			inside = new HeadlessCarSensor("Exit " + lane + " Inside Sensor");
+			outside = new HeadlessCarSensor("Exit " + lane + " Outside Sensor");
+			new ExitController(carpark, gate, inside, outside, ui, quiet);
+		}
+
+		// Whether the car got out, rather than its ticket being rejected.
+		boolean exit(Car car) {
+			inside.detect(true);
+			ui.insertTicket(car.seasonTicketId != null ? car.seasonTicketId : car.barcode);
+			ui.takeTicket();
+			if (!gate.isRaised()) {
+				inside.detect(false);
+				return false;
+			}
+			outside.detect(true);
+			inside.detect(false);
+			outside.detect(false);
+			return true;
+		}
+	}
+
+
+
+	public TrafficSimulator(String carparkName, int capacity, int lanes, long startMillis, long seed) {
+		this(carparkName, capacity, lanes, startMillis, seed, false);
+	}
+
+
+
+	// A quiet simulator stops the carpark and controllers logging every step.
+	public TrafficSimulator(String carparkName, int capacity, int lanes, long startMillis, long seed, boolean quiet) {
+		this.clock = new VirtualClock(startMillis);
+		this.startMillis = startMillis;
+		this.random = new Random(seed);
+		this.seasonTicketDAO = new SeasonTicketDAO(new UsageRecordFactory());
+		// Observers are told at once, so the simulation stays on one thread.
+		this.carpark = new Carpark(carparkName, capacity, new AdhocTicketDAO(new AdhocTicketFactory()),
+				seasonTicketDAO, clock, ChargeEngine.getDefault(), new CarparkEventBus(Runnable::run));
+		carpark.setQuiet(quiet);
+		for (int lane = 1; lane <= lanes; lane++) {
+			entryLanes.add(new EntryLane(carpark, lane, quiet));
+			exitLanes.add(new ExitLane(carpark, lane, quiet));
+			HeadlessPaystationUI paystation = new HeadlessPaystationUI();
+			new PaystationController(carpark, paystation, quiet);
+			paystations.add(paystation);
+		}
+	}
+
+
+
+	public void addPattern(ITrafficPattern pattern) {
+		patterns.add(pattern);
+	}
+
+
+
+	public void registerSeasonTicket(String ticketId, long startValidPeriod, long endValidPeriod) {
+		carpark.registerSeasonTicket(new SeasonTicket(ticketId, carpark.getName(), startValidPeriod, endValidPeriod));
+	}
+
+
+
+	public void scheduleAdhocCar(long arrivalMillis, long stayMillis) {
+		schedule(arrivalMillis, EVENT.ENTRY_ARRIVAL, new Car(null, stayMillis, 0), null);
+	}
+
+
+
+	public void scheduleSeasonCar(String ticketId, long arrivalMillis, long departureMillis) {
+		schedule(arrivalMillis, EVENT.ENTRY_ARRIVAL, new Car(ticketId, 0, departureMillis), null);
+	}
+
+
+
+	// Runs every car that arrives before the end, and the exits that fall before it.
+	public SimulationReport run(long endMillis) {
+		for (ITrafficPattern pattern : patterns) {
+			pattern.schedule(this, startMillis, endMillis, random);
+		}
+		schedule(startMillis, EVENT.SAMPLE, null, null);
+
+		long started = System.nanoTime();
+		Event event;
+		while ((event = events.poll()) != null && event.time < endMillis) {
+			clock.setCurrentTimeMillis(event.time);
+			handle(event);
+		}
+		long wallNanos = System.nanoTime() - started;
+
+		return new SimulationReport(endMillis - startMillis, wallNanos, carsArrived, carsEntered,
+				carsTurnedAway, carsExited, exitsRejected, Arrays.copyOf(gateCycleNanos, gateCycles),
+				Arrays.copyOf(sampleTimes, samples), Arrays.copyOf(occupied, samples), Arrays.copyOf(available, samples));
+	}
+
+
+
+	private void handle(Event event) {
+		switch (event.type) {
+
+		case ENTRY_ARRIVAL:
+			carsArrived++;
+			EntryLane entryLane = entryLanes.get(0);
+			for (EntryLane lane : entryLanes) {
+				if (load(lane.queue, lane.busy) < load(entryLane.queue, entryLane.busy)) {
+					entryLane = lane;
+				}
+			}
+			entryLane.queue.add(event.car);
+			if (!entryLane.busy) {
+				enter(entryLane, event.time);
+			}
+			break;
+
+		case ENTRY_LANE_FREE:
+			EntryLane freedEntry = (EntryLane) event.lane;
+			freedEntry.busy = false;
+			if (!freedEntry.queue.isEmpty()) {
+				enter(freedEntry, event.time);
+			}
+			break;
+
+		case PAY:
+			HeadlessPaystationUI paystation = paystations.get(nextPaystation);
+			nextPaystation = (nextPaystation + 1) % paystations.size();
+			paystation.insertTicket(event.car.barcode);
+			paystation.pay();
+			paystation.takeTicket();
+			break;
+
+		case EXIT_ARRIVAL:
+			ExitLane exitLane = exitLanes.get(0);
+			for (ExitLane lane : exitLanes) {
+				if (load(lane.queue, lane.busy) < load(exitLane.queue, exitLane.busy)) {
+					exitLane = lane;
+				}
+			}
+			exitLane.queue.add(event.car);
+			if (!exitLane.busy) {
+				exit(exitLane, event.time);
+			}
+			break;
+
+		case EXIT_LANE_FREE:
+			ExitLane freedExit = (ExitLane) event.lane;
+			freedExit.busy = false;
+			if (!freedExit.queue.isEmpty()) {
+				exit(freedExit, event.time);
+			}
+			break;
+
+		case SAMPLE:
+			if (samples == sampleTimes.length) {
+				sampleTimes = Arrays.copyOf(sampleTimes, samples * 2);
+				occupied = Arrays.copyOf(occupied, samples * 2);
+				available = Arrays.copyOf(available, samples * 2);
+			}
+			sampleTimes[samples] = event.time;
+			occupied[samples] = carsInside;
+			available[samples] = carpark.getAvailableSpaces();
+			samples++;
+			schedule(event.time + SAMPLE_INTERVAL_MILLIS, EVENT.SAMPLE, null, null);
+			break;
+
+		default:
+			break;
+		}
+	}
+
+
+
+	private void enter(EntryLane lane, long time) {
+		Car car = lane.queue.poll();
+		lane.busy = true;
+		schedule(time + GATE_CYCLE_MILLIS, EVENT.ENTRY_LANE_FREE, null, lane);
+
+		long started = System.nanoTime();
+		boolean entered = lane.enter(car);
+		recordGateCycle(System.nanoTime() - started);
+		if (!entered) {
+			carsTurnedAway++;
+			return;
+		}
+		carsEntered++;
+		carsInside++;
+		if (car.seasonTicketId == null) {
+			car.departure = time + car.stayMillis;
+			schedule(Math.max(time, car.departure - PAY_LEAD_MILLIS), EVENT.PAY, car, null);
+		}
+		schedule(Math.max(time + GATE_CYCLE_MILLIS, car.departure), EVENT.EXIT_ARRIVAL, car, null);
+	}
+
+
+
+	private void exit(ExitLane lane, long time) {
+		Car car = lane.queue.poll();
+		lane.busy = true;
+		schedule(time + GATE_CYCLE_MILLIS, EVENT.EXIT_LANE_FREE, null, lane);
+
+		long started = System.nanoTime();
+		boolean exited = lane.exit(car);
+		recordGateCycle(System.nanoTime() - started);
+		if (exited) {
+			carsExited++;
+			carsInside--;
+		}
+		else {
+			exitsRejected++;
+		}
+	}
+
+
+
+	private void schedule(long time, EVENT type, Car car, Object lane) {
+		events.add(new Event(time, nextSequence++, type, car, lane));
+	}
+
+
+
+	private void recordGateCycle(long nanos) {
+		if (gateCycles == gateCycleNanos.length) {
+			gateCycleNanos = Arrays.copyOf(gateCycleNanos, gateCycles * 2);
+		}
+		gateCycleNanos[gateCycles++] = nanos;
+	}
+
+
+
+	private static int load(ArrayDeque<Car> queue, boolean busy) {
+		return queue.size() + (busy ? 1 : 0);
+	}
+
+
+
+	static int localHour(long epochMillis) {
+		return (int) (Math.floorMod(ZoneOffsetTable.systemDefault().toLocalMillis(epochMillis), MILLIS_IN_DAY) / MILLIS_IN_HOUR);
+	}
+
+
+
+	static long nextLocalHour(long epochMillis) {
+		return epochMillis + MILLIS_IN_HOUR - Math.floorMod(ZoneOffsetTable.systemDefault().toLocalMillis(epochMillis), MILLIS_IN_HOUR);
+	}
+
+
+
+	// Local midnight at the start of the day, as epoch millis.
+	static long localDayStart(long epochMillis) {
+		long localMillis = ZoneOffsetTable.systemDefault().toLocalMillis(epochMillis);
+		return epochMillis - Math.floorMod(localMillis, MILLIS_IN_DAY);
+	}
+
+
+
+	static long nextLocalDay(long dayStart) {
+		// Into the next day whatever daylight saving did to this one.
+		return localDayStart(dayStart + MILLIS_IN_DAY + 2 * MILLIS_IN_HOUR);
+	}
+
+
+
+	static DayOfWeek localDayOfWeek(long epochMillis) {
+		long localMillis = ZoneOffsetTable.systemDefault().toLocalMillis(epochMillis);
+		return LocalDate.ofEpochDay(Math.floorDiv(localMillis, MILLIS_IN_DAY)).getDayOfWeek();
+	}
+
+
+
+	// Simulates a working week: lanes, capacity, season tickets and peak adhoc cars per hour.
+	public static void main(String[] args) {
+		int lanes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int seasonTickets = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		double peakCarsPerHour = args.length > 3 ? Double.parseDouble(args[3]) : 300;
+
+		// The controllers log every step; keep that out of the report.
+		long start = localDayStart(System.currentTimeMillis());
+		TrafficSimulator simulator = new TrafficSimulator("Bathurst Chase", capacity, lanes, start, 1L, true);
+		simulator.addPattern(PeakHourArrivals.dailyPeaks(peakCarsPerHour, 2 * MILLIS_IN_HOUR));
+		simulator.addPattern(new CommuterSeasonArrivals(seasonTickets, LocalTime.of(8, 30), 30 * MILLIS_IN_MINUTE,
+				LocalTime.of(17, 15), 45 * MILLIS_IN_MINUTE));
+		System.out.println(simulator.run(start + 7 * MILLIS_IN_DAY));
+	}
+}
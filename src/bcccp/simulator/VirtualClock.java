@@ -0,0 +1,41 @@
+package bcccp.simulator;
+
+import java.time.LocalDateTime;
+
+import bcccp.carpark.ITimeProvider;
+import bcccp.carpark.TimeProvider;
+
+// A clock that only moves when the simulator moves it.
+public class VirtualClock implements ITimeProvider {
+
+	private volatile long currentTimeMillis;
+
+
+
+	public VirtualClock(long startMillis) {
+		this.currentTimeMillis = startMillis;
+	}
+
+
+
+	@Override
+	public LocalDateTime getLocalDateTime() {
+		return TimeProvider.toLocalDateTime(currentTimeMillis);
+	}
+
+
+
+	@Override
+	public long getCurrentTimeMillis() {
+		return currentTimeMillis;
+	}
+
+
+
+	public void setCurrentTimeMillis(long currentTimeMillis) {
+		if (currentTimeMillis < this.currentTimeMillis) {
+			throw new RuntimeException("VirtualClock : cannot go back from " + this.currentTimeMillis + " to " + currentTimeMillis);
+		}
+		this.currentTimeMillis = currentTimeMillis;
+	}
+}
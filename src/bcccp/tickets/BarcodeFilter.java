@@ -0,0 +1,134 @@
+package bcccp.tickets;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A Bloom filter over ticket barcodes, so that barcodes that were never issued can be
+// rejected without a DAO lookup. It can say a barcode might be known when it is not,
+// but never the other way round, and barcodes cannot be taken out of it.
+// Adding and checking are lock free and hash the barcode's chars without copying them.
+public class BarcodeFilter {
+
+	private int expectedBarcodes;
+
+	private double falsePositiveRate;
+
+	private AtomicLongArray bits;
+
+	private long bitCount;
+
+	private int hashCount;
+
+	private LongAdder checks = new LongAdder();
+	private LongAdder rejections = new LongAdder();
+	private LongAdder falsePositives = new LongAdder();
+
+
+
+	public BarcodeFilter(int expectedBarcodes, double falsePositiveRate) {
+		if (expectedBarcodes <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new RuntimeException("BarcodeFilter : invalid size " + expectedBarcodes + " or rate " + falsePositiveRate);
+		}
+		this.expectedBarcodes = expectedBarcodes;
+		this.falsePositiveRate = falsePositiveRate;
+		double ln2 = Math.log(2);
+		long words = Math.max(1, (long) Math.ceil(-expectedBarcodes * Math.log(falsePositiveRate) / (ln2 * ln2) / 64));
+		if (words > Integer.MAX_VALUE) {
+			throw new RuntimeException("BarcodeFilter : too many barcodes " + expectedBarcodes);
+		}
+		bits = new AtomicLongArray((int) words);
+		bitCount = words * 64;
+		hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedBarcodes * ln2));
+	}
+
+
+
+	public void add(String barcode) {
+		long hash = hash(barcode);
+		int step = (int) (hash >>> 32) | 1;
+		int base = (int) hash;
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Math.floorMod(base + i * (long) step, bitCount);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current = bits.get(word);
+			while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+				current = bits.get(word);
+			}
+		}
+	}
+
+
+
+	// False if the barcode was certainly never added.
+	public boolean mightContain(String barcode) {
+		checks.increment();
+		if (barcode == null) {
+			rejections.increment();
+			return false;
+		}
+		long hash = hash(barcode);
+		int step = (int) (hash >>> 32) | 1;
+		int base = (int) hash;
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Math.floorMod(base + i * (long) step, bitCount);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				rejections.increment();
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+
+	// Called when a barcode passed the filter but the lookup found nothing.
+	public void recordFalsePositive() {
+		falsePositives.increment();
+	}
+
+
+
+	public int getExpectedBarcodes() {
+		return expectedBarcodes;
+	}
+
+
+
+	public double getFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+
+
+	public long getChecks() {
+		return checks.sum();
+	}
+
+
+
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+
+
+	public long getFalsePositives() {
+		return falsePositives.sum();
+	}
+
+
+
+	// 64 bit FNV-1a over the chars, with a final mix so both halves are usable.
+	private static long hash(String barcode) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < barcode.length(); i++) {
+			hash ^= barcode.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
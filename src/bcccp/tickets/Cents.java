@@ -0,0 +1,33 @@
+package bcccp.tickets;
+
+// Amounts of money are carried as whole cents; this formats them as dollars and cents.
+// It sits with the tickets, which print their charge, so the carpark and the tickets
+// both use it without the tickets depending on the carpark.
+public class Cents {
+
+	private Cents() {
+	}
+
+
+
+	// Formats an amount in cents as dollars and cents, for example 1234 as "12.34".
+	public static String format(long cents) {
+		return append(new StringBuilder(24), cents).toString();
+	}
+
+
+
+	// Appends an amount in cents as dollars and cents without boxing or a format string.
+	public static StringBuilder append(StringBuilder builder, long cents) {
+		if (cents < 0) {
+			builder.append('-');
+		}
+		long dollars = Math.abs(cents / 100);
+		long fraction = Math.abs(cents % 100);
+		builder.append(dollars).append('.');
+		if (fraction < 10) {
+			builder.append('0');
+		}
+		return builder.append(fraction);
+	}
+}
@@ -2,6 +2,8 @@ package bcccp.tickets.adhoc;
 
 import java.util.Date;
 
+import bcccp.tickets.Cents;
+
 public class AdhocTicket implements IAdhocTicket {
 	
 	private String carparkId_;
@@ -9,11 +11,11 @@ public class AdhocTicket implements IAdhocTicket {
 	private long entryDateTime;
 	private long paidDateTime;
 	private long exitDateTime;
-	private float charge;
+	private long chargeCents;
 	private String barcode;
 	private STATE state_;
-	
-	private enum STATE { ISSUED, CURRENT, PAID, EXITED }
+	private long issuedDateTime;
+	private IAdhocTicketObserver observer;
 
 	
 	
@@ -23,6 +25,19 @@ public class AdhocTicket implements IAdhocTicket {
 		this.barcode = barcode;
 		this.state_ = STATE.ISSUED;		
 	}
+	
+	
+	
+	// Restores a ticket from the archive.
+	AdhocTicket(String carparkId, int ticketNo, String barcode, STATE state,
+			long entryDateTime, long paidDateTime, long exitDateTime, long chargeCents) {
+		this(carparkId, ticketNo, barcode);
+		this.state_ = state;
+		this.entryDateTime = entryDateTime;
+		this.paidDateTime = paidDateTime;
+		this.exitDateTime = exitDateTime;
+		this.chargeCents = chargeCents;
+	}
 
 	
 	
@@ -51,6 +66,7 @@ public class AdhocTicket implements IAdhocTicket {
 	public void enter(long entryDateTime) {
 		this.entryDateTime = entryDateTime;
 		this.state_ = STATE.CURRENT;		
+		notifyObserver();
 	}
 	
 	
@@ -63,10 +79,11 @@ public class AdhocTicket implements IAdhocTicket {
 	
 	
 	@Override
-	public void pay(long paidDateTime, float charge) {
+	public void pay(long paidDateTime, long chargeCents) {
 		this.paidDateTime = paidDateTime;
-		this.charge = charge;
+		this.chargeCents = chargeCents;
 		state_ = STATE.PAID;
+		notifyObserver();
 	}
 	
 	
@@ -79,8 +96,8 @@ public class AdhocTicket implements IAdhocTicket {
 
 
 	@Override
-	public float getCharge() {
-		return charge;
+	public long getChargeCents() {
+		return chargeCents;
 	}
 
 	
@@ -95,6 +112,7 @@ public class AdhocTicket implements IAdhocTicket {
 		       "Entry Time : " + entryDate + "\n" + 
 		       "Paid Time  : " + paidDate + "\n" + 
 		       "Exit Time  : " + exitDate + "\n" +
+		       "Charge     : " + Cents.format(chargeCents) + "\n" +
 		       "State      : " + state_ + "\n" +
 		       "Barcode    : " + barcode;		
 	}
@@ -119,6 +137,7 @@ public class AdhocTicket implements IAdhocTicket {
 	public void exit(long dateTime) {
 		exitDateTime = dateTime;
 		state_ = STATE.EXITED;
+		notifyObserver();
 	}
 
 
@@ -134,6 +153,41 @@ public class AdhocTicket implements IAdhocTicket {
 	public boolean hasExited() {
 		return state_ == STATE.EXITED;
 	}
+	
+	
+	
+	@Override
+	public STATE getState() {
+		return state_;
+	}
+
+
+
+	// Only the DAO that holds the ticket observes it.
+	void setObserver(IAdhocTicketObserver observer) {
+		this.observer = observer;
+	}
+	
+	
+	
+	// When the DAO issued the ticket, to tell whether it has been abandoned.
+	long getIssuedDateTime() {
+		return issuedDateTime;
+	}
+	
+	
+	
+	void setIssuedDateTime(long issuedDateTime) {
+		this.issuedDateTime = issuedDateTime;
+	}
+	
+	
+	
+	private void notifyObserver() {
+		if (observer != null) {
+			observer.notifyTicketEvent(this);
+		}
+	}
 
 
 }
@@ -0,0 +1,112 @@
+package bcccp.tickets.adhoc;
+
+import java.util.Arrays;
+
+// Exited adhoc tickets held as primitive columns rather than ticket objects.
+// Rows are appended as tickets retire and found through a dense ticket number index.
+// Archived tickets are rarely looked up, so a lock is good enough here.
+// A ticket found here is a read-only copy: an exited ticket has nothing left to do,
+// and a change to a copy would never reach the DAO.
+class AdhocTicketArchive {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private int size;
+	private int[] ticketNos = new int[INITIAL_CAPACITY];
+	private byte[] states = new byte[INITIAL_CAPACITY];
+	private long[] entryDateTimes = new long[INITIAL_CAPACITY];
+	private long[] paidDateTimes = new long[INITIAL_CAPACITY];
+	private long[] exitDateTimes = new long[INITIAL_CAPACITY];
+	private long[] chargeCents = new long[INITIAL_CAPACITY];
+	// Car park ids repeat, so each row refers to a shared String.
+	private String[] carparkIds = new String[INITIAL_CAPACITY];
+
+	// Row + 1 for each ticket number, 0 when the ticket is not archived.
+	private int[] rowByTicketNo = new int[INITIAL_CAPACITY];
+
+
+
+	private static class ArchivedTicket extends AdhocTicket {
+
+		ArchivedTicket(String carparkId, int ticketNo, String barcode, STATE state,
+				long entryDateTime, long paidDateTime, long exitDateTime, long chargeCents) {
+			super(carparkId, ticketNo, barcode, state, entryDateTime, paidDateTime, exitDateTime, chargeCents);
+		}
+
+		@Override
+		public void enter(long dateTime) {
+			throw archived();
+		}
+
+		@Override
+		public void pay(long dateTime, long chargeCents) {
+			throw archived();
+		}
+
+		@Override
+		public void exit(long dateTime) {
+			throw archived();
+		}
+
+		private RuntimeException archived() {
+			return new RuntimeException("AdhocTicket : ticket " + getBarcode() + " has exited and is archived");
+		}
+	}
+
+
+
+	synchronized void add(AdhocTicket ticket) {
+		int ticketNo = ticket.getTicketNo();
+		if (ticketNo < rowByTicketNo.length && rowByTicketNo[ticketNo] != 0) {
+			return;
+		}
+		if (size == ticketNos.length) {
+			grow(size * 2);
+		}
+		if (ticketNo >= rowByTicketNo.length) {
+			rowByTicketNo = Arrays.copyOf(rowByTicketNo, Math.max(rowByTicketNo.length * 2, ticketNo + 1));
+		}
+
+		ticketNos[size] = ticketNo;
+		states[size] = (byte) ticket.getState().ordinal();
+		entryDateTimes[size] = ticket.getEntryDateTime();
+		paidDateTimes[size] = ticket.getPaidDateTime();
+		exitDateTimes[size] = ticket.getExitDateTime();
+		chargeCents[size] = ticket.getChargeCents();
+		carparkIds[size] = ticket.getCarparkId();
+		size++;
+		rowByTicketNo[ticketNo] = size;
+	}
+
+
+
+	// A read-only copy of an archived ticket, or null if the ticket number is not archived.
+	synchronized IAdhocTicket find(int ticketNo) {
+		if (ticketNo < 0 || ticketNo >= rowByTicketNo.length || rowByTicketNo[ticketNo] == 0) {
+			return null;
+		}
+
+		int row = rowByTicketNo[ticketNo] - 1;
+		return new ArchivedTicket(carparkIds[row], ticketNo, AdhocTicketFactory.toBarcode(ticketNo),
+				IAdhocTicket.STATE.values()[states[row]],
+				entryDateTimes[row], paidDateTimes[row], exitDateTimes[row], chargeCents[row]);
+	}
+
+
+
+	synchronized int size() {
+		return size;
+	}
+
+
+
+	private void grow(int capacity) {
+		ticketNos = Arrays.copyOf(ticketNos, capacity);
+		states = Arrays.copyOf(states, capacity);
+		entryDateTimes = Arrays.copyOf(entryDateTimes, capacity);
+		paidDateTimes = Arrays.copyOf(paidDateTimes, capacity);
+		exitDateTimes = Arrays.copyOf(exitDateTimes, capacity);
+		chargeCents = Arrays.copyOf(chargeCents, capacity);
+		carparkIds = Arrays.copyOf(carparkIds, capacity);
+	}
+}
@@ -1,45 +1,348 @@
 package bcccp.tickets.adhoc;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class AdhocTicketDAO  implements IAdhocTicketDAO  {
+// Safe to share between entry, paystation and exit lanes:
+// ticket numbers come from an atomic counter and tickets are held by ticket number
+// in AdhocTicketSlots, so finding a ticket parses the barcode instead of hashing it.
+// Tickets from a factory with some other barcode format are kept in a concurrent map.
+//
+// Exited tickets are retired from the slots into a columnar AdhocTicketArchive as
+// soon as they exit. Finding an archived ticket is slower and returns a read-only
+// copy of the ticket as it exited.
+// Tickets issued long ago that never entered can be set aside as abandoned. They are
+// still found, and if one enters after all it goes back into the slots.
+//
+// Tickets that have not exited are also indexed by state and by entry time. The
+// indexes are kept up to date from the ticket events, so state and entry time
+// queries do not scan the slots.
+public class AdhocTicketDAO  implements IAdhocTicketDAO, IAdhocTicketObserver  {
 
-	private Map<String, IAdhocTicket> currentTickets;
+	private AdhocTicketSlots tickets;
+	private AdhocTicketArchive archive;
+	private Map<Integer, AdhocTicket> abandoned;
+	private LongSupplier clock;
+	private Map<String, IAdhocTicket> otherTickets;
 	private IAdhocTicketFactory adhocTicketFactory_;
-	private int currentTicketNo;
+	private AtomicInteger currentTicketNo;
+	private Map<IAdhocTicket.STATE, Set<IAdhocTicket>> ticketsByState;
+	private ConcurrentSkipListMap<EntryKey, IAdhocTicket> ticketsByEntry;
+	// The key each ticket is held under in ticketsByEntry, so a changed entry time can be moved.
+	private Map<IAdhocTicket, EntryKey> entryKeys;
+	
+	
+	
+	// Orders tickets by entry time, then ticket number for tickets that entered together.
+	private static class EntryKey implements Comparable<EntryKey> {
+		private final long entryDateTime;
+		private final int ticketNo;
+		
+		EntryKey(long entryDateTime, int ticketNo) {
+			this.entryDateTime = entryDateTime;
+			this.ticketNo = ticketNo;
+		}
+		
+		@Override
+		public int compareTo(EntryKey other) {
+			int compare = Long.compare(entryDateTime, other.entryDateTime);
+			return compare != 0 ? compare : Integer.compare(ticketNo, other.ticketNo);
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof EntryKey && compareTo((EntryKey) other) == 0;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Long.hashCode(entryDateTime) * 31 + ticketNo;
+		}
+	}
 
 	
 	
 	public AdhocTicketDAO(IAdhocTicketFactory adhocTicketFactory) {
+		this(adhocTicketFactory, System::currentTimeMillis);
+	}
+
+	
+	
+	// Stamps tickets with their issue time from the clock.
+	public AdhocTicketDAO(IAdhocTicketFactory adhocTicketFactory, LongSupplier clock) {
 		this.adhocTicketFactory_ = adhocTicketFactory;
-		currentTickets = new HashMap<>();		
+		this.clock = clock;
+		tickets = new AdhocTicketSlots();
+		archive = new AdhocTicketArchive();
+		abandoned = new ConcurrentHashMap<>();
+		otherTickets = new ConcurrentHashMap<>();
+		currentTicketNo = new AtomicInteger();
+		ticketsByState = new EnumMap<>(IAdhocTicket.STATE.class);
+		for (IAdhocTicket.STATE state : IAdhocTicket.STATE.values()) {
+			ticketsByState.put(state, ConcurrentHashMap.newKeySet());
+		}
+		ticketsByEntry = new ConcurrentSkipListMap<>();
+		entryKeys = new ConcurrentHashMap<>();
 	}
 
 	
 	
 	@Override
 	public IAdhocTicket createTicket(String carparkId) {
-		IAdhocTicket ticket = adhocTicketFactory_.make(carparkId, ++currentTicketNo);
-		currentTickets.put(ticket.getBarcode(), ticket);
+		IAdhocTicket ticket = adhocTicketFactory_.make(carparkId, currentTicketNo.incrementAndGet());
+		add(ticket);
 		return ticket;	
 	}
 	
 	
 	
+	// Adds a ticket issued before a restart, or returns the ticket if it is already here.
+	IAdhocTicket restoreTicket(String carparkId, int ticketNo) {
+		IAdhocTicket ticket = adhocTicketFactory_.make(carparkId, ticketNo);
+		IAdhocTicket existing = findTicketByBarcode(ticket.getBarcode());
+		if (existing != null) {
+			return existing;
+		}
+		restoreTicketNo(ticketNo);
+		add(ticket);
+		return ticket;
+	}
+	
+	
+	
+	// Makes sure ticket numbers issued before a restart are not issued again.
+	void restoreTicketNo(int ticketNo) {
+		currentTicketNo.accumulateAndGet(ticketNo, Math::max);
+	}
+	
+	
+	
+	int getCurrentTicketNo() {
+		return currentTicketNo.get();
+	}
+	
+	
+	
 	@Override
 	public IAdhocTicket findTicketByBarcode(String barcode) {
-		return currentTickets.get(barcode);
+		int ticketNo = AdhocTicketFactory.parseTicketNo(barcode);
+		if (ticketNo > 0) {
+			IAdhocTicket ticket = tickets.get(ticketNo);
+			if (ticket == null) {
+				ticket = abandoned.get(ticketNo);
+			}
+			if (ticket == null) {
+				ticket = archive.find(ticketNo);
+			}
+			if (ticket != null) {
+				return ticket;
+			}
+		}
+		if (barcode == null || otherTickets.isEmpty()) {
+			return null;
+		}
+		return otherTickets.get(barcode);
 	}	
 
 	
 	
 	@Override
 	public List<IAdhocTicket> getCurrentTickets() {		
-		return Collections.unmodifiableList(new ArrayList<IAdhocTicket>(currentTickets.values()));
+		List<IAdhocTicket> current = new ArrayList<IAdhocTicket>();
+		forEachCurrentTicket(current::add);
+		return Collections.unmodifiableList(current);
+	}
+	
+	
+	
+	@Override
+	public void forEachCurrentTicket(Consumer<? super IAdhocTicket> action) {
+		tickets.forEach(action);
+		otherTickets.values().forEach(action);
+	}
+	
+	
+	
+	@Override
+	public Stream<IAdhocTicket> streamCurrentTickets() {
+		Stream<IAdhocTicket> slotted = StreamSupport.stream(tickets.spliterator(), false);
+		if (otherTickets.isEmpty()) {
+			return slotted;
+		}
+		return Stream.concat(slotted, otherTickets.values().stream());
+	}
+	
+	
+	
+	@Override
+	public Collection<IAdhocTicket> getTicketsInState(IAdhocTicket.STATE state) {
+		return Collections.unmodifiableSet(ticketsByState.get(state));
+	}
+	
+	
+	
+	@Override
+	public Collection<IAdhocTicket> getTicketsEnteredBetween(long fromDateTime, long toDateTime) {
+		if (toDateTime <= fromDateTime) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableCollection(ticketsByEntry.subMap(
+				new EntryKey(fromDateTime, Integer.MIN_VALUE), new EntryKey(toDateTime, Integer.MIN_VALUE)).values());
+	}
+	
+	
+	
+	@Override
+	public void notifyTicketEvent(IAdhocTicket ticket) {
+		// Into the slots before it leaves the abandoned tickets, so it can always be found.
+		int ticketNo = ticket.getTicketNo();
+		if (abandoned.get(ticketNo) == ticket) {
+			tickets.put(ticketNo, ticket);
+			abandoned.remove(ticketNo, ticket);
+		}
+		if (ticket.hasExited()) {
+			unindex(ticket);
+			retire(ticket);
+		}
+		else {
+			index(ticket);
+		}
+	}
+	
+	
+	
+	// Sets aside tickets issued before the time that have never entered. Returns the number set aside.
+	public int retireAbandonedTickets(long issuedBefore) {
+		int retired = 0;
+		// The issued index holds exactly the tickets that have not entered.
+		for (IAdhocTicket ticket : ticketsByState.get(IAdhocTicket.STATE.ISSUED)) {
+			if (ticket instanceof AdhocTicket && ((AdhocTicket) ticket).getIssuedDateTime() < issuedBefore
+					&& abandon((AdhocTicket) ticket)) {
+				retired++;
+			}
+		}
+		return retired;
+	}
+	
+	
+	
+	public int getNumberOfArchivedTickets() {
+		return archive.size();
+	}
+	
+	
+	
+	public int getNumberOfAbandonedTickets() {
+		return abandoned.size();
+	}
+	
+	
+	
+	void forEachAbandonedTicket(Consumer<? super IAdhocTicket> action) {
+		abandoned.values().forEach(action);
+	}
+	
+	
+	
+	// The issue time and observer are set before the ticket can be found, so a sweep
+	// never sees it unissued and an early entry still reaches the indexes.
+	private void add(IAdhocTicket ticket) {
+		// Tickets from other factories are not observed, so they are not indexed after they are issued.
+		if (ticket instanceof AdhocTicket) {
+			((AdhocTicket) ticket).setIssuedDateTime(clock.getAsLong());
+			((AdhocTicket) ticket).setObserver(this);
+		}
+		if (AdhocTicketFactory.parseTicketNo(ticket.getBarcode()) == ticket.getTicketNo()) {
+			tickets.put(ticket.getTicketNo(), ticket);
+		}
+		else {
+			otherTickets.put(ticket.getBarcode(), ticket);
+		}
+		index(ticket);
+	}
+	
+	
+	
+	// Abandoned tickets are kept as they are, so a ticket that enters after all still reports to the DAO.
+	private boolean abandon(AdhocTicket ticket) {
+		int ticketNo = ticket.getTicketNo();
+		if (tickets.get(ticketNo) != ticket) {
+			return false;
+		}
+		abandoned.put(ticketNo, ticket);
+		tickets.remove(ticketNo);
+		unindex(ticket);
+		// It may have entered while it was being set aside.
+		if (ticket.getState() != IAdhocTicket.STATE.ISSUED) {
+			notifyTicketEvent(ticket);
+			return false;
+		}
+		return true;
+	}
+	
+	
+	
+	// Only tickets held in the slots can be archived, as the archive rebuilds their barcodes.
+	private boolean retire(IAdhocTicket ticket) {
+		int ticketNo = ticket.getTicketNo();
+		if (!(ticket instanceof AdhocTicket) || tickets.get(ticketNo) != ticket) {
+			return false;
+		}
+		
+		// Archive first so that the ticket can always be found in one place or the other.
+		archive.add((AdhocTicket) ticket);
+		tickets.remove(ticketNo);
+		unindex(ticket);
+		return true;
+	}
+	
+	
+	
+	// Adds the ticket under its current state before removing it from the others,
+	// so a state query never misses a ticket that is changing state.
+	private void index(IAdhocTicket ticket) {
+		IAdhocTicket.STATE state = ticket.getState();
+		ticketsByState.get(state).add(ticket);
+		for (Map.Entry<IAdhocTicket.STATE, Set<IAdhocTicket>> entry : ticketsByState.entrySet()) {
+			if (entry.getKey() != state) {
+				entry.getValue().remove(ticket);
+			}
+		}
+		if (state != IAdhocTicket.STATE.ISSUED) {
+			EntryKey key = new EntryKey(ticket.getEntryDateTime(), ticket.getTicketNo());
+			EntryKey previous = entryKeys.put(ticket, key);
+			if (!key.equals(previous)) {
+				// Added under the new time before it goes from the old, like the state index.
+				ticketsByEntry.put(key, ticket);
+				if (previous != null) {
+					ticketsByEntry.remove(previous, ticket);
+				}
+			}
+		}
+	}
+	
+	
+	
+	private void unindex(IAdhocTicket ticket) {
+		for (Set<IAdhocTicket> indexed : ticketsByState.values()) {
+			indexed.remove(ticket);
+		}
+		EntryKey key = entryKeys.remove(ticket);
+		if (key != null) {
+			ticketsByEntry.remove(key, ticket);
+		}
 	}
 
 
@@ -4,9 +4,46 @@ public class AdhocTicketFactory implements IAdhocTicketFactory {
 
 	@Override
 	public IAdhocTicket make(String carparkId, int ticketNo) {
-		String barcode = "A" + Integer.toHexString(ticketNo);
-		return new AdhocTicket(carparkId, ticketNo, barcode);
+		return new AdhocTicket(carparkId, ticketNo, toBarcode(ticketNo));
 		
 	}
+	
+	
+	
+	public static String toBarcode(int ticketNo) {
+		return "A" + Integer.toHexString(ticketNo);
+	}
+	
+	
+	
+	// The ticket number of a barcode made by this factory, or -1 if the barcode is malformed.
+	// Only "A" followed by lower case hex without leading zeros is accepted, so each
+	// ticket number has exactly one barcode.
+	public static int parseTicketNo(String barcode) {
+		if (barcode == null) {
+			return -1;
+		}
+		int length = barcode.length();
+		if (length < 2 || length > 9 || barcode.charAt(0) != 'A' || barcode.charAt(1) == '0') {
+			return -1;
+		}
+		
+		int ticketNo = 0;
+		for (int i = 1; i < length; i++) {
+			char c = barcode.charAt(i);
+			int digit;
+			if (c >= '0' && c <= '9') {
+				digit = c - '0';
+			}
+			else if (c >= 'a' && c <= 'f') {
+				digit = c - 'a' + 10;
+			}
+			else {
+				return -1;
+			}
+			ticketNo = (ticketNo << 4) | digit;
+		}
+		return ticketNo > 0 ? ticketNo : -1;
+	}
 
 }
@@ -0,0 +1,272 @@
+package bcccp.tickets.adhoc;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Append-only binary log of adhoc ticket events. Each record is the length of the
+// event, the event and a CRC32 of the event, so an event torn by a crash fails its
+// check on replay and is cut off along with anything after it.
+//
+// Appending only copies the event into a buffer. sync writes the buffer out and
+// forces it to disk. A lane that syncs while another lane is forcing waits for it
+// and usually finds its own event already on disk, so the lanes share one fsync.
+class AdhocTicketJournal implements Closeable {
+
+	static final byte TICKET_NO = 1;
+	static final byte CREATE = 2;
+	static final byte ENTER = 3;
+	static final byte PAY = 4;
+	static final byte EXIT = 5;
+
+	// Type, ticket number, date time and charge, then the car park id for CREATE.
+	private static final int EVENT_SIZE = 1 + 4 + 8 + 8;
+
+	private static final int MAX_CARPARK_ID_BYTES = 1024;
+
+	private static final int MAX_EVENT_SIZE = EVENT_SIZE + 2 + MAX_CARPARK_ID_BYTES;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private CRC32 crc = new CRC32();
+
+	private Object syncLock = new Object();
+
+	// Sequence numbers of the last event appended and the last event forced to disk.
+	private long appended;
+	private long durable;
+
+	// Nearly every ticket has the same car park id, so its bytes are kept.
+	private String lastCarparkId;
+	private byte[] lastCarparkIdBytes;
+	private String lastReplayedCarparkId;
+
+
+
+	interface Replayer {
+		void replay(byte type, int ticketNo, long dateTime, long chargeCents, String carparkId);
+	}
+
+
+
+	interface SnapshotWriter {
+		void write(AdhocTicketJournal snapshot) throws IOException;
+	}
+
+
+
+	AdhocTicketJournal(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+
+
+	// Replays every complete event in order, then cuts off anything after the last one
+	// so that new events follow it. Returns the number of events replayed.
+	synchronized int replay(Replayer replayer) throws IOException {
+		channel.position(0);
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+		byte[] event = new byte[MAX_EVENT_SIZE];
+		ByteBuffer eventBuffer = ByteBuffer.wrap(event);
+		long good = 0;
+		int events = 0;
+		try {
+			while (true) {
+				int length = in.readInt();
+				if (length < EVENT_SIZE || length > MAX_EVENT_SIZE) {
+					break;
+				}
+				in.readFully(event, 0, length);
+				int checksum = in.readInt();
+				crc.reset();
+				crc.update(event, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+
+				eventBuffer.clear();
+				byte type = eventBuffer.get();
+				int ticketNo = eventBuffer.getInt();
+				long dateTime = eventBuffer.getLong();
+				long chargeCents = eventBuffer.getLong();
+				String carparkId = null;
+				if (length > EVENT_SIZE) {
+					int idLength = eventBuffer.getShort() & 0xffff;
+					carparkId = carparkIdFor(event, EVENT_SIZE + 2, idLength);
+				}
+				replayer.replay(type, ticketNo, dateTime, chargeCents, carparkId);
+				good += 4 + length + 4;
+				events++;
+			}
+		}
+		catch (EOFException e) {
+			// The last event was torn.
+		}
+		channel.truncate(good);
+		channel.position(good);
+		return events;
+	}
+
+
+
+	// Returns the sequence number of the event, to sync on.
+	synchronized long append(byte type, int ticketNo, long dateTime, long chargeCents, String carparkId)
+			throws IOException {
+		byte[] id = carparkId == null ? null : carparkIdBytes(carparkId);
+		int length = EVENT_SIZE + (id == null ? 0 : 2 + id.length);
+		if (buffer.remaining() < 4 + length + 4) {
+			drain();
+		}
+
+		buffer.putInt(length);
+		int start = buffer.position();
+		buffer.put(type).putInt(ticketNo).putLong(dateTime).putLong(chargeCents);
+		if (id != null) {
+			buffer.putShort((short) id.length).put(id);
+		}
+		int end = buffer.position();
+		crc.reset();
+		buffer.position(start);
+		buffer.limit(end);
+		crc.update(buffer);
+		buffer.limit(buffer.capacity());
+		buffer.putInt((int) crc.getValue());
+		return ++appended;
+	}
+
+
+
+	// Makes every event up to the sequence number durable.
+	void sync(long sequence) throws IOException {
+		synchronized (syncLock) {
+			if (durable >= sequence) {
+				return;
+			}
+			long upTo;
+			synchronized (this) {
+				drain();
+				upTo = appended;
+			}
+			if (upTo == durable) {
+				return;
+			}
+			channel.force(false);
+			durable = upTo;
+		}
+	}
+
+
+
+	void syncAll() throws IOException {
+		sync(Long.MAX_VALUE);
+	}
+
+
+
+	// Replaces the journal with a snapshot. The writer appends the snapshot events to
+	// a new journal, which is forced and moved over the snapshot file before this
+	// journal is emptied. Appends wait until it is done, so that every event in this
+	// journal is already reflected in the snapshot.
+	void compact(Path snapshotFile, SnapshotWriter writer) throws IOException {
+		Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+		synchronized (syncLock) {
+			synchronized (this) {
+				try (AdhocTicketJournal snapshot = new AdhocTicketJournal(temp)) {
+					snapshot.channel.truncate(0);
+					writer.write(snapshot);
+				}
+				Files.move(temp, snapshotFile,
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				syncDirectory(snapshotFile.toAbsolutePath().getParent());
+
+				buffer.clear();
+				channel.truncate(0);
+				channel.force(false);
+				durable = appended;
+			}
+		}
+	}
+
+
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		syncAll();
+		channel.close();
+	}
+
+
+
+	// Makes the rename durable before the journal is emptied. Some platforms cannot
+	// open a directory; there the rename is left to the file system.
+	private static void syncDirectory(Path directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		}
+		catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+
+
+	private byte[] carparkIdBytes(String carparkId) {
+		if (!carparkId.equals(lastCarparkId)) {
+			byte[] bytes = carparkId.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > MAX_CARPARK_ID_BYTES) {
+				throw new RuntimeException("AdhocTicketJournal : car park id is too long to journal: " + carparkId);
+			}
+			lastCarparkIdBytes = bytes;
+			lastCarparkId = carparkId;
+		}
+		return lastCarparkIdBytes;
+	}
+
+
+
+	private String carparkIdFor(byte[] event, int offset, int length) {
+		String carparkId = new String(event, offset, length, StandardCharsets.UTF_8);
+		if (carparkId.equals(lastReplayedCarparkId)) {
+			return lastReplayedCarparkId;
+		}
+		lastReplayedCarparkId = carparkId;
+		return carparkId;
+	}
+}
@@ -0,0 +1,232 @@
+package bcccp.tickets.adhoc;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Tickets held by ticket number in fixed size segments, ticket 1 in the first slot.
+// Ticket numbers are dense and increasing, so a lookup is a shift, a mask and two
+// array loads. The segment directory is copied whenever a segment is added or
+// dropped, which happens at most once every SEGMENT_SIZE tickets, so readers never
+// need a lock. A segment is dropped once all of its slots have been filled and
+// every ticket in it has been removed. Filling a slot for the first time never
+// races a drop, since the segment is not full yet; putting a ticket back into a
+// slot that has been used before takes the lock, as the segment may be dropping.
+class AdhocTicketSlots {
+
+	private static final int SEGMENT_BITS = 10;
+
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private volatile Segment[] segments = new Segment[0];
+
+
+
+	@SuppressWarnings("serial")
+	private static class Segment extends AtomicReferenceArray<IAdhocTicket> {
+		private AtomicInteger filled = new AtomicInteger();
+		private AtomicInteger live = new AtomicInteger();
+		private AtomicLongArray used = new AtomicLongArray(SEGMENT_SIZE / Long.SIZE);
+
+		Segment() {
+			super(SEGMENT_SIZE);
+		}
+
+		// True the first time the slot is used.
+		boolean use(int offset) {
+			long bit = 1L << offset;
+			int word = offset / Long.SIZE;
+			long bits;
+			do {
+				bits = used.get(word);
+				if ((bits & bit) != 0) {
+					return false;
+				}
+			} while (!used.compareAndSet(word, bits, bits | bit));
+			return true;
+		}
+	}
+
+
+
+	IAdhocTicket get(int ticketNo) {
+		int slot = ticketNo - 1;
+		Segment[] current = segments;
+		int index = slot >>> SEGMENT_BITS;
+		if (index >= current.length || current[index] == null) {
+			return null;
+		}
+		return current[index].get(slot & SEGMENT_MASK);
+	}
+
+
+
+	void put(int ticketNo, IAdhocTicket ticket) {
+		if (ticketNo < 1) {
+			throw new RuntimeException("AdhocTicketSlots.put : invalid ticket number " + ticketNo);
+		}
+		int slot = ticketNo - 1;
+		int index = slot >>> SEGMENT_BITS;
+		int offset = slot & SEGMENT_MASK;
+		Segment segment = segmentFor(index);
+		if (!segment.use(offset)) {
+			refill(index, offset, ticket);
+			return;
+		}
+		segment.set(offset, ticket);
+		segment.live.incrementAndGet();
+		segment.filled.incrementAndGet();
+	}
+
+
+
+	void remove(int ticketNo) {
+		int slot = ticketNo - 1;
+		int index = slot >>> SEGMENT_BITS;
+		Segment[] current = segments;
+		if (slot < 0 || index >= current.length || current[index] == null) {
+			return;
+		}
+
+		Segment segment = current[index];
+		if (segment.getAndSet(slot & SEGMENT_MASK, null) != null
+				&& segment.live.decrementAndGet() == 0
+				&& segment.filled.get() == SEGMENT_SIZE) {
+			dropSegment(index, segment);
+		}
+	}
+
+
+
+	// Visits the tickets in ticket number order without copying them.
+	void forEach(Consumer<? super IAdhocTicket> action) {
+		for (Segment segment : segments) {
+			if (segment == null) {
+				continue;
+			}
+			for (int i = 0; i < SEGMENT_SIZE; i++) {
+				IAdhocTicket ticket = segment.get(i);
+				if (ticket != null) {
+					action.accept(ticket);
+				}
+			}
+		}
+	}
+
+
+
+	// Weakly consistent: covers the segments present when it was created and sees
+	// tickets removed or added to those segments while it runs. Splits on segment
+	// boundaries for parallel streams.
+	Spliterator<IAdhocTicket> spliterator() {
+		Segment[] current = segments;
+		return new SlotSpliterator(current, 0, (long) current.length * SEGMENT_SIZE);
+	}
+
+
+
+	private static class SlotSpliterator implements Spliterator<IAdhocTicket> {
+		private final Segment[] segments;
+		private long slot;
+		private final long end;
+
+		SlotSpliterator(Segment[] segments, long slot, long end) {
+			this.segments = segments;
+			this.slot = slot;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super IAdhocTicket> action) {
+			while (slot < end) {
+				Segment segment = segments[(int) (slot >>> SEGMENT_BITS)];
+				if (segment == null) {
+					slot = ((slot >>> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+					continue;
+				}
+				IAdhocTicket ticket = segment.get((int) (slot & SEGMENT_MASK));
+				slot++;
+				if (ticket != null) {
+					action.accept(ticket);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Spliterator<IAdhocTicket> trySplit() {
+			long firstSegment = slot >>> SEGMENT_BITS;
+			long endSegment = (end + SEGMENT_SIZE - 1) >>> SEGMENT_BITS;
+			if (endSegment - firstSegment < 2) {
+				return null;
+			}
+			long middle = ((firstSegment + endSegment) >>> 1) << SEGMENT_BITS;
+			SlotSpliterator prefix = new SlotSpliterator(segments, slot, middle);
+			slot = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - slot;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | CONCURRENT;
+		}
+	}
+
+
+
+	private Segment segmentFor(int index) {
+		Segment[] current = segments;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+
+		synchronized (this) {
+			current = segments;
+			if (index < current.length && current[index] != null) {
+				return current[index];
+			}
+			Segment[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+			grown[index] = new Segment();
+			segments = grown;
+			return grown[index];
+		}
+	}
+
+
+
+	// A slot used before, such as an abandoned ticket coming back. Holding the lock
+	// keeps the segment from being dropped underneath the ticket, and if it has
+	// already gone the ticket starts a new one.
+	private synchronized void refill(int index, int offset, IAdhocTicket ticket) {
+		Segment segment = segmentFor(index);
+		if (segment.use(offset)) {
+			segment.filled.incrementAndGet();
+		}
+		if (segment.getAndSet(offset, ticket) == null) {
+			segment.live.incrementAndGet();
+		}
+	}
+
+
+
+	private synchronized void dropSegment(int index, Segment segment) {
+		Segment[] current = segments;
+		if (current[index] != segment || segment.live.get() != 0) {
+			return;
+		}
+		Segment[] dropped = current.clone();
+		dropped[index] = null;
+		segments = dropped;
+	}
+}
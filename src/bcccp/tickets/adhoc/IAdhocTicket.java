@@ -1,6 +1,8 @@
 package bcccp.tickets.adhoc;
 
 public interface IAdhocTicket {
+	
+	public enum STATE { ISSUED, CURRENT, PAID, EXITED }
 
 	public int getTicketNo();
 	public String getBarcode();
@@ -10,15 +12,17 @@ public interface IAdhocTicket {
 	public long getEntryDateTime();
 	public boolean isCurrent();
 	
-	public void pay(long dateTime, float charge);
+	public void pay(long dateTime, long chargeCents);
 	public long getPaidDateTime();
 	public boolean isPaid();
-	public float getCharge();
+	public long getChargeCents();
 	
 	public void exit(long dateTime);
 	public long getExitDateTime();
 	public boolean hasExited();
 	
+	public STATE getState();
+	
 	
 	
 }
@@ -1,12 +1,25 @@
 package bcccp.tickets.adhoc;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface IAdhocTicketDAO {
 	
 	public IAdhocTicket createTicket(String carparkId);
 	public IAdhocTicket findTicketByBarcode(String barcode);
 	public List<IAdhocTicket> getCurrentTickets();
+	
+	// Visit or stream the current tickets without copying them into a list.
+	// Both are safe while tickets are issued and exit, and the stream may be made parallel.
+	public void forEachCurrentTicket(Consumer<? super IAdhocTicket> action);
+	public Stream<IAdhocTicket> streamCurrentTickets();
+	
+	// Live views of the indexed tickets. Exited tickets are not indexed.
+	public Collection<IAdhocTicket> getTicketsInState(IAdhocTicket.STATE state);
+	// Tickets that entered at or after fromDateTime and before toDateTime, in entry order.
+	public Collection<IAdhocTicket> getTicketsEnteredBetween(long fromDateTime, long toDateTime);
 
 
 }
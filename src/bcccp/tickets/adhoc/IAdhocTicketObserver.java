@@ -0,0 +1,8 @@
+package bcccp.tickets.adhoc;
+
+public interface IAdhocTicketObserver {
+	
+	// Called after a ticket has entered, been paid or exited.
+	public void notifyTicketEvent(IAdhocTicket ticket);
+
+}
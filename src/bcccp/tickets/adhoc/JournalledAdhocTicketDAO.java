@@ -0,0 +1,293 @@
+package bcccp.tickets.adhoc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An AdhocTicketDAO that survives a restart. Every create, enter, pay and exit is
+// appended to an AdhocTicketJournal in the given directory and replayed when the DAO
+// is constructed. Every snapshotEvery events the tickets that have not exited are
+// written to a snapshot and the journal is emptied, so exited tickets are forgotten
+// by a restart after that but their ticket numbers are never issued again.
+//
+// With SyncPolicy.EVERY_EVENT an event is on disk before the ticket call returns,
+// with concurrent lanes sharing an fsync. With SyncPolicy.PERIODIC events are forced
+// to disk every syncIntervalMillis by a background thread, so a crash can lose the
+// events of the last interval but appending costs only a buffer copy.
+public class JournalledAdhocTicketDAO extends AdhocTicketDAO implements Closeable {
+
+	public enum SyncPolicy { EVERY_EVENT, PERIODIC }
+
+	private static final String JOURNAL_FILE = "adhoc-tickets.journal";
+
+	private static final String SNAPSHOT_FILE = "adhoc-tickets.snapshot";
+
+	private static final long DEFAULT_SYNC_INTERVAL_MILLIS = 5;
+
+	private static final int DEFAULT_SNAPSHOT_EVERY = 100000;
+
+	private Path snapshotFile;
+	private AdhocTicketJournal journal;
+	private SyncPolicy syncPolicy;
+	private int snapshotEvery;
+	private AtomicInteger eventsSinceSnapshot;
+	private AtomicBoolean snapshotPending;
+	private ScheduledExecutorService background;
+
+	// Set while replaying so that the replayed events are not journalled again.
+	private boolean replaying;
+	private Map<Integer, IAdhocTicket> replayed;
+
+	// A failure on the background thread, reported by the next ticket event.
+	private volatile IOException backgroundFailure;
+
+
+
+	public JournalledAdhocTicketDAO(IAdhocTicketFactory adhocTicketFactory, Path directory) {
+		this(adhocTicketFactory, directory, SyncPolicy.PERIODIC, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_SNAPSHOT_EVERY);
+	}
+
+
+
+	public JournalledAdhocTicketDAO(IAdhocTicketFactory adhocTicketFactory, Path directory,
+			SyncPolicy syncPolicy, long syncIntervalMillis, int snapshotEvery) {
+		super(adhocTicketFactory);
+		if (syncPolicy == null || syncIntervalMillis <= 0 || snapshotEvery <= 0) {
+			throw new RuntimeException("JournalledAdhocTicketDAO : invalid journal settings");
+		}
+		this.syncPolicy = syncPolicy;
+		this.snapshotEvery = snapshotEvery;
+		eventsSinceSnapshot = new AtomicInteger();
+		snapshotPending = new AtomicBoolean();
+
+		try {
+			Files.createDirectories(directory);
+			snapshotFile = directory.resolve(SNAPSHOT_FILE);
+			replaying = true;
+			replayed = new HashMap<>();
+			if (Files.exists(snapshotFile)) {
+				try (AdhocTicketJournal snapshot = new AdhocTicketJournal(snapshotFile)) {
+					snapshot.replay(this::replay);
+				}
+			}
+			journal = new AdhocTicketJournal(directory.resolve(JOURNAL_FILE));
+			journal.replay(this::replay);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not recover the adhoc tickets from " + directory, e);
+		}
+		finally {
+			replaying = false;
+			replayed = null;
+		}
+
+		background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "adhoc-ticket-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (syncPolicy == SyncPolicy.PERIODIC) {
+			background.scheduleWithFixedDelay(this::syncInBackground,
+					syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+
+
+	@Override
+	public IAdhocTicket createTicket(String carparkId) {
+		IAdhocTicket ticket = super.createTicket(carparkId);
+		record(AdhocTicketJournal.CREATE, ticket.getTicketNo(), 0L, 0L, carparkId);
+		return ticket;
+	}
+
+
+
+	// An exit is journalled after the ticket is retired, so that a snapshot taken in
+	// between has either dropped the ticket or comes before the EXIT in the journal.
+	@Override
+	public void notifyTicketEvent(IAdhocTicket ticket) {
+		if (replaying) {
+			super.notifyTicketEvent(ticket);
+			return;
+		}
+		switch (ticket.getState()) {
+		case CURRENT:
+			record(AdhocTicketJournal.ENTER, ticket.getTicketNo(), ticket.getEntryDateTime(), 0L, null);
+			super.notifyTicketEvent(ticket);
+			break;
+		case PAID:
+			record(AdhocTicketJournal.PAY, ticket.getTicketNo(), ticket.getPaidDateTime(), ticket.getChargeCents(), null);
+			super.notifyTicketEvent(ticket);
+			break;
+		case EXITED:
+			super.notifyTicketEvent(ticket);
+			record(AdhocTicketJournal.EXIT, ticket.getTicketNo(), ticket.getExitDateTime(), 0L, null);
+			break;
+		default:
+			super.notifyTicketEvent(ticket);
+			break;
+		}
+	}
+
+
+
+	// Writes the tickets that have not exited to a new snapshot and empties the journal.
+	// Ticket events wait while the snapshot is written.
+	public void snapshot() {
+		try {
+			journal.compact(snapshotFile, this::writeSnapshot);
+			eventsSinceSnapshot.set(0);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not snapshot the adhoc tickets", e);
+		}
+	}
+
+
+
+	// Forces every journalled event to disk.
+	public void sync() {
+		try {
+			journal.syncAll();
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not sync the adhoc ticket journal", e);
+		}
+	}
+
+
+
+	@Override
+	public void close() throws IOException {
+		background.shutdown();
+		try {
+			background.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		journal.close();
+	}
+
+
+
+	private void record(byte type, int ticketNo, long dateTime, long chargeCents, String carparkId) {
+		IOException failure = backgroundFailure;
+		if (failure != null) {
+			throw new RuntimeException("The adhoc ticket journal failed", failure);
+		}
+		try {
+			long sequence = journal.append(type, ticketNo, dateTime, chargeCents, carparkId);
+			if (syncPolicy == SyncPolicy.EVERY_EVENT) {
+				journal.sync(sequence);
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write the adhoc ticket journal", e);
+		}
+
+		if (eventsSinceSnapshot.incrementAndGet() >= snapshotEvery && snapshotPending.compareAndSet(false, true)) {
+			background.execute(this::snapshotInBackground);
+		}
+	}
+
+
+
+	// Events racing with a snapshot can be both in the snapshot and at the start of the
+	// journal, so a replayed event is skipped only if it would move a ticket back.
+	private void replay(byte type, int ticketNo, long dateTime, long chargeCents, String carparkId) {
+		if (type == AdhocTicketJournal.TICKET_NO) {
+			restoreTicketNo(ticketNo);
+			return;
+		}
+		if (type == AdhocTicketJournal.CREATE) {
+			replayed.put(ticketNo, restoreTicket(carparkId, ticketNo));
+			return;
+		}
+
+		IAdhocTicket ticket = replayed.get(ticketNo);
+		if (ticket == null) {
+			return;
+		}
+		IAdhocTicket.STATE state = ticket.getState();
+		switch (type) {
+		case AdhocTicketJournal.ENTER:
+			if (state == IAdhocTicket.STATE.ISSUED || state == IAdhocTicket.STATE.CURRENT) {
+				ticket.enter(dateTime);
+			}
+			break;
+		case AdhocTicketJournal.PAY:
+			if (state != IAdhocTicket.STATE.EXITED) {
+				ticket.pay(dateTime, chargeCents);
+			}
+			break;
+		case AdhocTicketJournal.EXIT:
+			if (state != IAdhocTicket.STATE.EXITED) {
+				ticket.exit(dateTime);
+			}
+			break;
+		default:
+			throw new RuntimeException("JournalledAdhocTicketDAO : unknown journal event " + type);
+		}
+	}
+
+
+
+	private void writeSnapshot(AdhocTicketJournal snapshot) throws IOException {
+		snapshot.append(AdhocTicketJournal.TICKET_NO, getCurrentTicketNo(), 0L, 0L, null);
+		// Abandoned tickets have not exited, so they are kept too.
+		List<IAdhocTicket> tickets = new ArrayList<>(getCurrentTickets());
+		forEachAbandonedTicket(tickets::add);
+		for (IAdhocTicket ticket : tickets) {
+			// A ticket that is still being retired has exited already.
+			if (ticket.hasExited()) {
+				continue;
+			}
+			snapshot.append(AdhocTicketJournal.CREATE, ticket.getTicketNo(), 0L, 0L, ticket.getCarparkId());
+			if (ticket.getEntryDateTime() != 0L) {
+				snapshot.append(AdhocTicketJournal.ENTER, ticket.getTicketNo(), ticket.getEntryDateTime(), 0L, null);
+			}
+			if (ticket.isPaid()) {
+				snapshot.append(AdhocTicketJournal.PAY, ticket.getTicketNo(),
+						ticket.getPaidDateTime(), ticket.getChargeCents(), null);
+			}
+		}
+	}
+
+
+
+	private void syncInBackground() {
+		try {
+			journal.syncAll();
+		}
+		catch (IOException e) {
+			backgroundFailure = e;
+		}
+	}
+
+
+
+	private void snapshotInBackground() {
+		try {
+			journal.compact(snapshotFile, this::writeSnapshot);
+			eventsSinceSnapshot.set(0);
+		}
+		catch (IOException e) {
+			backgroundFailure = e;
+		}
+		finally {
+			snapshotPending.set(false);
+		}
+	}
+}
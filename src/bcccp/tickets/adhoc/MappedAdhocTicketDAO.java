@@ -0,0 +1,462 @@
+package bcccp.tickets.adhoc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import bcccp.tickets.Cents;
+
+// Adhoc tickets held off heap as fixed width records in a memory mapped file,
+// record n - 1 for ticket n. The tickets handed out are small views over their
+// records, so nothing about a ticket lives on the heap and the tickets are still
+// there after a restart without any recovery. Records are written to the mapped
+// pages as tickets change, so they survive the process stopping; sync forces them
+// to disk as well.
+//
+// The file is mapped in chunks of RECORDS_PER_CHUNK records, and each record is
+// read and written under the lock of its chunk. Barcodes are always those of
+// AdhocTicketFactory, as the barcode is the address of the record. State and entry
+// time queries scan the records, since there is no index to keep on the heap.
+public class MappedAdhocTicketDAO implements IAdhocTicketDAO, Closeable {
+
+	private static final int MAGIC = 0x42434350;
+
+	private static final int VERSION = 1;
+
+	// Header: magic, version, current ticket number, number of car park ids, then the
+	// car park ids as a length and UTF-8 bytes each.
+	private static final int HEADER_SIZE = 4096;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int TICKET_NO_OFFSET = 8;
+	private static final int CARPARK_COUNT_OFFSET = 12;
+	private static final int CARPARK_IDS_OFFSET = 16;
+
+	// Record: state (0 for an unused record), car park id index, ticket number and
+	// entry, paid and exit times and charge.
+	private static final int RECORD_SIZE = 40;
+	private static final int STATE_OFFSET = 0;
+	private static final int CARPARK_OFFSET = 2;
+	private static final int RECORD_TICKET_NO_OFFSET = 4;
+	private static final int ENTRY_OFFSET = 8;
+	private static final int PAID_OFFSET = 16;
+	private static final int EXIT_OFFSET = 24;
+	private static final int CHARGE_OFFSET = 32;
+
+	private static final int CHUNK_BITS = 16;
+	private static final int RECORDS_PER_CHUNK = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = RECORDS_PER_CHUNK - 1;
+	private static final long CHUNK_SIZE = (long) RECORDS_PER_CHUNK * RECORD_SIZE;
+
+	private static final IAdhocTicket.STATE[] STATES = IAdhocTicket.STATE.values();
+
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+	private AtomicInteger currentTicketNo;
+	private volatile String[] carparkIds;
+
+
+
+	public MappedAdhocTicketDAO(Path file) {
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			boolean created = channel.size() == 0;
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			if (created) {
+				header.putInt(MAGIC_OFFSET, MAGIC);
+				header.putInt(VERSION_OFFSET, VERSION);
+			}
+			else if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+				throw new RuntimeException("MappedAdhocTicketDAO : " + file + " is not an adhoc ticket table");
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not open the adhoc ticket table " + file, e);
+		}
+		currentTicketNo = new AtomicInteger(header.getInt(TICKET_NO_OFFSET));
+		carparkIds = readCarparkIds();
+	}
+
+
+
+	@Override
+	public IAdhocTicket createTicket(String carparkId) {
+		short carpark = carparkIndex(carparkId);
+		int ticketNo = currentTicketNo.incrementAndGet();
+		// The ticket number goes in the header first, so that it is never issued twice.
+		synchronized (header) {
+			if (header.getInt(TICKET_NO_OFFSET) < ticketNo) {
+				header.putInt(TICKET_NO_OFFSET, ticketNo);
+			}
+		}
+		MappedByteBuffer chunk = chunkFor(ticketNo);
+		int offset = offsetOf(ticketNo);
+		synchronized (chunk) {
+			chunk.putShort(offset + CARPARK_OFFSET, carpark);
+			chunk.putInt(offset + RECORD_TICKET_NO_OFFSET, ticketNo);
+			chunk.putLong(offset + ENTRY_OFFSET, 0L);
+			chunk.putLong(offset + PAID_OFFSET, 0L);
+			chunk.putLong(offset + EXIT_OFFSET, 0L);
+			chunk.putLong(offset + CHARGE_OFFSET, 0L);
+			chunk.put(offset + STATE_OFFSET, encode(IAdhocTicket.STATE.ISSUED));
+		}
+		return new MappedTicket(chunk, offset, ticketNo);
+	}
+
+
+
+	@Override
+	public IAdhocTicket findTicketByBarcode(String barcode) {
+		int ticketNo = AdhocTicketFactory.parseTicketNo(barcode);
+		if (ticketNo <= 0 || ticketNo > currentTicketNo.get()) {
+			return null;
+		}
+		return ticket(ticketNo);
+	}
+
+
+
+	@Override
+	public List<IAdhocTicket> getCurrentTickets() {
+		List<IAdhocTicket> current = new ArrayList<IAdhocTicket>();
+		forEachCurrentTicket(current::add);
+		return Collections.unmodifiableList(current);
+	}
+
+
+
+	@Override
+	public void forEachCurrentTicket(Consumer<? super IAdhocTicket> action) {
+		int last = currentTicketNo.get();
+		for (int ticketNo = 1; ticketNo <= last; ticketNo++) {
+			IAdhocTicket ticket = ticket(ticketNo);
+			if (ticket != null && !ticket.hasExited()) {
+				action.accept(ticket);
+			}
+		}
+	}
+
+
+
+	@Override
+	public Stream<IAdhocTicket> streamCurrentTickets() {
+		return IntStream.rangeClosed(1, currentTicketNo.get())
+				.mapToObj(this::ticket)
+				.filter(ticket -> ticket != null && !ticket.hasExited());
+	}
+
+
+
+	@Override
+	public Collection<IAdhocTicket> getTicketsInState(IAdhocTicket.STATE state) {
+		List<IAdhocTicket> tickets = new ArrayList<IAdhocTicket>();
+		if (state != IAdhocTicket.STATE.EXITED) {
+			forEachCurrentTicket(ticket -> {
+				if (ticket.getState() == state) {
+					tickets.add(ticket);
+				}
+			});
+		}
+		return Collections.unmodifiableList(tickets);
+	}
+
+
+
+	@Override
+	public Collection<IAdhocTicket> getTicketsEnteredBetween(long fromDateTime, long toDateTime) {
+		List<IAdhocTicket> tickets = new ArrayList<IAdhocTicket>();
+		forEachCurrentTicket(ticket -> {
+			long entryDateTime = ticket.getEntryDateTime();
+			if (ticket.getState() != IAdhocTicket.STATE.ISSUED
+					&& entryDateTime >= fromDateTime && entryDateTime < toDateTime) {
+				tickets.add(ticket);
+			}
+		});
+		tickets.sort(Comparator.comparingLong(IAdhocTicket::getEntryDateTime)
+				.thenComparingInt(IAdhocTicket::getTicketNo));
+		return Collections.unmodifiableList(tickets);
+	}
+
+
+
+	// Forces every record to disk.
+	public void sync() {
+		header.force();
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+
+
+	@Override
+	public void close() throws IOException {
+		sync();
+		channel.close();
+	}
+
+
+
+	private IAdhocTicket ticket(int ticketNo) {
+		MappedByteBuffer[] current = chunks;
+		int index = (ticketNo - 1) >>> CHUNK_BITS;
+		if (index >= current.length) {
+			current = mapChunks(index);
+		}
+		MappedByteBuffer chunk = current[index];
+		int offset = offsetOf(ticketNo);
+		synchronized (chunk) {
+			if (chunk.get(offset + STATE_OFFSET) == 0) {
+				return null;
+			}
+		}
+		return new MappedTicket(chunk, offset, ticketNo);
+	}
+
+
+
+	private MappedByteBuffer chunkFor(int ticketNo) {
+		int index = (ticketNo - 1) >>> CHUNK_BITS;
+		MappedByteBuffer[] current = chunks;
+		if (index < current.length) {
+			return current[index];
+		}
+		return mapChunks(index)[index];
+	}
+
+
+
+	// Maps every chunk up to and including the index, growing the file.
+	private synchronized MappedByteBuffer[] mapChunks(int index) {
+		MappedByteBuffer[] current = chunks;
+		if (index < current.length) {
+			return current;
+		}
+		MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+		try {
+			for (int i = current.length; i <= index; i++) {
+				grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * CHUNK_SIZE, CHUNK_SIZE);
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not grow the adhoc ticket table", e);
+		}
+		chunks = grown;
+		return grown;
+	}
+
+
+
+	private static int offsetOf(int ticketNo) {
+		return ((ticketNo - 1) & CHUNK_MASK) * RECORD_SIZE;
+	}
+
+
+
+	private static byte encode(IAdhocTicket.STATE state) {
+		return (byte) (state.ordinal() + 1);
+	}
+
+
+
+	private short carparkIndex(String carparkId) {
+		String[] ids = carparkIds;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i].equals(carparkId)) {
+				return (short) i;
+			}
+		}
+
+		synchronized (header) {
+			ids = carparkIds;
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i].equals(carparkId)) {
+					return (short) i;
+				}
+			}
+			byte[] bytes = carparkId.getBytes(StandardCharsets.UTF_8);
+			int position = CARPARK_IDS_OFFSET;
+			for (String id : ids) {
+				position += 2 + id.getBytes(StandardCharsets.UTF_8).length;
+			}
+			if (position + 2 + bytes.length > HEADER_SIZE || ids.length == Short.MAX_VALUE) {
+				throw new RuntimeException("MappedAdhocTicketDAO : no room for car park id " + carparkId);
+			}
+			header.putShort(position, (short) bytes.length);
+			ByteBuffer target = header.duplicate();
+			target.position(position + 2);
+			target.put(bytes);
+			header.putInt(CARPARK_COUNT_OFFSET, ids.length + 1);
+
+			String[] grown = Arrays.copyOf(ids, ids.length + 1);
+			grown[ids.length] = carparkId;
+			carparkIds = grown;
+			return (short) ids.length;
+		}
+	}
+
+
+
+	private String[] readCarparkIds() {
+		int count = header.getInt(CARPARK_COUNT_OFFSET);
+		String[] ids = new String[count];
+		int position = CARPARK_IDS_OFFSET;
+		for (int i = 0; i < count; i++) {
+			int length = header.getShort(position) & 0xffff;
+			byte[] bytes = new byte[length];
+			ByteBuffer source = header.duplicate();
+			source.position(position + 2);
+			source.get(bytes);
+			ids[i] = new String(bytes, StandardCharsets.UTF_8);
+			position += 2 + length;
+		}
+		return ids;
+	}
+
+
+
+	// A view of one record. Views hold no ticket state, so any number of them can
+	// be made for the same ticket and they are equal to each other.
+	private class MappedTicket implements IAdhocTicket {
+		private final MappedByteBuffer chunk;
+		private final int offset;
+		private final int ticketNo;
+
+		MappedTicket(MappedByteBuffer chunk, int offset, int ticketNo) {
+			this.chunk = chunk;
+			this.offset = offset;
+			this.ticketNo = ticketNo;
+		}
+
+		@Override
+		public int getTicketNo() {
+			return ticketNo;
+		}
+
+		@Override
+		public String getBarcode() {
+			return AdhocTicketFactory.toBarcode(ticketNo);
+		}
+
+		@Override
+		public String getCarparkId() {
+			synchronized (chunk) {
+				return carparkIds[chunk.getShort(offset + CARPARK_OFFSET)];
+			}
+		}
+
+		@Override
+		public void enter(long dateTime) {
+			synchronized (chunk) {
+				chunk.putLong(offset + ENTRY_OFFSET, dateTime);
+				chunk.put(offset + STATE_OFFSET, encode(STATE.CURRENT));
+			}
+		}
+
+		@Override
+		public long getEntryDateTime() {
+			return getLong(ENTRY_OFFSET);
+		}
+
+		@Override
+		public boolean isCurrent() {
+			return getState() == STATE.CURRENT;
+		}
+
+		@Override
+		public void pay(long dateTime, long chargeCents) {
+			synchronized (chunk) {
+				chunk.putLong(offset + PAID_OFFSET, dateTime);
+				chunk.putLong(offset + CHARGE_OFFSET, chargeCents);
+				chunk.put(offset + STATE_OFFSET, encode(STATE.PAID));
+			}
+		}
+
+		@Override
+		public long getPaidDateTime() {
+			return getLong(PAID_OFFSET);
+		}
+
+		@Override
+		public boolean isPaid() {
+			return getState() == STATE.PAID;
+		}
+
+		@Override
+		public long getChargeCents() {
+			return getLong(CHARGE_OFFSET);
+		}
+
+		@Override
+		public void exit(long dateTime) {
+			synchronized (chunk) {
+				chunk.putLong(offset + EXIT_OFFSET, dateTime);
+				chunk.put(offset + STATE_OFFSET, encode(STATE.EXITED));
+			}
+		}
+
+		@Override
+		public long getExitDateTime() {
+			return getLong(EXIT_OFFSET);
+		}
+
+		@Override
+		public boolean hasExited() {
+			return getState() == STATE.EXITED;
+		}
+
+		@Override
+		public STATE getState() {
+			synchronized (chunk) {
+				return STATES[chunk.get(offset + STATE_OFFSET) - 1];
+			}
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof MappedTicket && ((MappedTicket) other).chunk == chunk
+					&& ((MappedTicket) other).ticketNo == ticketNo;
+		}
+
+		@Override
+		public int hashCode() {
+			return ticketNo;
+		}
+
+		@Override
+		public String toString() {
+			return "Carpark    : " + getCarparkId() + "\n" +
+			       "Ticket No  : " + ticketNo + "\n" +
+			       "Entry Time : " + new Date(getEntryDateTime()) + "\n" +
+			       "Paid Time  : " + new Date(getPaidDateTime()) + "\n" +
+			       "Exit Time  : " + new Date(getExitDateTime()) + "\n" +
+			       "Charge     : " + Cents.format(getChargeCents()) + "\n" +
+			       "State      : " + getState() + "\n" +
+			       "Barcode    : " + getBarcode();
+		}
+
+		private long getLong(int field) {
+			synchronized (chunk) {
+				return chunk.getLong(offset + field);
+			}
+		}
+	}
+}
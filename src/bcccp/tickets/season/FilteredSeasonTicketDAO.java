@@ -0,0 +1,141 @@
+package bcccp.tickets.season;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import bcccp.tickets.BarcodeFilter;
+
+// Puts a BarcodeFilter in front of another season ticket DAO, so that unknown ticket
+// ids are turned away without a lookup. Every ticket is added to the filter as it is
+// registered, so tickets must be registered through this DAO.
+//
+// Ids cannot be taken out of a filter, so removed tickets are counted, and once there
+// are as many of them as there are registered tickets the filter is rebuilt from the
+// registered tickets. Lookups use the old filter until the new one is complete.
+public class FilteredSeasonTicketDAO implements ISeasonTicketDAO {
+
+	private ISeasonTicketDAO delegate;
+	private volatile BarcodeFilter filter;
+	
+	// Tickets removed since the filter was built; they may still pass it.
+	private int removed;
+
+	
+	
+	public FilteredSeasonTicketDAO(ISeasonTicketDAO delegate, BarcodeFilter filter) {
+		this.delegate = delegate;
+		this.filter = filter;
+		delegate.forEachTicket(ticket -> filter.add(ticket.getId()));
+	}
+	
+	
+	
+	// Registering and rebuilding are locked against each other, so a ticket registered
+	// during a rebuild is in the new filter.
+	@Override
+	public synchronized void registerTicket(ISeasonTicket ticket) {
+		filter.add(ticket.getId());
+		delegate.registerTicket(ticket);
+	}
+	
+	
+	
+	@Override
+	public void deregisterTicket(ISeasonTicket ticket) {
+		delegate.deregisterTicket(ticket);
+		ticketsRemoved(1);
+	}
+	
+	
+	
+	@Override
+	public void forEachTicket(Consumer<? super ISeasonTicket> action) {
+		delegate.forEachTicket(action);
+	}
+	
+	
+	
+	@Override
+	public int getNumberOfTickets() {
+		return delegate.getNumberOfTickets();
+	}
+	
+	
+	
+	@Override
+	public ISeasonTicket findTicketById(String ticketId) {
+		if (!filter.mightContain(ticketId)) {
+			return null;
+		}
+		ISeasonTicket ticket = delegate.findTicketById(ticketId);
+		if (ticket == null) {
+			filter.recordFalsePositive();
+		}
+		return ticket;
+	}
+	
+	
+	
+	@Override
+	public void recordTicketEntry(String ticketId) {
+		delegate.recordTicketEntry(ticketId);
+	}
+	
+	
+	
+	@Override
+	public void recordTicketExit(String ticketId) {
+		delegate.recordTicketExit(ticketId);
+	}
+	
+	
+	
+	@Override
+	public int removeExpiredTickets(long dateTime) {
+		int expired = delegate.removeExpiredTickets(dateTime);
+		ticketsRemoved(expired);
+		return expired;
+	}
+	
+	
+	
+	// Sweeps out expired tickets every periodMillis on the executor. Sweeping through
+	// this DAO rather than the delegate lets the removals count towards a rebuild.
+	public ScheduledFuture<?> scheduleExpirySweep(ScheduledExecutorService executor, long periodMillis) {
+		return executor.scheduleAtFixedRate(() -> removeExpiredTickets(System.currentTimeMillis()), 
+				periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	
+	// Replaces the filter with one holding only the registered tickets.
+	public synchronized void rebuildFilter() {
+		BarcodeFilter current = filter;
+		BarcodeFilter rebuilt = new BarcodeFilter(
+				Math.max(current.getExpectedBarcodes(), delegate.getNumberOfTickets()),
+				current.getFalsePositiveRate());
+		delegate.forEachTicket(ticket -> rebuilt.add(ticket.getId()));
+		filter = rebuilt;
+		removed = 0;
+	}
+	
+	
+	
+	public BarcodeFilter getFilter() {
+		return filter;
+	}
+	
+	
+	
+	private synchronized void ticketsRemoved(int count) {
+		if (count == 0) {
+			return;
+		}
+		removed += count;
+		if (removed >= delegate.getNumberOfTickets()) {
+			rebuildFilter();
+		}
+	}
+}
@@ -1,12 +1,20 @@
 package bcccp.tickets.season;
 
+import java.util.function.Consumer;
+
 public interface ISeasonTicketDAO {
 	
 	public void registerTicket(ISeasonTicket ticket);
 	public void deregisterTicket(ISeasonTicket ticket);
 	public int getNumberOfTickets();
 	
+	// Visits the registered tickets; safe while tickets are registered and removed.
+	public void forEachTicket(Consumer<? super ISeasonTicket> action);
+	
 	public ISeasonTicket findTicketById(String ticketId);
 	public void recordTicketEntry(String ticketId );
 	public void recordTicketExit(String ticketId);
+	
+	// Removes tickets whose valid period ended before the date time, unless they are in use.
+	public int removeExpiredTickets(long dateTime);
 }
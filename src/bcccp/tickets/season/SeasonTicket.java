@@ -1,13 +1,18 @@
 package bcccp.tickets.season;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+// Usages are kept in a UsageStore rather than on the ticket, so recording one is an
+// append whatever the ticket's history. A ticket made without a store takes the store
+// of the SeasonTicketDAO it is registered with, and gives its usages back to that
+// store when the DAO drops it.
 public class SeasonTicket implements ISeasonTicket {
 	
-	private List<IUsageRecord> usages;
+	private UsageStore usageStore;
+	private int usageKey = -1;
 	private IUsageRecord currentUsage = null;
+	private int currentUsageRow;
 	
 	private String ticketId;
 	private String carparkId;
@@ -21,8 +26,41 @@ public class SeasonTicket implements ISeasonTicket {
 		this.carparkId =carparkId;
 		this.startValidPeriod = startValidPeriod;
 		this.endValidPeriod = endValidPeriod;
+	}
+	
+	
+	
+	public SeasonTicket (String ticketId, String carparkId, 
+			             long startValidPeriod,
+			             long endValidPeriod, 
+			             UsageStore usageStore) {
+		this.ticketId = ticketId;
+		this.carparkId =carparkId;
+		this.startValidPeriod = startValidPeriod;
+		this.endValidPeriod = endValidPeriod;
 		
-		usages = new ArrayList<IUsageRecord>();
+		attach(usageStore);
+	}
+	
+	
+	
+	// Keeps the ticket's usages in the store, unless it already has one.
+	void attach(UsageStore store) {
+		if (usageStore == null) {
+			usageStore = store;
+			usageKey = store.register(ticketId);
+		}
+	}
+	
+	
+	
+	// Gives the ticket's usages back to its store. Its history is forgotten.
+	void release() {
+		if (usageStore != null) {
+			usageStore.release(usageKey);
+			usageStore = null;
+			usageKey = -1;
+		}
 	}
 
 
@@ -58,11 +96,14 @@ public class SeasonTicket implements ISeasonTicket {
 
 	@Override
 	public void recordUsage(IUsageRecord record) {
-		currentUsage = record;
-		if (!usages.contains(record) ) {
-			usages.add(record);
+		if (record != currentUsage) {
+			// A ticket used before it is registered keeps its usages to itself.
+			if (usageStore == null) {
+				attach(new UsageStore(1));
+			}
+			currentUsageRow = usageStore.append(usageKey, record.getStartTime(), record.getEndTime());
 		}
-		
+		currentUsage = record;
 	}
 
 
@@ -74,7 +115,10 @@ public class SeasonTicket implements ISeasonTicket {
 
 	@Override
 	public List<IUsageRecord> getUsageRecords() {
-		return Collections.unmodifiableList(usages);
+		if (usageStore == null) {
+			return Collections.emptyList();
+		}
+		return usageStore.getUsageRecords(usageKey);
 	}
 
 
@@ -83,6 +127,9 @@ public class SeasonTicket implements ISeasonTicket {
 		if (currentUsage == null) throw new RuntimeException("SeasonTicket.endUsage : ticket is not in use");
 		
 		currentUsage.finalise(dateTime);
+		if (usageStore != null) {
+			usageStore.setEndTime(currentUsageRow, dateTime);
+		}
 		currentUsage = null;
 		
 	}
@@ -93,7 +140,7 @@ public class SeasonTicket implements ISeasonTicket {
 		StringBuilder builder = new StringBuilder();
 		builder.append("Carpark    : " + carparkId + "\n" +
 		       "Ticket No  : " + ticketId + "\n" );
-		for (IUsageRecord usage : usages) {
+		for (IUsageRecord usage : getUsageRecords()) {
 			builder.append(usage.toString() + "\n");
 		}
 		return builder.toString();
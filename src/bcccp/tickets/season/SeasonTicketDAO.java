@@ -1,29 +1,95 @@
 package bcccp.tickets.season;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import bcccp.tickets.season.ISeasonTicket;
 import bcccp.tickets.season.IUsageRecordFactory;
 
+// Safe to share between lanes. Every operation is a single access to a concurrent
+// map, and entry and exit change the ticket inside that access, so two lanes cannot
+// both admit the same ticket or both let it out.
+//
+// Tickets are also ordered by the end of their valid period, so the expiry sweep
+// only visits the tickets that have lapsed.
+//
+// Usages are kept in the DAO's own UsageStore. A ticket that leaves the DAO gives
+// its usages back to the store.
 public class SeasonTicketDAO implements ISeasonTicketDAO {
 
-	private Map<String, ISeasonTicket> currentTickets;
+	private ConcurrentMap<String, ISeasonTicket> currentTickets;
+	private ConcurrentSkipListMap<Expiry, ISeasonTicket> ticketsByExpiry;
 	private IUsageRecordFactory factory;
+	private UsageStore usageStore;
 
 	
 	
+	// Orders tickets by the end of their valid period, then by id.
+	private static class Expiry implements Comparable<Expiry> {
+		private final long endValidPeriod;
+		private final String ticketId;
+		
+		Expiry(long endValidPeriod, String ticketId) {
+			this.endValidPeriod = endValidPeriod;
+			this.ticketId = ticketId;
+		}
+		
+		Expiry(ISeasonTicket ticket) {
+			this(ticket.getEndValidPeriod(), ticket.getId());
+		}
+		
+		@Override
+		public int compareTo(Expiry other) {
+			int compare = Long.compare(endValidPeriod, other.endValidPeriod);
+			return compare != 0 ? compare : ticketId.compareTo(other.ticketId);
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Expiry && compareTo((Expiry) other) == 0;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Long.hashCode(endValidPeriod) * 31 + ticketId.hashCode();
+		}
+	}
+	
+	
+	
 	public SeasonTicketDAO(IUsageRecordFactory factory) {
+		this(factory, 16);
+	}
+	
+	
+	
+	// Sized up front for the number of tickets expected, such as before a bulk import.
+	public SeasonTicketDAO(IUsageRecordFactory factory, int expectedTickets) {
 		this.factory = factory;
-		currentTickets = new HashMap<>();		
+		currentTickets = new ConcurrentHashMap<>(expectedTickets);		
+		ticketsByExpiry = new ConcurrentSkipListMap<>();
+		usageStore = new UsageStore(expectedTickets);
 	}
 	
 	
 	
 	@Override
 	public void registerTicket(ISeasonTicket ticket) {
-		if (!currentTickets.containsKey(ticket.getId())) {
-			currentTickets.put(ticket.getId(),ticket);
+		// The ticket takes a key in the store only if it is the one registered.
+		ISeasonTicket registered = currentTickets.computeIfAbsent(ticket.getId(), id -> {
+			if (ticket instanceof SeasonTicket) {
+				((SeasonTicket) ticket).attach(usageStore);
+			}
+			return ticket;
+		});
+		if (registered == ticket) {
+			ticketsByExpiry.put(new Expiry(ticket), ticket);
 		}
 	}
 	
@@ -31,8 +97,10 @@ public class SeasonTicketDAO implements ISeasonTicketDAO {
 	
 	@Override
 	public void deregisterTicket(ISeasonTicket ticket) {
-		if (currentTickets.containsKey(ticket.getId())) {
-			currentTickets.remove(ticket.getId());
+		ISeasonTicket removed = currentTickets.remove(ticket.getId());
+		if (removed != null) {
+			ticketsByExpiry.remove(new Expiry(removed));
+			release(removed);
 		}
 	}
 		
@@ -42,38 +110,94 @@ public class SeasonTicketDAO implements ISeasonTicketDAO {
 		return currentTickets.size();
 	}
 
+	@Override
+	public void forEachTicket(Consumer<? super ISeasonTicket> action) {
+		currentTickets.values().forEach(action);
+	}
+
 	@Override
 	public ISeasonTicket findTicketById(String barcode) {
-		if (currentTickets.containsKey(barcode)) {
-			return currentTickets.get(barcode);
+		if (barcode == null) {
+			return null;
 		}
-		return null;
+		return currentTickets.get(barcode);
 	}
 
 
 
 	@Override
 	public void recordTicketEntry(String ticketId) {
-		ISeasonTicket ticket = findTicketById(ticketId);
+		ISeasonTicket ticket = ticketId == null ? null : currentTickets.computeIfPresent(ticketId, (id, current) -> {
+			if (current.inUse()) throw new RuntimeException("recordTicketUsage : ticket already in use: " + id);
+			
+			long datetime = System.currentTimeMillis();
+			current.recordUsage(factory.make(id, datetime));
+			return current;
+		});
 		if (ticket == null) throw new RuntimeException("recordTicketUsage : no such ticket: " + ticketId);
-		
-		long datetime = System.currentTimeMillis();
-		IUsageRecord usage = factory.make(ticketId, datetime);
-		ticket.recordUsage(usage);		
 	}
 
 
 
 	@Override
 	public void recordTicketExit(String ticketId) {
-		ISeasonTicket ticket = findTicketById(ticketId);
+		ISeasonTicket ticket = ticketId == null ? null : currentTickets.computeIfPresent(ticketId, (id, current) -> {
+			long dateTime = System.currentTimeMillis();
+			current.endUsage(dateTime);
+			return current;
+		});
 		if (ticket == null) throw new RuntimeException("finaliseTicketUsage : no such ticket: " + ticketId);
+	}
 
-		long dateTime = System.currentTimeMillis();
-		ticket.endUsage(dateTime);
-		
-		
-		
+
+
+	@Override
+	public int removeExpiredTickets(long dateTime) {
+		int removed = 0;
+		boolean[] expired = new boolean[1];
+		for (Map.Entry<Expiry, ISeasonTicket> entry : ticketsByExpiry.headMap(new Expiry(dateTime, "")).entrySet()) {
+			ISeasonTicket ticket = entry.getValue();
+			// Checked inside the same access as entry, so a ticket cannot be admitted as it is removed.
+			expired[0] = false;
+			currentTickets.computeIfPresent(ticket.getId(), (id, current) -> {
+				if (current != ticket || current.inUse()) {
+					return current;
+				}
+				expired[0] = true;
+				return null;
+			});
+			if (expired[0]) {
+				ticketsByExpiry.remove(entry.getKey(), ticket);
+				release(ticket);
+				removed++;
+			}
+			else if (currentTickets.get(ticket.getId()) != ticket) {
+				ticketsByExpiry.remove(entry.getKey(), ticket);
+			}
+		}
+		return removed;
+	}
+
+
+
+	public UsageStore getUsageStore() {
+		return usageStore;
+	}
+
+
+
+	// Sweeps out expired tickets every periodMillis on the executor.
+	public ScheduledFuture<?> scheduleExpirySweep(ScheduledExecutorService executor, long periodMillis) {
+		return executor.scheduleAtFixedRate(() -> removeExpiredTickets(System.currentTimeMillis()), 
+				periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+
+
+	private void release(ISeasonTicket ticket) {
+		if (ticket instanceof SeasonTicket) {
+			((SeasonTicket) ticket).release();
+		}
 	}
 }
 
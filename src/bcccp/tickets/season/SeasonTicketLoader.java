@@ -0,0 +1,175 @@
+package bcccp.tickets.season;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Loads season tickets in bulk from lines of
+//
+//     id,carparkId,startValidPeriod,endValidPeriod
+//
+// with the valid period in epoch millis. Blank lines and lines starting with # are skipped.
+// The input is read in large blocks and each line is parsed straight from the bytes,
+// so a row makes its ticket and id and nothing else. Carpark ids are usually all the
+// same, so the last one is kept and reused.
+public class SeasonTicketLoader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int FIELDS = 4;
+
+	private ISeasonTicketDAO dao;
+
+	private UsageStore usageStore;
+
+	private byte[] line = new byte[256];
+
+	private int[] fieldEnds = new int[FIELDS];
+
+	private byte[] carparkIdBytes = new byte[0];
+
+	private String carparkId;
+
+
+
+	private SeasonTicketLoader(ISeasonTicketDAO dao, UsageStore usageStore) {
+		this.dao = dao;
+		this.usageStore = usageStore;
+	}
+
+
+
+	// Returns the number of tickets loaded. The tickets keep their usages in the DAO's store.
+	public static int load(String fileName, ISeasonTicketDAO dao) {
+		try (InputStream in = new FileInputStream(fileName)) {
+			return load(in, dao, null);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not read the season ticket file " + fileName, e);
+		}
+	}
+
+
+
+	// With no store the tickets keep their usages in the DAO's store.
+	public static int load(InputStream in, ISeasonTicketDAO dao, UsageStore usageStore) throws IOException {
+		return new SeasonTicketLoader(dao, usageStore).read(in);
+	}
+
+
+
+	private int read(InputStream in) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length = 0;
+		int lineNo = 0;
+		int loaded = 0;
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			for (int i = 0; i < count; i++) {
+				byte b = buffer[i];
+				if (b == '\n') {
+					lineNo++;
+					loaded += parseLine(length, lineNo);
+					length = 0;
+				}
+				else {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = b;
+				}
+			}
+		}
+		if (length > 0) {
+			loaded += parseLine(length, lineNo + 1);
+		}
+		return loaded;
+	}
+
+
+
+	// Registers the ticket on the line, and returns 1, or 0 if the line is skipped.
+	private int parseLine(int length, int lineNo) {
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		if (length == 0 || line[0] == '#') {
+			return 0;
+		}
+
+		int fields = 0;
+		for (int i = 0; i < length; i++) {
+			if (line[i] == ',') {
+				if (fields == FIELDS - 1) {
+					throw invalid(length, lineNo);
+				}
+				fieldEnds[fields++] = i;
+			}
+		}
+		if (fields != FIELDS - 1 || fieldEnds[0] == 0 || fieldEnds[1] == fieldEnds[0] + 1) {
+			throw invalid(length, lineNo);
+		}
+		fieldEnds[fields] = length;
+
+		long startValidPeriod = parseLong(fieldEnds[1] + 1, fieldEnds[2]);
+		long endValidPeriod = parseLong(fieldEnds[2] + 1, fieldEnds[3]);
+		if (startValidPeriod < 0 || endValidPeriod < startValidPeriod) {
+			throw invalid(length, lineNo);
+		}
+		String id = new String(line, 0, fieldEnds[0], StandardCharsets.UTF_8);
+		String carpark = carparkId(fieldEnds[0] + 1, fieldEnds[1]);
+		dao.registerTicket(usageStore == null
+				? new SeasonTicket(id, carpark, startValidPeriod, endValidPeriod)
+				: new SeasonTicket(id, carpark, startValidPeriod, endValidPeriod, usageStore));
+		return 1;
+	}
+
+
+
+	private String carparkId(int from, int to) {
+		int length = to - from;
+		if (carparkId == null || length != carparkIdBytes.length || !regionMatches(from, carparkIdBytes)) {
+			carparkIdBytes = Arrays.copyOfRange(line, from, to);
+			carparkId = new String(carparkIdBytes, StandardCharsets.UTF_8);
+		}
+		return carparkId;
+	}
+
+
+
+	private boolean regionMatches(int from, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			if (line[from + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+
+	// A non negative decimal, or -1 if the field is not one.
+	private long parseLong(int from, int to) {
+		if (from == to || to - from > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+
+
+	private RuntimeException invalid(int length, int lineNo) {
+		return new RuntimeException("Invalid season ticket on line " + lineNo + ": "
+				+ new String(line, 0, length, StandardCharsets.UTF_8));
+	}
+}
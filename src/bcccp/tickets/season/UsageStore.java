@@ -0,0 +1,238 @@
+package bcccp.tickets.season;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+// Season ticket usages for many tickets, held as primitive columns.
+// Each ticket registers for an int key, and recording a usage appends a row and adds
+// the row number to the ticket's slice, so neither depends on how many usages the
+// ticket already has. Usage records read from the store are small views of a row.
+//
+// Each SeasonTicketDAO has its own store. A ticket's key and rows are released when
+// it leaves the DAO and are reused by later tickets, so views of a released ticket's
+// usages must not be kept.
+public class UsageStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int INITIAL_SLICE_CAPACITY = 8;
+
+	private int rows;
+	private long[] startTimes;
+	private long[] endTimes;
+	private int[] ticketKeys;
+
+	// A ticket's slice is only made when its first usage is recorded.
+	private int keys;
+	private String[] ticketIds;
+	private int[][] slices;
+	private int[] sliceSizes;
+
+	// Released keys and rows, reused before the columns grow.
+	private int[] freeKeys = new int[INITIAL_SLICE_CAPACITY];
+	private int freeKeyCount;
+	private int[] freeRows = new int[INITIAL_SLICE_CAPACITY];
+	private int freeRowCount;
+
+
+
+	public UsageStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+
+
+	// Sized up front for the number of tickets expected, such as before a bulk import.
+	public UsageStore(int expectedTickets) {
+		int capacity = Math.max(expectedTickets, 1);
+		startTimes = new long[INITIAL_CAPACITY];
+		endTimes = new long[INITIAL_CAPACITY];
+		ticketKeys = new int[INITIAL_CAPACITY];
+		ticketIds = new String[capacity];
+		slices = new int[capacity][];
+		sliceSizes = new int[capacity];
+	}
+
+
+
+	// A new key for a ticket. Each ticket has its own key, even if ids are reused.
+	public synchronized int register(String ticketId) {
+		if (freeKeyCount > 0) {
+			int key = freeKeys[--freeKeyCount];
+			ticketIds[key] = ticketId;
+			return key;
+		}
+		if (keys == ticketIds.length) {
+			ticketIds = Arrays.copyOf(ticketIds, keys * 2);
+			slices = Arrays.copyOf(slices, keys * 2);
+			sliceSizes = Arrays.copyOf(sliceSizes, keys * 2);
+		}
+		ticketIds[keys] = ticketId;
+		return keys++;
+	}
+
+
+
+	// Appends a usage for the ticket and returns its row.
+	public synchronized int append(int ticketKey, long startTime, long endTime) {
+		int row;
+		if (freeRowCount > 0) {
+			row = freeRows[--freeRowCount];
+		}
+		else {
+			if (rows == startTimes.length) {
+				startTimes = Arrays.copyOf(startTimes, rows * 2);
+				endTimes = Arrays.copyOf(endTimes, rows * 2);
+				ticketKeys = Arrays.copyOf(ticketKeys, rows * 2);
+			}
+			row = rows++;
+		}
+		startTimes[row] = startTime;
+		endTimes[row] = endTime;
+		ticketKeys[row] = ticketKey;
+
+		int[] slice = slices[ticketKey];
+		int size = sliceSizes[ticketKey];
+		if (slice == null) {
+			slice = new int[INITIAL_SLICE_CAPACITY];
+			slices[ticketKey] = slice;
+		}
+		else if (size == slice.length) {
+			slice = Arrays.copyOf(slice, size * 2);
+			slices[ticketKey] = slice;
+		}
+		slice[size] = row;
+		sliceSizes[ticketKey] = size + 1;
+		return row;
+	}
+
+
+
+	// Frees the ticket's key and usages for reuse. The key must not be used again.
+	public synchronized void release(int ticketKey) {
+		int size = sliceSizes[ticketKey];
+		if (freeRowCount + size > freeRows.length) {
+			freeRows = Arrays.copyOf(freeRows, Math.max(freeRows.length * 2, freeRowCount + size));
+		}
+		int[] slice = slices[ticketKey];
+		for (int i = 0; i < size; i++) {
+			freeRows[freeRowCount++] = slice[i];
+		}
+		slices[ticketKey] = null;
+		sliceSizes[ticketKey] = 0;
+		ticketIds[ticketKey] = null;
+
+		if (freeKeyCount == freeKeys.length) {
+			freeKeys = Arrays.copyOf(freeKeys, freeKeyCount * 2);
+		}
+		freeKeys[freeKeyCount++] = ticketKey;
+	}
+
+
+
+	// Rows holding a usage of a ticket that has not been released.
+	public synchronized int getNumberOfRows() {
+		return rows - freeRowCount;
+	}
+
+
+
+	public synchronized void setEndTime(int row, long endTime) {
+		endTimes[row] = endTime;
+	}
+
+
+
+	public synchronized int getNumberOfUsages(int ticketKey) {
+		return sliceSizes[ticketKey];
+	}
+
+
+
+	// A read only view of the ticket's usages, in the order they were recorded.
+	public List<IUsageRecord> getUsageRecords(int ticketKey) {
+		return new AbstractList<IUsageRecord>() {
+			@Override
+			public IUsageRecord get(int index) {
+				synchronized (UsageStore.this) {
+					if (index < 0 || index >= sliceSizes[ticketKey]) {
+						throw new IndexOutOfBoundsException("Usage " + index + " of " + sliceSizes[ticketKey]);
+					}
+					return new Usage(slices[ticketKey][index]);
+				}
+			}
+
+			@Override
+			public int size() {
+				return getNumberOfUsages(ticketKey);
+			}
+		};
+	}
+
+
+
+	private synchronized long getStartTime(int row) {
+		return startTimes[row];
+	}
+
+
+
+	private synchronized long getEndTime(int row) {
+		return endTimes[row];
+	}
+
+
+
+	private synchronized String getTicketId(int row) {
+		return ticketIds[ticketKeys[row]];
+	}
+
+
+
+	private class Usage implements IUsageRecord {
+		private final int row;
+
+		Usage(int row) {
+			this.row = row;
+		}
+
+		@Override
+		public void finalise(long endDateTime) {
+			setEndTime(row, endDateTime);
+		}
+
+		@Override
+		public long getStartTime() {
+			return UsageStore.this.getStartTime(row);
+		}
+
+		@Override
+		public long getEndTime() {
+			return UsageStore.this.getEndTime(row);
+		}
+
+		@Override
+		public String getSeasonTicketId() {
+			return getTicketId(row);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Usage && ((Usage) other).owner() == owner() && ((Usage) other).row == row;
+		}
+
+		private UsageStore owner() {
+			return UsageStore.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return row;
+		}
+
+		public String toString() {
+			return ("Usage : startDateTime : " + getStartTime() + ", endDateTime: " + getEndTime());
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package test.bcccp.carpark;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.carpark.CarparkEventBus;
+import bcccp.carpark.ICarparkObserver;
+
+public class CarparkEventBusTest {
+
+	private ExecutorService executor_;
+	private CarparkEventBus bus_;
+
+
+
+	@Before
+	public void setUp() {
+		executor_ = Executors.newCachedThreadPool();
+		bus_ = new CarparkEventBus(executor_);
+	}
+
+
+
+	@After
+	public void tearDown() {
+		executor_.shutdownNow();
+	}
+
+
+
+	// A blocked subscriber neither holds up publishing nor the other subscribers,
+	// and the events it misses are folded into one.
+	@Test
+	public void testSlowSubscriberIsCoalesced() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicInteger slowCalls = new AtomicInteger();
+		ICarparkObserver slow = () -> {
+			slowCalls.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		AtomicInteger fastCalls = new AtomicInteger();
+		ICarparkObserver fast = fastCalls::incrementAndGet;
+		bus_.subscribe(slow);
+		bus_.subscribe(fast);
+		bus_.subscribe(fast);
+
+		try {
+			bus_.publish();
+			assertTrue(started.await(1, TimeUnit.SECONDS));
+			for (int i = 1; i < 100; i++) {
+				bus_.publish();
+			}
+			awaitDelivery(fast);
+			assertTrue(fastCalls.get() > 0);
+			assertEquals(100, bus_.getPendingEvents(slow));
+		}
+		finally {
+			release.countDown();
+		}
+		awaitDelivery(slow);
+		assertEquals(2, slowCalls.get());
+		assertEquals(98, bus_.getCoalescedEvents(slow));
+		assertTrue(bus_.getMaxLagNanos(slow) > 0);
+	}
+
+
+
+	@Test
+	public void testUnsubscribe() throws InterruptedException {
+		AtomicInteger calls = new AtomicInteger();
+		ICarparkObserver observer = calls::incrementAndGet;
+		bus_.subscribe(observer);
+		bus_.unsubscribe(observer);
+		bus_.publish();
+		executor_.shutdown();
+		assertTrue(executor_.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals(0, calls.get());
+		assertEquals(0, bus_.getPendingEvents(observer));
+	}
+
+
+
+	private void awaitDelivery(ICarparkObserver observer) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 1000;
+		while (bus_.getPendingEvents(observer) != 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, bus_.getPendingEvents(observer));
+	}
+}
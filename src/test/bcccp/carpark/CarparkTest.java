@@ -8,6 +8,8 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.*;
 
 import bcccp.carpark.Carpark;
+import bcccp.carpark.CarparkEventBus;
+import bcccp.carpark.ChargeEngine;
 import bcccp.carpark.ICarparkObserver;
 import bcccp.carpark.ITimeProvider;
 import bcccp.carpark.TimeProvider;
@@ -18,6 +20,7 @@ import bcccp.tickets.season.ISeasonTicketDAO;
 
 import static org.mockito.Mockito.*;
 
+import java.util.stream.Stream;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -97,6 +100,32 @@ public class CarparkTest {
 		// Should be full at this point.
 		carpark.recordAdhocTicketEntry();
 		assertTrue(carpark.isFull());
+		
+		// And still full once past capacity.
+		carpark.recordAdhocTicketEntry();
+		assertTrue(carpark.isFull());
+	}
+	
+	
+	
+	@Test
+	public void testAvailableSpaces() {
+		when(seasonTicketDaoMock_.getNumberOfTickets()).thenReturn(2);
+		Carpark carpark = new Carpark("Name", 4, this.adhocTicketDaoMock_, this.seasonTicketDaoMock_, timeProvider_);
+		// Spaces are reserved for season tickets.
+		assertEquals(2, carpark.getAvailableSpaces());
+		
+		carpark.recordAdhocTicketEntry();
+		assertEquals(1, carpark.getAvailableSpaces());
+		carpark.recordAdhocTicketEntry();
+		carpark.recordAdhocTicketEntry();
+		assertEquals(0, carpark.getAvailableSpaces());
+		assertTrue(carpark.isFull());
+		
+		carpark.recordAdhocTicketExit();
+		carpark.recordAdhocTicketExit();
+		assertEquals(1, carpark.getAvailableSpaces());
+		assertFalse(carpark.isFull());
 	}
 	
 	
@@ -132,7 +161,9 @@ public class CarparkTest {
 	
 	@Test
 	public void testRecordAdhocTicketExit() {
-		Carpark carpark = new Carpark("Name", 1, this.adhocTicketDaoMock_, this.seasonTicketDaoMock_, timeProvider_);
+		// Told on this thread, so the observer has been called by the time the exit returns.
+		Carpark carpark = new Carpark("Name", 1, this.adhocTicketDaoMock_, this.seasonTicketDaoMock_, timeProvider_, 
+				ChargeEngine.getDefault(), new CarparkEventBus(Runnable::run));
 		ICarparkObserver observerMock = mock(ICarparkObserver.class);
 		carpark.register(observerMock);
 		
@@ -147,6 +178,28 @@ public class CarparkTest {
 	
 	
 	
+	@Test
+	public void testQuoteAll() {
+		long now = System.currentTimeMillis();
+		IAdhocTicket parked = mock(IAdhocTicket.class);
+		when(parked.isCurrent()).thenReturn(true);
+		when(parked.getEntryDateTime()).thenReturn(now - 3 * 60 * 60 * 1000L);
+		
+		// Paid tickets are not part of the quote.
+		IAdhocTicket paid = mock(IAdhocTicket.class);
+		when(paid.isCurrent()).thenReturn(false);
+		when(paid.getEntryDateTime()).thenReturn(now - 5 * 60 * 60 * 1000L);
+		
+		IAdhocTicketDAO adhocTicketDaoMock = mock(IAdhocTicketDAO.class);
+		when(adhocTicketDaoMock.streamCurrentTickets()).thenReturn(Stream.of(parked, paid));
+		
+		Carpark carpark = new Carpark("Name", 2, adhocTicketDaoMock, this.seasonTicketDaoMock_, timeProvider_);
+		long expected = ChargeEngine.getDefault().chargeCents(now - 3 * 60 * 60 * 1000L, now);
+		assertEquals(expected, carpark.quoteAll(now));
+	}
+	
+	
+	
 	@Test
 	public void testNoSeasonTicket() {
 		// will not return any tickets.
@@ -174,7 +227,7 @@ public class CarparkTest {
 		when(seasonTicketMock.getEndValidPeriod()).thenReturn(endDateTime.toInstant().toEpochMilli());
 		
 		ITimeProvider timeProviderMock = mock(ITimeProvider.class);
-		when(timeProviderMock.getLocalDateTime()).thenReturn(validDateTime.toLocalDateTime());
+		when(timeProviderMock.getCurrentTimeMillis()).thenReturn(validDateTime.toInstant().toEpochMilli());
 		
 		ISeasonTicketDAO seasonTicketDaoMock = mock(ISeasonTicketDAO.class);
 		when(seasonTicketDaoMock.findTicketById("barcode")).thenReturn(seasonTicketMock);
@@ -186,6 +239,34 @@ public class CarparkTest {
 	
 	
 	
+	@Test
+	public void testSeasonTicketValidForEntryAndExit() {
+		ZonedDateTime startDateTime = ZonedDateTime.parse(
+				"2017-09-18T03:00:00+10:00" ,
+			    DateTimeFormatter.ISO_DATE_TIME.withZone(ZoneId.systemDefault()));
+		ZonedDateTime validDateTime = startDateTime.plusDays(1).withHour(12);
+		
+		ISeasonTicket seasonTicketMock = mock(ISeasonTicket.class);
+		when(seasonTicketMock.getStartValidPeriod()).thenReturn(startDateTime.toInstant().toEpochMilli());
+		when(seasonTicketMock.getEndValidPeriod()).thenReturn(startDateTime.plusDays(2).toInstant().toEpochMilli());
+		when(seasonTicketMock.inUse()).thenReturn(false, true);
+		
+		ITimeProvider timeProviderMock = mock(ITimeProvider.class);
+		when(timeProviderMock.getCurrentTimeMillis()).thenReturn(validDateTime.toInstant().toEpochMilli());
+		
+		ISeasonTicketDAO seasonTicketDaoMock = mock(ISeasonTicketDAO.class);
+		when(seasonTicketDaoMock.findTicketById("barcode")).thenReturn(seasonTicketMock);
+		
+		Carpark carpark = new Carpark("Name", 1, this.adhocTicketDaoMock_, seasonTicketDaoMock, timeProviderMock);
+		// Not in use, so it may enter; then in use, so it may exit but not enter.
+		assertTrue(carpark.isSeasonTicketValidForEntry("barcode"));
+		assertFalse(carpark.isSeasonTicketValidForEntry("barcode"));
+		assertFalse(carpark.isSeasonTicketValidForEntry("unknown"));
+		assertTrue(carpark.isSeasonTicketValidForExit("barcode"));
+	}
+	
+	
+	
 	@Test
 	public void testOutdatedSeasonTicket() {
 		ZonedDateTime startDateTime = ZonedDateTime.parse(
@@ -201,7 +282,7 @@ public class CarparkTest {
 		when(seasonTicketMock.getEndValidPeriod()).thenReturn(endDateTime.toInstant().toEpochMilli());
 		
 		ITimeProvider timeProviderMock = mock(ITimeProvider.class);
-		when(timeProviderMock.getLocalDateTime()).thenReturn(validDateTime.toLocalDateTime());
+		when(timeProviderMock.getCurrentTimeMillis()).thenReturn(validDateTime.toInstant().toEpochMilli());
 		
 		ISeasonTicketDAO seasonTicketDaoMock = mock(ISeasonTicketDAO.class);
 		when(seasonTicketDaoMock.findTicketById("barcode")).thenReturn(seasonTicketMock);
@@ -228,7 +309,7 @@ public class CarparkTest {
 		when(seasonTicketMock.getEndValidPeriod()).thenReturn(endDateTime.toInstant().toEpochMilli());
 		
 		ITimeProvider timeProviderMock = mock(ITimeProvider.class);
-		when(timeProviderMock.getLocalDateTime()).thenReturn(validDateTime.toLocalDateTime());
+		when(timeProviderMock.getCurrentTimeMillis()).thenReturn(validDateTime.toInstant().toEpochMilli());
 		
 		ISeasonTicketDAO seasonTicketDaoMock = mock(ISeasonTicketDAO.class);
 		when(seasonTicketDaoMock.findTicketById("barcode")).thenReturn(seasonTicketMock);
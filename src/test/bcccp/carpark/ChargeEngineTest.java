@@ -0,0 +1,221 @@
+package test.bcccp.carpark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.time.DayOfWeek;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import bcccp.carpark.ChargeEngine;
+import bcccp.carpark.tariff.Tariff;
+
+public class ChargeEngineTest {
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	private static final double DELTA = 0.001;
+
+	private static final float BUSINESS_DAY = (12 * 60 * 2.0f / 60) + (12 * 60 * 5.0f / 60);
+
+	private static final float NON_BUSINESS_DAY = 24 * 60 * 2.0f / 60;
+
+	private ChargeEngine engine = ChargeEngine.getDefault();
+
+
+
+	@Test
+	public void testEndBeforeStart() {
+		expectedException.expect(RuntimeException.class);
+		engine.calcChargeBetweenMinutes(10, 9);
+	}
+
+
+
+	@Test
+	public void testNoTime() {
+		long start = toMillis("2017-09-18T10:00:00+10:00");
+		assertEquals(0, engine.calcCharge(start, start), DELTA);
+	}
+
+
+
+	@Test
+	public void testSubMinuteStay() {
+		long start = toMillis("2017-09-18T10:00:05+10:00");
+		long end = toMillis("2017-09-18T10:00:55+10:00");
+		assertEquals(0, engine.calcCharge(start, end), DELTA);
+	}
+
+
+
+	@Test
+	public void testEveningEntryAcrossMidnight() {
+		long start = toMillis("2017-09-18T19:30:00+10:00");
+		long end = toMillis("2017-09-19T01:00:00+10:00");
+		double expected = 5.5 * 60 * 2.0 / 60;
+		assertEquals(expected, engine.calcCharge(start, end), DELTA);
+	}
+
+
+
+	@Test
+	public void testBusinessHoursEntryOverSeveralDays() {
+		// Wednesday 10:15 to Friday 09:00.
+		long start = toMillis("2017-09-20T10:15:00+10:00");
+		long end = toMillis("2017-09-22T09:00:00+10:00");
+		double firstDay = ((8 * 60 + 45) * 5.0 / 60) + (5 * 60 * 2.0 / 60);
+		double lastDay = (7 * 60 * 2.0 / 60) + (2 * 60 * 5.0 / 60);
+		assertEquals(firstDay + BUSINESS_DAY + lastDay, engine.calcCharge(start, end), DELTA);
+	}
+
+
+
+	@Test
+	public void testOneYear() {
+		// 2017-09-18 is a Monday; 365 days is 52 weeks and one Monday.
+		long start = toMillis("2017-09-18T00:00:00+10:00");
+		long end = toMillis("2018-09-18T00:00:00+10:00");
+		double week = 5 * BUSINESS_DAY + 2 * NON_BUSINESS_DAY;
+		assertEquals(52 * week + BUSINESS_DAY, engine.calcCharge(start, end), DELTA);
+	}
+
+
+
+	@Test
+	public void testDayChargeMatchesStay() {
+		// A single Saturday should cost the same either way.
+		long start = toMillis("2017-09-16T00:00:00+10:00");
+		long end = toMillis("2017-09-17T00:00:00+10:00");
+		assertEquals(engine.calcDayCharge(0, 24 * 60, DayOfWeek.SATURDAY),
+				engine.calcCharge(start, end), DELTA);
+		assertEquals(NON_BUSINESS_DAY, engine.calcCharge(start, end), DELTA);
+	}
+
+
+
+	@Test
+	public void testChargeCents() {
+		// Friday 05:45 to Saturday 12:45, as in ChargeCalculatorDatesTest.
+		long start = toMillis("2017-09-15T05:45:00+10:00");
+		long end = toMillis("2017-09-16T12:45:00+10:00");
+		assertEquals(Math.round(engine.calcCharge(start, end) * 100), engine.chargeCents(start, end));
+	}
+
+
+
+	@Test
+	public void testChargeCentsRoundsHalfUp() {
+		// One after hours minute is 3.33 cents, two are 6.67 cents.
+		assertEquals(3, engine.chargeCentsBetweenMinutes(0, 1));
+		assertEquals(7, engine.chargeCentsBetweenMinutes(0, 2));
+	}
+
+
+
+	@Test
+	public void testChargeCentsDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threadBean =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long start = toMillis("2017-09-15T05:45:00+10:00");
+		long end = toMillis("2018-09-16T12:45:00+10:00");
+		int iterations = 100000;
+
+		// Warm up so that class loading and compilation are not counted.
+		long total = sumCharges(start, end, iterations);
+
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		total += sumCharges(start, end, iterations);
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue(total > 0);
+		// Anything per call would be at least 16 bytes times the number of iterations.
+		assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+	}
+
+
+
+	@Test
+	public void testQuoteCents() {
+		long exit = toMillis("2017-09-25T09:30:00+10:00");
+		long start = toMillis("2017-09-01T00:00:00+10:00");
+		int count = 20000;
+		long[] entries = new long[count];
+		long expected = 0;
+		for (int i = 0; i < count; i++) {
+			entries[i] = start + i * 97000L;
+			expected += engine.chargeCents(entries[i], exit);
+		}
+
+		// Large enough to be quoted in parallel, and a small batch that is not.
+		assertEquals(expected, engine.quoteCents(entries, count, exit));
+		assertEquals(engine.chargeCents(entries[0], exit) + engine.chargeCents(entries[1], exit),
+				engine.quoteCents(entries, 2, exit));
+	}
+
+
+
+	@Test
+	public void testQuoteCentsIgnoresLaterEntries() {
+		long exit = toMillis("2017-09-18T09:30:00+10:00");
+		long[] entries = { exit - 60 * 60000L, exit + 60 * 60000L };
+		assertEquals(engine.chargeCents(entries[0], exit), engine.quoteCents(entries, 2, exit));
+	}
+
+
+
+	@Test
+	public void testChargeCount() {
+		ChargeEngine counted = new ChargeEngine(Tariff.defaultTariff().compile());
+		long start = toMillis("2017-09-18T10:00:00+10:00");
+		long end = toMillis("2017-09-18T12:00:00+10:00");
+		counted.chargeCents(start, end);
+		counted.calcCharge(start, end);
+		counted.quoteCents(new long[] { start, start, start }, 3, end);
+		assertEquals(5, counted.getChargeCount());
+	}
+
+
+
+
+	// A stay from mid morning to the afternoon three days later is two full days and two part days.
+	@Test
+	public void testFullAndPartDaysCounted() {
+		ChargeEngine counted = new ChargeEngine(Tariff.defaultTariff().compile());
+		counted.chargeCents(toMillis("2017-09-18T10:00:00+10:00"), toMillis("2017-09-21T15:00:00+10:00"));
+		assertEquals(2, counted.getFullDaysCharged());
+		assertEquals(2, counted.getPartDaysCharged());
+
+		// Midnight to midnight is one full day, and a stay within a day is one part day.
+		counted.chargeCents(toMillis("2017-09-23T00:00:00+10:00"), toMillis("2017-09-24T00:00:00+10:00"));
+		counted.quoteCents(new long[] { toMillis("2017-09-18T10:00:00+10:00") }, 1, toMillis("2017-09-18T12:00:00+10:00"));
+		assertEquals(3, counted.getFullDaysCharged());
+		assertEquals(3, counted.getPartDaysCharged());
+	}
+
+
+
+	private long sumCharges(long start, long end, int iterations) {
+		long total = 0;
+		for (int i = 0; i < iterations; i++) {
+			total += engine.chargeCents(start, end + i * 60000L);
+		}
+		return total;
+	}
+
+
+
+	private static long toMillis(String dateTime) {
+		return ZonedDateTime.parse(dateTime,
+				DateTimeFormatter.ISO_DATE_TIME.withZone(ZoneId.systemDefault()))
+				.toInstant().toEpochMilli();
+	}
+}
@@ -0,0 +1,136 @@
+package test.bcccp.carpark;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.carpark.DebouncedCarSensor;
+import bcccp.carpark.HeadlessCarSensor;
+
+public class DebouncedCarSensorTest {
+
+	private ScheduledExecutorService scheduler_;
+	private HeadlessCarSensor raw_;
+	private List<Boolean> told_;
+
+
+
+	@Before
+	public void setUp() {
+		scheduler_ = Executors.newSingleThreadScheduledExecutor();
+		raw_ = new HeadlessCarSensor("Loop Detector");
+		told_ = new CopyOnWriteArrayList<>();
+	}
+
+
+
+	@After
+	public void tearDown() {
+		scheduler_.shutdownNow();
+	}
+
+
+
+	// A burst of flips is passed on once, as the state it settles on.
+	@Test
+	public void testChatterSettlesToOneChange() throws InterruptedException {
+		DebouncedCarSensor sensor = DebouncedCarSensor.wrap(raw_, 30, 0, scheduler_);
+		sensor.registerResponder((id, detected) -> told_.add(detected));
+
+		raw_.detect(true);
+		raw_.detect(false);
+		raw_.detect(true);
+		raw_.detect(false);
+		raw_.detect(true);
+		assertTrue(told_.isEmpty());
+		assertFalse(sensor.carIsDetected());
+
+		awaitTold(1);
+		assertEquals(1, told_.size());
+		assertTrue(told_.get(0));
+		assertTrue(sensor.carIsDetected());
+		assertEquals(5, sensor.getRawEvents());
+		assertEquals(1, sensor.getForwardedEvents());
+		assertEquals(4, sensor.getSuppressedEvents());
+	}
+
+
+
+	// A flip that comes back before the hold time is never passed on.
+	@Test
+	public void testGlitchIsSuppressed() throws InterruptedException {
+		DebouncedCarSensor sensor = DebouncedCarSensor.wrap(raw_, 30, 0, scheduler_);
+		sensor.registerResponder((id, detected) -> told_.add(detected));
+
+		raw_.detect(true);
+		raw_.detect(false);
+		Thread.sleep(100);
+
+		assertTrue(told_.isEmpty());
+		assertEquals(2, sensor.getSuppressedEvents());
+	}
+
+
+
+	// With no hold time a change is passed on straight away, but not again until the state has been stable.
+	@Test
+	public void testMinimumStableInterval() throws InterruptedException {
+		DebouncedCarSensor sensor = DebouncedCarSensor.wrap(raw_, 0, 50, scheduler_);
+		sensor.registerResponder((id, detected) -> told_.add(detected));
+
+		raw_.detect(true);
+		assertTrue(sensor.carIsDetected());
+		awaitTold(1);
+		assertEquals(1, told_.size());
+		assertEquals("Loop Detector", sensor.getId());
+
+		raw_.detect(false);
+		assertEquals(1, told_.size());
+		assertTrue(sensor.carIsDetected());
+
+		awaitTold(2);
+		assertFalse(told_.get(1));
+		assertFalse(sensor.carIsDetected());
+		assertEquals(0, sensor.getSuppressedEvents());
+	}
+
+
+
+	// Changes passed on at once and ones that settle later reach the responders in order.
+	@Test
+	public void testChangesPassedOnInOrder() throws InterruptedException {
+		DebouncedCarSensor sensor = DebouncedCarSensor.wrap(raw_, 0, 5, scheduler_);
+		sensor.registerResponder((id, detected) -> told_.add(detected));
+
+		for (int i = 0; i < 50; i++) {
+			raw_.detect(true);
+			Thread.sleep(i % 7);
+			raw_.detect(false);
+			Thread.sleep(i % 5);
+		}
+		Thread.sleep(50);
+
+		assertEquals(sensor.getForwardedEvents(), told_.size());
+		for (int i = 0; i < told_.size(); i++) {
+			assertEquals("change " + i, i % 2 == 0, told_.get(i));
+		}
+		assertFalse(sensor.carIsDetected());
+	}
+
+
+
+	private void awaitTold(int changes) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		while (told_.size() < changes && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+}
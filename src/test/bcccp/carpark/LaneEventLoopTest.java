@@ -0,0 +1,174 @@
+package test.bcccp.carpark;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.carpark.LaneEventLoop;
+
+public class LaneEventLoopTest {
+
+	private LaneEventLoop lane_;
+
+
+
+	@Before
+	public void setUp() {
+		lane_ = new LaneEventLoop("test", 4);
+	}
+
+
+
+	@After
+	public void tearDown() throws InterruptedException {
+		lane_.shutdown();
+		lane_.awaitTermination(1000);
+	}
+
+
+
+	// Events from several threads each run in the order their thread posted them, on the lane's thread.
+	@Test
+	public void testEventsRunInOrderOnTheLane() throws InterruptedException {
+		LaneEventLoop lane = new LaneEventLoop("ordered", 10000);
+		List<Integer> seen = new ArrayList<>();
+		boolean[] offLane = new boolean[1];
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			int producer = p;
+			producers[p] = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					int event = producer * 1000 + i;
+					lane.execute(() -> {
+						offLane[0] |= !lane.inLane();
+						seen.add(event);
+					});
+				}
+			});
+			producers[p].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		lane.shutdown();
+		assertTrue(lane.awaitTermination(5000));
+
+		assertEquals(4000, seen.size());
+		assertFalse(offLane[0]);
+		int[] last = { -1, -1, -1, -1 };
+		for (int event : seen) {
+			assertTrue(event % 1000 > last[event / 1000]);
+			last[event / 1000] = event % 1000;
+		}
+		assertEquals(4000, lane.getProcessedEvents());
+		assertEquals(0, lane.getQueueDepth());
+	}
+
+
+
+	// A stuck lane refuses events past its capacity instead of queueing them.
+	@Test
+	public void testFullQueueRefusesEvents() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			lane_.execute(() -> {
+				started.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			assertTrue(started.await(1, TimeUnit.SECONDS));
+			for (int i = 0; i < 3; i++) {
+				lane_.execute(() -> { });
+			}
+			assertEquals(4, lane_.getQueueDepth());
+			try {
+				lane_.execute(() -> { });
+				fail("Expected the full queue to refuse the event");
+			}
+			catch (RejectedExecutionException e) {
+				assertEquals(1, lane_.getRejectedEvents());
+			}
+		}
+		finally {
+			release.countDown();
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		while (lane_.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, lane_.getQueueDepth());
+		assertEquals(4, lane_.getProcessedEvents());
+		assertEquals(4, lane_.getMaxQueueDepth());
+		assertTrue(lane_.getMaxEventAgeNanos() > 0);
+		assertTrue(lane_.getMeanEventAgeNanos() <= lane_.getMaxEventAgeNanos());
+	}
+
+
+
+	// An event that throws an error is logged and the lane carries on with the next one.
+	@Test
+	public void testFailingEventDoesNotStopTheLane() throws InterruptedException {
+		CountDownLatch ran = new CountDownLatch(1);
+		lane_.execute(() -> { throw new AssertionError("broken controller"); });
+		lane_.execute(ran::countDown);
+		assertTrue(ran.await(1, TimeUnit.SECONDS));
+		lane_.shutdown();
+		assertTrue(lane_.awaitTermination(1000));
+		assertEquals(2, lane_.getProcessedEvents());
+		assertEquals(0, lane_.getQueueDepth());
+	}
+
+
+
+	// Every event accepted while the lane shuts down still runs.
+	@Test
+	public void testShutdownRunsAcceptedEvents() throws InterruptedException {
+		for (int round = 0; round < 200; round++) {
+			LaneEventLoop lane = new LaneEventLoop("race", 4);
+			int[] ran = new int[1];
+			boolean[] accepted = new boolean[1];
+			Thread producer = new Thread(() -> {
+				try {
+					lane.execute(() -> ran[0]++);
+					accepted[0] = true;
+				}
+				catch (RejectedExecutionException e) {
+					accepted[0] = false;
+				}
+			});
+			producer.start();
+			lane.shutdown();
+			producer.join();
+			assertTrue(lane.awaitTermination(1000));
+			assertEquals("round " + round, accepted[0] ? 1 : 0, ran[0]);
+		}
+	}
+
+
+
+	@Test
+	public void testShutdownLaneRefusesEvents() throws InterruptedException {
+		lane_.shutdown();
+		assertTrue(lane_.awaitTermination(1000));
+		try {
+			lane_.execute(() -> { });
+			fail("Expected the shut down lane to refuse the event");
+		}
+		catch (RejectedExecutionException e) {
+			assertEquals(1, lane_.getRejectedEvents());
+		}
+	}
+}
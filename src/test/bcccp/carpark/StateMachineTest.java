@@ -0,0 +1,94 @@
+package test.bcccp.carpark;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.carpark.StateMachine;
+
+public class StateMachineTest {
+
+	private enum STATE { IDLE, WAITING, BLOCKED, DONE }
+
+	private enum EVENT { ARRIVE, BLOCK, UNBLOCK, FINISH, BEEP }
+
+	private StateMachine<STATE, EVENT> machine_;
+	private List<String> log_;
+
+
+
+	@Before
+	public void setUp() {
+		log_ = new ArrayList<>();
+		StateMachine<STATE, EVENT> machine = new StateMachine<>(STATE.class, EVENT.class);
+		machine.on(EVENT.ARRIVE, STATE.WAITING, STATE.IDLE)
+			.on(EVENT.BLOCK, STATE.BLOCKED, STATE.IDLE, STATE.WAITING)
+			.on(EVENT.UNBLOCK, from -> machine.getPrevious(), STATE.BLOCKED)
+			.on(EVENT.FINISH, STATE.DONE, STATE.WAITING)
+			.otherwise(EVENT.BEEP, from -> {
+				log_.add("beep in " + from);
+				return null;
+			})
+			.onEntry(STATE.IDLE, from -> {
+				log_.add("idle");
+				return null;
+			})
+			// Finishing goes straight back to idle.
+			.onEntry(STATE.DONE, from -> STATE.IDLE);
+		machine_ = machine;
+		machine_.moveTo(STATE.IDLE);
+	}
+
+
+
+	@Test
+	public void testTransitions() {
+		machine_.fire(EVENT.ARRIVE);
+		assertEquals(STATE.WAITING, machine_.getState());
+
+		// No cell for the event in this state, so nothing happens.
+		machine_.fire(EVENT.ARRIVE);
+		assertEquals(STATE.WAITING, machine_.getState());
+
+		machine_.fire(EVENT.BLOCK);
+		assertEquals(STATE.BLOCKED, machine_.getState());
+		machine_.fire(EVENT.UNBLOCK);
+		assertEquals(STATE.WAITING, machine_.getState());
+
+		machine_.fire(EVENT.BEEP);
+		assertEquals(STATE.WAITING, machine_.getState());
+		assertEquals("beep in WAITING", log_.get(1));
+	}
+
+
+
+	@Test
+	public void testEntryActionMovesOn() {
+		machine_.fire(EVENT.ARRIVE);
+		machine_.fire(EVENT.FINISH);
+
+		assertEquals(STATE.IDLE, machine_.getState());
+		assertEquals(STATE.DONE, machine_.getPrevious());
+		assertEquals(2, log_.size());
+	}
+
+
+
+	@Test
+	public void testTransitionCounts() {
+		for (int i = 0; i < 3; i++) {
+			machine_.fire(EVENT.ARRIVE);
+			machine_.fire(EVENT.FINISH);
+		}
+
+		assertEquals(3, machine_.getTransitionCount(STATE.IDLE, STATE.WAITING));
+		assertEquals(3, machine_.getTransitionCount(STATE.WAITING, STATE.DONE));
+		assertEquals(3, machine_.getTransitionCount(STATE.DONE, STATE.IDLE));
+		assertEquals(0, machine_.getTransitionCount(STATE.IDLE, STATE.BLOCKED));
+		assertTrue(machine_.getTransitionNanos(STATE.DONE, STATE.IDLE) >= 0);
+	}
+}
@@ -0,0 +1,132 @@
+package test.bcccp.carpark;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.EnumSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import bcccp.carpark.tariff.RateBand;
+import bcccp.carpark.tariff.RateTable;
+import bcccp.carpark.tariff.Tariff;
+
+public class TariffTest {
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	private static final String EVENING_TARIFF =
+			"# business days have an evening band\n" +
+			"business-days MONDAY TUESDAY WEDNESDAY THURSDAY FRIDAY\n" +
+			"band BUSINESS 00:00 07:00 200\n" +
+			"band BUSINESS 07:00 19:00 500\n" +
+			"band BUSINESS 19:00 22:00 300\n" +
+			"band BUSINESS 22:00 24:00 200\n" +
+			"band NON_BUSINESS 00:00 24:00 100\n" +
+			"band HOLIDAY 00:00 24:00 50\n" +
+			"holiday 2017-09-20\n";
+
+	// 2017-09-18 00:00 (a Monday) in local epoch minutes.
+	private static final long MONDAY = LocalDate.of(2017, 9, 18).toEpochDay() * 24 * 60;
+
+	private static final long DAY = 24 * 60;
+
+
+
+	@Test
+	public void testDefaultTariffBusinessDay() {
+		RateTable table = Tariff.defaultTariff().compile();
+		long expected = (12 * 60 * 200) + (12 * 60 * 500);
+		assertEquals(expected, table.centMinutesBetween(MONDAY, MONDAY + DAY));
+	}
+
+
+
+	@Test
+	public void testEveningBand() throws IOException {
+		RateTable table = Tariff.load(new StringReader(EVENING_TARIFF)).compile();
+		// Monday 18:00 to 23:00.
+		long expected = (60 * 500) + (3 * 60 * 300) + (60 * 200);
+		assertEquals(expected, table.centMinutesBetween(MONDAY + 18 * 60, MONDAY + 23 * 60));
+	}
+
+
+
+	@Test
+	public void testHoliday() throws IOException {
+		RateTable table = Tariff.load(new StringReader(EVENING_TARIFF)).compile();
+		// Wednesday is a holiday.
+		assertEquals(DAY * 50, table.centMinutesBetween(MONDAY + 2 * DAY, MONDAY + 3 * DAY));
+		assertEquals(12 * 60 * 50, table.centMinutesBetween(MONDAY + 2 * DAY, MONDAY + 2 * DAY + 12 * 60));
+	}
+
+
+
+	@Test
+	public void testWeekAcrossHoliday() throws IOException {
+		RateTable table = Tariff.load(new StringReader(EVENING_TARIFF)).compile();
+		long businessDay = (9 * 60 * 200) + (12 * 60 * 500) + (3 * 60 * 300);
+		long expected = 4 * businessDay + DAY * 50 + 2 * DAY * 100;
+		assertEquals(expected, table.centMinutesBetween(MONDAY, MONDAY + 7 * DAY));
+		// The same week a year later has no holiday.
+		long nextYear = MONDAY + 364 * DAY;
+		assertEquals(5 * businessDay + 2 * DAY * 100, table.centMinutesBetween(nextYear, nextYear + 7 * DAY));
+	}
+
+
+
+	@Test
+	public void testRateLookup() throws IOException {
+		RateTable table = Tariff.load(new StringReader(EVENING_TARIFF)).compile();
+		assertEquals(300, table.getCentsPerHour(20 * 60));
+		assertEquals(100, table.getCentsPerHour(5 * (int) DAY + 20 * 60));
+	}
+
+
+
+	@Test
+	public void testOverlappingBands() {
+		expectedException.expect(RuntimeException.class);
+		expectedException.expectMessage(containsString("overlaps"));
+		Tariff tariff = new Tariff(EnumSet.of(DayOfWeek.MONDAY));
+		tariff.addBand(Tariff.DayType.BUSINESS, new RateBand(0, 600, 100));
+		tariff.addBand(Tariff.DayType.BUSINESS, new RateBand(500, 1440, 100));
+	}
+
+
+
+	@Test
+	public void testUncoveredMinutes() {
+		expectedException.expect(RuntimeException.class);
+		expectedException.expectMessage(containsString("do not cover"));
+		Tariff tariff = new Tariff(EnumSet.of(DayOfWeek.MONDAY));
+		tariff.addBand(Tariff.DayType.BUSINESS, new RateBand(0, 600, 100));
+		tariff.addBand(Tariff.DayType.NON_BUSINESS, new RateBand(0, 1440, 100));
+		tariff.compile();
+	}
+
+
+
+	// With no business days only the non business bands are needed.
+	@Test
+	public void testNoBusinessDays() throws IOException {
+		RateTable table = Tariff.load(new StringReader("band NON_BUSINESS 00:00 24:00 100\n")).compile();
+		assertEquals(7 * DAY * 100, table.centMinutesBetween(MONDAY, MONDAY + 7 * DAY));
+	}
+
+
+
+	@Test
+	public void testInvalidLine() throws IOException {
+		expectedException.expect(RuntimeException.class);
+		expectedException.expectMessage(containsString("line 2"));
+		Tariff.load(new StringReader("business-days MONDAY\nband BUSINESS 07:00\n"));
+	}
+}
@@ -0,0 +1,267 @@
+package test.bcccp.carpark.integration;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.carpark.Carpark;
+import bcccp.carpark.CarparkEventBus;
+import bcccp.carpark.ChargeEngine;
+import bcccp.carpark.HeadlessCarSensor;
+import bcccp.carpark.HeadlessGate;
+import bcccp.carpark.ITimeProvider;
+import bcccp.carpark.LaneCarSensor;
+import bcccp.carpark.LaneCarparkObserver;
+import bcccp.carpark.LaneEventLoop;
+import bcccp.carpark.TimeProvider;
+import bcccp.carpark.entry.EntryController;
+import bcccp.carpark.entry.HeadlessEntryUI;
+import bcccp.carpark.entry.LaneEntryUI;
+import bcccp.carpark.exit.ExitController;
+import bcccp.carpark.exit.HeadlessExitUI;
+import bcccp.carpark.paystation.HeadlessPaystationUI;
+import bcccp.carpark.paystation.PaystationController;
+import bcccp.tickets.adhoc.AdhocTicketDAO;
+import bcccp.tickets.adhoc.AdhocTicketFactory;
+import bcccp.tickets.adhoc.IAdhocTicket;
+import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.UsageRecordFactory;
+
+public class HeadlessLaneIntegrationTest {
+
+	private AdhocTicketDAO adhocDAO_;
+	private Carpark carpark_;
+
+	private HeadlessCarSensor eos_;
+	private HeadlessCarSensor eis_;
+	private HeadlessGate entryGate_;
+	private HeadlessEntryUI entryUI_;
+
+	private HeadlessPaystationUI paystationUI_;
+
+	private HeadlessCarSensor xis_;
+	private HeadlessCarSensor xos_;
+	private HeadlessGate exitGate_;
+	private HeadlessExitUI exitUI_;
+
+
+
+	@Before
+	public void setUp() {
+		adhocDAO_ = new AdhocTicketDAO(new AdhocTicketFactory());
+		// Carpark events are told on the thread that changed the carpark, so tests can wait on the lane alone.
+		carpark_ = new Carpark("Bathurst Chase", 3, adhocDAO_, 
+				new SeasonTicketDAO(new UsageRecordFactory()), new TimeProvider(), 
+				ChargeEngine.getDefault(), new CarparkEventBus(Runnable::run));
+
+		eos_ = new HeadlessCarSensor("Entry Outside Sensor");
+		eis_ = new HeadlessCarSensor("Entry Inside Sensor");
+		entryGate_ = new HeadlessGate();
+		entryUI_ = new HeadlessEntryUI();
+		new EntryController(carpark_, entryGate_, eos_, eis_, entryUI_);
+
+		paystationUI_ = new HeadlessPaystationUI();
+		new PaystationController(carpark_, paystationUI_);
+
+		xis_ = new HeadlessCarSensor("Exit Inside Sensor");
+		xos_ = new HeadlessCarSensor("Exit Outside Sensor");
+		exitGate_ = new HeadlessGate();
+		exitUI_ = new HeadlessExitUI();
+		new ExitController(carpark_, exitGate_, xis_, xos_, exitUI_);
+	}
+
+
+
+	@Test
+	public void testAdhocCarEntersPaysAndExits() {
+		eos_.detect(true);
+		assertEquals("Push Button", entryUI_.getDisplayText());
+		entryUI_.pushButton();
+		String barcode = entryUI_.getPrintedBarcode();
+		assertNotNull(barcode);
+		entryUI_.takeTicket();
+		assertTrue(entryGate_.isRaised());
+		eis_.detect(true);
+		eos_.detect(false);
+		eis_.detect(false);
+		assertFalse(entryGate_.isRaised());
+		assertEquals("Idle", entryUI_.getDisplayText());
+		assertTrue(adhocDAO_.findTicketByBarcode(barcode).isCurrent());
+		assertEquals(2, carpark_.getAvailableSpaces());
+
+		paystationUI_.insertTicket(barcode);
+		paystationUI_.pay();
+		assertEquals(barcode, paystationUI_.getPrintedBarcode());
+		paystationUI_.takeTicket();
+		assertTrue(adhocDAO_.findTicketByBarcode(barcode).isPaid());
+
+		xis_.detect(true);
+		assertEquals("Insert Ticket", exitUI_.getDisplayText());
+		exitUI_.insertTicket(barcode);
+		exitUI_.takeTicket();
+		assertTrue(exitGate_.isRaised());
+		xos_.detect(true);
+		xis_.detect(false);
+		xos_.detect(false);
+		assertFalse(exitGate_.isRaised());
+		assertTrue(adhocDAO_.findTicketByBarcode(barcode).hasExited());
+		assertEquals(3, carpark_.getAvailableSpaces());
+		assertEquals(1, entryGate_.getRaises());
+		assertEquals(1, exitGate_.getRaises());
+		assertEquals(0, entryUI_.getBeeps() + paystationUI_.getBeeps() + exitUI_.getBeeps());
+	}
+
+
+
+	@Test
+	public void testUnpaidTicketIsRejected() {
+		eos_.detect(true);
+		entryUI_.pushButton();
+		String barcode = entryUI_.getPrintedBarcode();
+		entryUI_.takeTicket();
+		eis_.detect(true);
+		eos_.detect(false);
+		eis_.detect(false);
+
+		xis_.detect(true);
+		exitUI_.insertTicket(barcode);
+		assertEquals("Take Rejected Ticket", exitUI_.getDisplayText());
+		assertEquals(1, exitUI_.getBeeps());
+		exitUI_.takeTicket();
+		assertFalse(exitGate_.isRaised());
+		assertTrue(adhocDAO_.findTicketByBarcode(barcode).isCurrent());
+	}
+
+
+
+	// The pay station reuses its display buffer, so a smaller charge after a larger one must not keep its digits.
+	@Test
+	public void testPaystationShowsEachCharge() {
+		long now = LocalDateTime.of(2017, 9, 18, 9, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		ITimeProvider clock = new ITimeProvider() {
+			@Override
+			public LocalDateTime getLocalDateTime() {
+				return TimeProvider.toLocalDateTime(now);
+			}
+
+			@Override
+			public long getCurrentTimeMillis() {
+				return now;
+			}
+		};
+		Carpark carpark = new Carpark("Bathurst Chase", 3, adhocDAO_, 
+				new SeasonTicketDAO(new UsageRecordFactory()), clock);
+		HeadlessPaystationUI ui = new HeadlessPaystationUI();
+		new PaystationController(carpark, ui);
+
+		// An hour of business hours at $5.00 an hour, then six minutes.
+		IAdhocTicket hour = carpark.issueAdhocTicket();
+		hour.enter(now - 60 * 60 * 1000L);
+		IAdhocTicket sixMinutes = carpark.issueAdhocTicket();
+		sixMinutes.enter(now - 6 * 60 * 1000L);
+
+		ui.insertTicket(hour.getBarcode());
+		assertEquals("Pay 5.00", ui.getDisplayText());
+		ui.pay();
+		assertEquals(500, ui.getPrintedChargeCents());
+		assertEquals(500, hour.getChargeCents());
+		ui.takeTicket();
+
+		ui.insertTicket(sixMinutes.getBarcode());
+		assertEquals("Pay 0.50", ui.getDisplayText());
+		ui.pay();
+		assertEquals(50, sixMinutes.getChargeCents());
+	}
+
+
+
+	// The same car through an entry lane that runs on its own thread.
+	@Test
+	public void testCarEntersThroughLaneEventLoop() throws InterruptedException {
+		LaneEventLoop lane = new LaneEventLoop("entry", 64);
+		HeadlessCarSensor eos = new HeadlessCarSensor("Lane Outside Sensor");
+		HeadlessCarSensor eis = new HeadlessCarSensor("Lane Inside Sensor");
+		HeadlessGate gate = new HeadlessGate();
+		HeadlessEntryUI ui = new HeadlessEntryUI();
+		new EntryController(carpark_, gate, new LaneCarSensor(eos, lane), 
+				new LaneCarSensor(eis, lane), new LaneEntryUI(ui, lane));
+		try {
+			eos.detect(true);
+			ui.pushButton();
+			awaitLane(lane);
+			String barcode = ui.getPrintedBarcode();
+			assertNotNull(barcode);
+			ui.takeTicket();
+			eis.detect(true);
+			eos.detect(false);
+			eis.detect(false);
+			awaitLane(lane);
+
+			assertFalse(gate.isRaised());
+			assertEquals("Idle", ui.getDisplayText());
+			assertTrue(adhocDAO_.findTicketByBarcode(barcode).isCurrent());
+			assertEquals(0, lane.getRejectedEvents());
+		}
+		finally {
+			lane.shutdown();
+		}
+	}
+
+
+
+	// Carpark events reach the controller on its lane, and what it shows goes through the output executor.
+	@Test
+	public void testCarparkEventsAndOutputThroughLane() throws InterruptedException {
+		LaneEventLoop lane = new LaneEventLoop("entry", 64);
+		List<Runnable> output = new ArrayList<>();
+		HeadlessCarSensor eos = new HeadlessCarSensor("Lane Outside Sensor");
+		HeadlessEntryUI ui = new HeadlessEntryUI();
+		boolean[] notifiedInLane = new boolean[1];
+		carpark_.register(new LaneCarparkObserver(() -> notifiedInLane[0] = lane.inLane(), lane));
+		new EntryController(carpark_, new HeadlessGate(), new LaneCarSensor(eos, lane),
+				new LaneCarSensor(new HeadlessCarSensor("Lane Inside Sensor"), lane), 
+				new LaneEntryUI(ui, lane, command -> {
+					synchronized (output) {
+						output.add(command);
+					}
+				}));
+		try {
+			// A car leaving a full carpark is the event.
+			for (int i = 0; i < 3; i++) {
+				carpark_.recordAdhocTicketEntry();
+			}
+			carpark_.recordAdhocTicketExit();
+			awaitLane(lane);
+			assertTrue(notifiedInLane[0]);
+
+			eos.detect(true);
+			awaitLane(lane);
+			assertEquals("", ui.getDisplayText());
+			synchronized (output) {
+				for (Runnable command : output) {
+					command.run();
+				}
+			}
+			assertEquals("Push Button", ui.getDisplayText());
+		}
+		finally {
+			lane.shutdown();
+		}
+	}
+
+
+
+	private void awaitLane(LaneEventLoop lane) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		lane.execute(done::countDown);
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+	}
+}
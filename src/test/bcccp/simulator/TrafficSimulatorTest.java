@@ -0,0 +1,76 @@
+package test.bcccp.simulator;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import bcccp.simulator.CommuterSeasonArrivals;
+import bcccp.simulator.PeakHourArrivals;
+import bcccp.simulator.SimulationReport;
+import bcccp.simulator.TrafficSimulator;
+
+public class TrafficSimulatorTest {
+
+	private static final long MILLIS_IN_MINUTE = 60 * 1000L;
+	private static final long MILLIS_IN_HOUR = 60 * MILLIS_IN_MINUTE;
+
+	// A Wednesday, so the season ticket holders come in.
+	private static final long START = LocalDate.of(2026, 10, 14).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	private static final long END = START + 24 * MILLIS_IN_HOUR;
+
+
+
+	@Test
+	public void testDayOfTraffic() {
+		SimulationReport report = simulate(200, 1L);
+		assertTrue(report.getCarsArrived() > 0);
+		assertEquals(report.getCarsArrived(), report.getCarsEntered() + report.getCarsTurnedAway());
+		assertEquals(0, report.getCarsTurnedAway());
+		assertEquals(0, report.getExitsRejected());
+		// Only cars that stayed past midnight are still inside.
+		int[] occupied = report.getOccupied();
+		assertEquals(report.getCarsEntered() - report.getCarsExited(), occupied[occupied.length - 1], 20);
+		assertEquals(report.getCarsEntered() + report.getCarsExited(), report.getGateCycles());
+		assertEquals(96, report.getSampleTimes().length);
+		assertTrue(report.getGateCycleNanos(50) <= report.getGateCycleNanos(99));
+	}
+
+
+
+	@Test
+	public void testFullCarparkTurnsCarsAway() {
+		SimulationReport report = simulate(40, 1L);
+		assertTrue(report.getCarsTurnedAway() > 0);
+		for (int available : report.getAvailable()) {
+			assertTrue(available >= 0);
+		}
+		// Season ticket holders have their spaces kept, so the full carpark holds them all.
+		assertTrue(report.getPeakOccupied() <= 40);
+	}
+
+
+
+	@Test
+	public void testSameSeedSameTraffic() {
+		SimulationReport first = simulate(100, 7L);
+		SimulationReport second = simulate(100, 7L);
+		assertEquals(first.getCarsArrived(), second.getCarsArrived());
+		assertEquals(first.getCarsExited(), second.getCarsExited());
+		assertTrue(Arrays.equals(first.getOccupied(), second.getOccupied()));
+	}
+
+
+
+	private SimulationReport simulate(int capacity, long seed) {
+		TrafficSimulator simulator = new TrafficSimulator("Carpark", capacity, 2, START, seed);
+		simulator.addPattern(PeakHourArrivals.dailyPeaks(20, 2 * MILLIS_IN_HOUR));
+		simulator.addPattern(new CommuterSeasonArrivals(10, LocalTime.of(8, 30), 30 * MILLIS_IN_MINUTE, 
+				LocalTime.of(17, 15), 45 * MILLIS_IN_MINUTE));
+		return simulator.run(END);
+	}
+}
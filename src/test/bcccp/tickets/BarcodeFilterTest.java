@@ -0,0 +1,128 @@
+package test.bcccp.tickets;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Test;
+
+import bcccp.tickets.BarcodeFilter;
+import bcccp.tickets.season.FilteredSeasonTicketDAO;
+import bcccp.tickets.season.SeasonTicket;
+import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.UsageRecordFactory;
+import bcccp.tickets.season.UsageStore;
+
+public class BarcodeFilterTest {
+
+	@Test
+	public void testNoFalseNegatives() {
+		BarcodeFilter filter = new BarcodeFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add("S" + i);
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain("S" + i));
+		}
+		assertFalse(filter.mightContain(null));
+	}
+
+
+
+	@Test
+	public void testFalsePositiveRate() {
+		BarcodeFilter filter = new BarcodeFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add("S" + i);
+		}
+		int passed = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (filter.mightContain("X" + i)) {
+				passed++;
+			}
+		}
+		// Allow some slack over the 1% asked for.
+		assertTrue("false positives " + passed, passed < 2000);
+		assertEquals(100000 - passed, filter.getRejections());
+	}
+
+
+
+	@Test
+	public void testFilteredSeasonTicketDAO() {
+		FilteredSeasonTicketDAO dao = new FilteredSeasonTicketDAO(
+				new SeasonTicketDAO(new UsageRecordFactory()), new BarcodeFilter(100, 0.01));
+		SeasonTicket ticket = new SeasonTicket("S1111", "Carpark", 0L, 0L, new UsageStore());
+		dao.registerTicket(ticket);
+
+		assertSame(ticket, dao.findTicketById("S1111"));
+		assertNull(dao.findTicketById("junk"));
+		assertEquals(2, dao.getFilter().getChecks());
+
+		// Removing the only ticket rebuilds the filter without it.
+		dao.deregisterTicket(ticket);
+		assertFalse(dao.getFilter().mightContain("S1111"));
+		assertNull(dao.findTicketById("S1111"));
+		assertEquals(0, dao.getFilter().getFalsePositives());
+	}
+
+
+
+	@Test
+	public void testExpiredTicketsLeaveFilter() {
+		SeasonTicketDAO tickets = new SeasonTicketDAO(new UsageRecordFactory());
+		tickets.registerTicket(new SeasonTicket("S0", "Carpark", 0L, 0L));
+		FilteredSeasonTicketDAO dao = new FilteredSeasonTicketDAO(tickets, new BarcodeFilter(1000, 0.01));
+		for (int i = 1; i < 1000; i++) {
+			dao.registerTicket(new SeasonTicket("S" + i, "Carpark", 0L, i < 400 ? 1000L : 9000L));
+		}
+		assertTrue(dao.getFilter().mightContain("S0"));
+
+		// 400 of 1000 expiring leaves the filter alone; 100 more leaves as many removed as
+		// registered, which rebuilds it.
+		assertEquals(400, dao.removeExpiredTickets(5000L));
+		assertTrue(dao.getFilter().mightContain("S1"));
+		for (int i = 400; i < 500; i++) {
+			dao.deregisterTicket(dao.findTicketById("S" + i));
+		}
+		for (int i = 500; i < 1000; i++) {
+			assertNotNull(dao.findTicketById("S" + i));
+		}
+		int passed = 0;
+		for (int i = 0; i < 500; i++) {
+			if (dao.getFilter().mightContain("S" + i)) {
+				passed++;
+			}
+		}
+		assertTrue("removed tickets passed " + passed, passed < 30);
+	}
+
+
+
+	// The scheduled sweep goes through the filtered DAO, so its removals rebuild the filter.
+	@Test
+	public void testScheduledSweepRebuildsFilter() throws Exception {
+		SeasonTicketDAO tickets = new SeasonTicketDAO(new UsageRecordFactory());
+		FilteredSeasonTicketDAO dao = new FilteredSeasonTicketDAO(tickets, new BarcodeFilter(100, 0.01));
+		for (int i = 0; i < 100; i++) {
+			dao.registerTicket(new SeasonTicket("S" + i, "Carpark", 0L, 1000L));
+		}
+		BarcodeFilter original = dao.getFilter();
+
+		ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor();
+		try {
+			dao.scheduleExpirySweep(sweeper, 10);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (dao.getFilter() == original && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			sweeper.shutdownNow();
+		}
+		assertEquals(0, dao.getNumberOfTickets());
+		assertNotSame(original, dao.getFilter());
+		assertFalse(dao.getFilter().mightContain("S1"));
+	}
+}
@@ -0,0 +1,53 @@
+package test.bcccp.tickets;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import bcccp.tickets.Cents;
+import bcccp.tickets.adhoc.AdhocTicket;
+
+public class CentsTest {
+
+	@Test
+	public void testFormat() {
+		assertEquals("0.00", Cents.format(0));
+		assertEquals("0.05", Cents.format(5));
+		assertEquals("0.50", Cents.format(50));
+		assertEquals("1.00", Cents.format(100));
+		assertEquals("12.34", Cents.format(1234));
+		assertEquals("-0.05", Cents.format(-5));
+		assertEquals("-12.34", Cents.format(-1234));
+	}
+
+
+
+	@Test
+	public void testLargeAmounts() {
+		assertEquals("1000000000.01", Cents.format(100000000001L));
+		assertEquals("92233720368547758.07", Cents.format(Long.MAX_VALUE));
+		assertEquals("-92233720368547758.08", Cents.format(Long.MIN_VALUE));
+	}
+
+
+
+	// A builder reused for a shorter amount shows only the new amount.
+	@Test
+	public void testAppendToReusedBuilder() {
+		StringBuilder builder = new StringBuilder();
+		assertEquals("Pay 123.45", Cents.append(builder.append("Pay "), 12345).toString());
+		builder.setLength(0);
+		assertEquals("Pay 0.07", Cents.append(builder.append("Pay "), 7).toString());
+	}
+
+
+
+	@Test
+	public void testPaidTicketCharge() {
+		AdhocTicket ticket = new AdhocTicket("Bathurst Chase", 1, "A1");
+		ticket.enter(1000L);
+		ticket.pay(2000L, 1999);
+		assertEquals(1999, ticket.getChargeCents());
+		assertTrue(ticket.toString().contains("Charge     : 19.99\n"));
+	}
+}
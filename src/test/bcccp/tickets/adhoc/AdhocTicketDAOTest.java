@@ -0,0 +1,324 @@
+package test.bcccp.tickets.adhoc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.tickets.adhoc.AdhocTicket;
+import bcccp.tickets.adhoc.AdhocTicketDAO;
+import bcccp.tickets.adhoc.AdhocTicketFactory;
+import bcccp.tickets.adhoc.IAdhocTicket;
+import bcccp.tickets.adhoc.IAdhocTicketFactory;
+
+public class AdhocTicketDAOTest {
+
+	private static final int THREADS = 8;
+	private static final int TICKETS_PER_THREAD = 20000;
+
+	private AdhocTicketDAO dao_;
+
+
+
+	@Before
+	public void setUp() {
+		dao_ = new AdhocTicketDAO(new AdhocTicketFactory());
+	}
+
+
+
+	@Test
+	public void testCreateAndFind() {
+		IAdhocTicket ticket = dao_.createTicket("Carpark");
+		assertEquals(1, ticket.getTicketNo());
+		assertEquals("A1", ticket.getBarcode());
+		assertSame(ticket, dao_.findTicketByBarcode("A1"));
+		assertNull(dao_.findTicketByBarcode("A2"));
+	}
+
+
+
+	@Test
+	public void testMalformedBarcodes() {
+		dao_.createTicket("Carpark");
+		String[] barcodes = { null, "", "A", "B1", "A01", "AG", "a1", "A1F", "A123456789", "Affffffff" };
+		for (String barcode : barcodes) {
+			assertEquals(-1, AdhocTicketFactory.parseTicketNo(barcode));
+			assertNull(dao_.findTicketByBarcode(barcode));
+		}
+		assertEquals(0x7fffffff, AdhocTicketFactory.parseTicketNo("A7fffffff"));
+	}
+
+
+
+	@Test
+	public void testOtherBarcodeFormat() {
+		// A factory with decimal barcodes cannot use the ticket number index.
+		AdhocTicketDAO dao = new AdhocTicketDAO(new IAdhocTicketFactory() {
+			public IAdhocTicket make(String carparkId, int ticketNo) {
+				return new AdhocTicket(carparkId, ticketNo, "A" + ticketNo);
+			}
+		});
+		for (int i = 0; i < 20; i++) {
+			dao.createTicket("Carpark");
+		}
+		assertEquals(16, dao.findTicketByBarcode("A16").getTicketNo());
+		assertEquals(1, dao.findTicketByBarcode("A1").getTicketNo());
+		assertEquals(20, dao.getCurrentTickets().size());
+	}
+
+
+
+	@Test
+	public void testExitedTicketsRetired() {
+		for (int i = 0; i < 3000; i++) {
+			IAdhocTicket ticket = dao_.createTicket("Carpark");
+			if (i < 2500) {
+				ticket.enter(1000L + i);
+				ticket.pay(2000L + i, 150 + i);
+				ticket.exit(3000L + i);
+			}
+		}
+
+		assertEquals(500, dao_.getCurrentTickets().size());
+		assertEquals(2500, dao_.getNumberOfArchivedTickets());
+
+		IAdhocTicket archived = dao_.findTicketByBarcode("A10");
+		assertEquals(16, archived.getTicketNo());
+		assertEquals("Carpark", archived.getCarparkId());
+		assertTrue(archived.hasExited());
+		assertEquals(1015L, archived.getEntryDateTime());
+		assertEquals(2015L, archived.getPaidDateTime());
+		assertEquals(3015L, archived.getExitDateTime());
+		assertEquals(165, archived.getChargeCents());
+
+		IAdhocTicket live = dao_.findTicketByBarcode("A" + Integer.toHexString(2501));
+		assertFalse(live.hasExited());
+	}
+
+
+
+	@Test
+	public void testStreamCurrentTickets() {
+		for (int i = 0; i < 5000; i++) {
+			IAdhocTicket ticket = dao_.createTicket("Carpark");
+			if (i % 2 == 0 || i < 1024) {
+				ticket.enter(1000L + i);
+			}
+		}
+		// Exiting the first 1024 tickets leaves the first segment dropped.
+		for (int ticketNo = 1; ticketNo <= 1024; ticketNo++) {
+			dao_.findTicketByBarcode("A" + Integer.toHexString(ticketNo)).exit(2000L);
+		}
+
+		assertEquals(5000 - 1024, dao_.streamCurrentTickets().count());
+		assertEquals(5000 - 1024, dao_.streamCurrentTickets().parallel().count());
+		assertEquals(1988, dao_.streamCurrentTickets().parallel().filter(IAdhocTicket::isCurrent).count());
+
+		List<Integer> ticketNos = new ArrayList<>();
+		dao_.forEachCurrentTicket(ticket -> ticketNos.add(ticket.getTicketNo()));
+		assertEquals(5000 - 1024, ticketNos.size());
+		assertEquals(1025, ticketNos.get(0).intValue());
+		assertEquals(5000, ticketNos.get(ticketNos.size() - 1).intValue());
+	}
+
+
+
+	@Test
+	public void testStateAndEntryIndexes() {
+		for (int i = 0; i < 100; i++) {
+			IAdhocTicket ticket = dao_.createTicket("Carpark");
+			if (i < 60) {
+				ticket.enter(1000L * (100 - i));
+			}
+			if (i < 30) {
+				ticket.pay(200000L, 300);
+			}
+			if (i < 10) {
+				ticket.exit(300000L);
+			}
+		}
+
+		assertEquals(40, dao_.getTicketsInState(IAdhocTicket.STATE.ISSUED).size());
+		assertEquals(30, dao_.getTicketsInState(IAdhocTicket.STATE.CURRENT).size());
+		assertEquals(20, dao_.getTicketsInState(IAdhocTicket.STATE.PAID).size());
+		assertEquals(0, dao_.getTicketsInState(IAdhocTicket.STATE.EXITED).size());
+		for (IAdhocTicket ticket : dao_.getTicketsInState(IAdhocTicket.STATE.PAID)) {
+			assertTrue(ticket.isPaid());
+		}
+
+		// Tickets 60 down to 41 entered between 41 and 60 seconds, and 10 and under have exited.
+		List<Integer> ticketNos = new ArrayList<>();
+		for (IAdhocTicket ticket : dao_.getTicketsEnteredBetween(41000L, 61000L)) {
+			ticketNos.add(ticket.getTicketNo());
+		}
+		assertEquals(20, ticketNos.size());
+		assertEquals(60, ticketNos.get(0).intValue());
+		assertEquals(41, ticketNos.get(19).intValue());
+		assertEquals(50, dao_.getTicketsEnteredBetween(0L, Long.MAX_VALUE).size());
+		assertTrue(dao_.getTicketsEnteredBetween(91000L, 101000L).isEmpty());
+		assertTrue(dao_.getTicketsEnteredBetween(5000L, 5000L).isEmpty());
+
+		dao_.findTicketByBarcode("A1e").exit(400000L);
+		assertEquals(19, dao_.getTicketsInState(IAdhocTicket.STATE.PAID).size());
+		assertEquals(49, dao_.getTicketsEnteredBetween(0L, Long.MAX_VALUE).size());
+
+		dao_.retireAbandonedTickets(Long.MAX_VALUE);
+		assertTrue(dao_.getTicketsInState(IAdhocTicket.STATE.ISSUED).isEmpty());
+	}
+
+
+
+	// A ticket entered again is found under its new entry time only.
+	@Test
+	public void testReEntryMovesEntryIndex() {
+		IAdhocTicket ticket = dao_.createTicket("Carpark");
+		ticket.enter(1000L);
+		ticket.enter(5000L);
+
+		assertTrue(dao_.getTicketsEnteredBetween(0L, 2000L).isEmpty());
+		assertEquals(1, dao_.getTicketsEnteredBetween(4000L, 6000L).size());
+		assertEquals(1, dao_.getTicketsEnteredBetween(0L, Long.MAX_VALUE).size());
+
+		ticket.pay(6000L, 100);
+		ticket.exit(7000L);
+		assertTrue(dao_.getTicketsEnteredBetween(0L, Long.MAX_VALUE).isEmpty());
+	}
+
+
+
+	@Test
+	public void testAbandonedTicketsRetired() {
+		long[] now = { 0L };
+		AdhocTicketDAO dao = new AdhocTicketDAO(new AdhocTicketFactory(), () -> now[0]);
+		for (int i = 1; i <= 10; i++) {
+			now[0] = i * 1000L;
+			dao.createTicket("Carpark");
+		}
+		dao.findTicketByBarcode("A1").enter(1000L);
+
+		// Ticket 1 has entered and tickets 9 and 10 were issued at or after 9 seconds.
+		assertEquals(7, dao.retireAbandonedTickets(9000L));
+		assertEquals(3, dao.getCurrentTickets().size());
+		assertEquals(7, dao.getNumberOfAbandonedTickets());
+		IAdhocTicket abandoned = dao.findTicketByBarcode("A2");
+		assertNotNull(abandoned);
+		assertFalse(abandoned.isCurrent());
+
+		// A car that turns up with an abandoned ticket goes back into the slots and indexes.
+		abandoned.enter(20000L);
+		assertEquals(4, dao.getCurrentTickets().size());
+		assertEquals(6, dao.getNumberOfAbandonedTickets());
+		assertSame(abandoned, dao.findTicketByBarcode("A2"));
+		assertTrue(dao.getTicketsInState(IAdhocTicket.STATE.CURRENT).contains(abandoned));
+		abandoned.pay(21000L, 100);
+		abandoned.exit(22000L);
+		assertTrue(dao.findTicketByBarcode("A2").hasExited());
+		assertEquals(1, dao.getNumberOfArchivedTickets());
+	}
+
+
+
+	// Every other ticket in its block has gone, so the block has been dropped by the
+	// time the abandoned ticket comes back; it must still be found and retire cleanly.
+	@Test
+	public void testAbandonedTicketReturnsToDroppedSlots() {
+		long[] now = { 0L };
+		AdhocTicketDAO dao = new AdhocTicketDAO(new AdhocTicketFactory(), () -> now[0]);
+		List<IAdhocTicket> issued = new ArrayList<>();
+		for (int i = 0; i < 2048; i++) {
+			issued.add(dao.createTicket("Carpark"));
+		}
+		for (IAdhocTicket ticket : issued.subList(1, issued.size())) {
+			ticket.enter(1000L);
+			ticket.pay(2000L, 100);
+			ticket.exit(3000L);
+		}
+		now[0] = 10000L;
+		assertEquals(1, dao.retireAbandonedTickets(5000L));
+
+		IAdhocTicket abandoned = issued.get(0);
+		abandoned.enter(20000L);
+		assertSame(abandoned, dao.findTicketByBarcode(abandoned.getBarcode()));
+		assertEquals(1, dao.getCurrentTickets().size());
+		dao.createTicket("Carpark");
+		assertEquals(2, dao.getCurrentTickets().size());
+		abandoned.pay(21000L, 100);
+		abandoned.exit(22000L);
+		assertTrue(dao.findTicketByBarcode(abandoned.getBarcode()).hasExited());
+		assertEquals(1, dao.getCurrentTickets().size());
+	}
+
+
+
+	// An archived ticket is a copy, so changing it is refused rather than lost.
+	@Test
+	public void testArchivedTicketIsReadOnly() {
+		IAdhocTicket ticket = dao_.createTicket("Carpark");
+		ticket.enter(1000L);
+		ticket.pay(2000L, 100);
+		ticket.exit(3000L);
+
+		IAdhocTicket archived = dao_.findTicketByBarcode(ticket.getBarcode());
+		assertNotSame(ticket, archived);
+		try {
+			archived.exit(4000L);
+			fail("Expected an archived ticket to refuse a change");
+		}
+		catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("archived"));
+		}
+		assertEquals(3000L, dao_.findTicketByBarcode(ticket.getBarcode()).getExitDateTime());
+	}
+
+
+
+	@Test
+	public void testConcurrentCreateAndFind() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<List<IAdhocTicket>>> results = new ArrayList<>();
+		try {
+			for (int t = 0; t < THREADS; t++) {
+				results.add(executor.submit(new Callable<List<IAdhocTicket>>() {
+					public List<IAdhocTicket> call() {
+						List<IAdhocTicket> created = new ArrayList<>();
+						for (int i = 0; i < TICKETS_PER_THREAD; i++) {
+							IAdhocTicket ticket = dao_.createTicket("Carpark");
+							// Another lane should be able to find it straight away.
+							if (dao_.findTicketByBarcode(ticket.getBarcode()) != ticket) {
+								throw new AssertionError("Ticket not found " + ticket.getBarcode());
+							}
+							created.add(ticket);
+						}
+						return created;
+					}
+				}));
+			}
+
+			Set<Integer> ticketNos = new HashSet<>();
+			for (Future<List<IAdhocTicket>> result : results) {
+				for (IAdhocTicket ticket : result.get()) {
+					assertTrue("Duplicate ticket " + ticket.getTicketNo(), ticketNos.add(ticket.getTicketNo()));
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		int total = THREADS * TICKETS_PER_THREAD;
+		assertEquals(total, dao_.getCurrentTickets().size());
+		for (int ticketNo = 1; ticketNo <= total; ticketNo++) {
+			assertNotNull(dao_.findTicketByBarcode("A" + Integer.toHexString(ticketNo)));
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package test.bcccp.tickets.adhoc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.carpark.Carpark;
+import bcccp.carpark.TimeProvider;
+import bcccp.tickets.adhoc.AdhocTicket;
+import bcccp.tickets.adhoc.AdhocTicketFactory;
+import bcccp.tickets.adhoc.IAdhocTicket;
+import bcccp.tickets.adhoc.IAdhocTicketFactory;
+import bcccp.tickets.adhoc.JournalledAdhocTicketDAO;
+import bcccp.tickets.adhoc.JournalledAdhocTicketDAO.SyncPolicy;
+import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.UsageRecordFactory;
+
+public class JournalledAdhocTicketDAOTest {
+
+	private Path directory_;
+
+
+
+	@Before
+	public void setUp() throws IOException {
+		directory_ = Files.createTempDirectory("adhoc-journal");
+	}
+
+
+
+	@After
+	public void tearDown() throws IOException {
+		for (String file : new String[] { "adhoc-tickets.journal", "adhoc-tickets.snapshot" }) {
+			Files.deleteIfExists(directory_.resolve(file));
+		}
+		Files.deleteIfExists(directory_);
+	}
+
+
+
+	@Test
+	public void testRestartRestoresTickets() throws IOException {
+		JournalledAdhocTicketDAO dao = open(SyncPolicy.EVERY_EVENT);
+		issueTickets(dao);
+		dao.close();
+
+		JournalledAdhocTicketDAO restarted = open(SyncPolicy.EVERY_EVENT);
+		checkTickets(restarted);
+		// Exited tickets are still found in the archive.
+		assertTrue(restarted.findTicketByBarcode("A1").hasExited());
+		assertEquals(1, restarted.getNumberOfArchivedTickets());
+		assertEquals(5, restarted.createTicket("Carpark").getTicketNo());
+		restarted.close();
+	}
+
+
+
+	// Cars still parked when the carpark restarts keep their spaces, and leaving frees them.
+	@Test
+	public void testRestartKeepsCarparkOccupancy() throws IOException {
+		JournalledAdhocTicketDAO dao = open(SyncPolicy.EVERY_EVENT);
+		issueTickets(dao);
+		dao.close();
+
+		JournalledAdhocTicketDAO restarted = open(SyncPolicy.EVERY_EVENT);
+		Carpark carpark = new Carpark("Carpark", 4, restarted, 
+				new SeasonTicketDAO(new UsageRecordFactory()), new TimeProvider());
+		assertEquals(1, carpark.getAvailableSpaces());
+		carpark.issueAdhocTicket();
+		carpark.recordAdhocTicketEntry();
+		assertTrue(carpark.isFull());
+
+		carpark.recordAdhocTicketExit();
+		carpark.recordAdhocTicketExit();
+		assertEquals(2, carpark.getAvailableSpaces());
+		restarted.close();
+	}
+
+
+
+	@Test
+	public void testRestartAfterSnapshot() throws IOException {
+		JournalledAdhocTicketDAO dao = open(SyncPolicy.PERIODIC);
+		issueTickets(dao);
+		dao.snapshot();
+		dao.findTicketByBarcode("A3").pay(5000L, 700);
+		dao.close();
+
+		JournalledAdhocTicketDAO restarted = open(SyncPolicy.PERIODIC);
+		assertEquals(3, restarted.getCurrentTickets().size());
+		assertTrue(restarted.findTicketByBarcode("A2").isPaid());
+		assertEquals(700, restarted.findTicketByBarcode("A3").getChargeCents());
+		// Exited tickets are dropped by the snapshot, but their numbers are not reused.
+		assertNull(restarted.findTicketByBarcode("A1"));
+		assertEquals(5, restarted.createTicket("Carpark").getTicketNo());
+		restarted.close();
+	}
+
+
+
+	@Test
+	public void testTornEventIsCutOff() throws IOException {
+		JournalledAdhocTicketDAO dao = open(SyncPolicy.EVERY_EVENT);
+		issueTickets(dao);
+		dao.close();
+
+		// Lose the last few bytes of the last event, as if the machine stopped mid write.
+		Path journal = directory_.resolve("adhoc-tickets.journal");
+		long size = Files.size(journal);
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+			channel.truncate(size - 3);
+		}
+
+		JournalledAdhocTicketDAO restarted = open(SyncPolicy.EVERY_EVENT);
+		IAdhocTicket ticket = restarted.findTicketByBarcode("A4");
+		assertTrue(ticket.isCurrent());
+		ticket.pay(6000L, 900);
+		restarted.close();
+
+		JournalledAdhocTicketDAO again = open(SyncPolicy.EVERY_EVENT);
+		assertEquals(900, again.findTicketByBarcode("A4").getChargeCents());
+		again.close();
+	}
+
+
+
+	@Test
+	public void testSnapshotTakenEverySoManyEvents() throws Exception {
+		JournalledAdhocTicketDAO dao = new JournalledAdhocTicketDAO(
+				new AdhocTicketFactory(), directory_, SyncPolicy.PERIODIC, 1, 100);
+		for (int i = 0; i < 1000; i++) {
+			dao.createTicket("Carpark").enter(1000L + i);
+		}
+		dao.close();
+		assertTrue(Files.exists(directory_.resolve("adhoc-tickets.snapshot")));
+
+		JournalledAdhocTicketDAO restarted = open(SyncPolicy.PERIODIC);
+		assertEquals(1000, restarted.getTicketsInState(IAdhocTicket.STATE.CURRENT).size());
+		assertEquals(1999L, restarted.findTicketByBarcode("A3e8").getEntryDateTime());
+		restarted.close();
+	}
+
+
+
+	// A snapshot taken while an exit is being recorded must not bring the ticket back.
+	@Test
+	public void testSnapshotDuringExit() throws IOException {
+		JournalledAdhocTicketDAO[] dao = new JournalledAdhocTicketDAO[1];
+		dao[0] = new JournalledAdhocTicketDAO(new IAdhocTicketFactory() {
+			public IAdhocTicket make(String carparkId, int ticketNo) {
+				return new SnapshotOnExitTicket(carparkId, ticketNo, dao);
+			}
+		}, directory_, SyncPolicy.EVERY_EVENT, 5, 100000);
+		SnapshotOnExitTicket ticket = (SnapshotOnExitTicket) dao[0].createTicket("Carpark");
+		ticket.enter(1000L);
+		ticket.pay(2000L, 300);
+		ticket.snapshotOnExit = true;
+		ticket.exit(3000L);
+		assertFalse(ticket.snapshotOnExit);
+		dao[0].close();
+
+		JournalledAdhocTicketDAO restarted = open(SyncPolicy.EVERY_EVENT);
+		IAdhocTicket restored = restarted.findTicketByBarcode(ticket.getBarcode());
+		assertTrue(restored == null || restored.hasExited());
+		assertTrue(restarted.getCurrentTickets().isEmpty());
+		restarted.close();
+	}
+
+
+
+	// Takes a snapshot the first time the DAO checks whether it has exited, which is
+	// while the DAO is handling the exit.
+	private static class SnapshotOnExitTicket extends AdhocTicket {
+		private JournalledAdhocTicketDAO[] dao;
+		private boolean snapshotOnExit;
+
+		SnapshotOnExitTicket(String carparkId, int ticketNo, JournalledAdhocTicketDAO[] dao) {
+			super(carparkId, ticketNo, AdhocTicketFactory.toBarcode(ticketNo));
+			this.dao = dao;
+		}
+
+		@Override
+		public boolean hasExited() {
+			boolean exited = super.hasExited();
+			if (exited && snapshotOnExit) {
+				snapshotOnExit = false;
+				dao[0].snapshot();
+			}
+			return exited;
+		}
+	}
+
+
+
+	private JournalledAdhocTicketDAO open(SyncPolicy syncPolicy) {
+		return new JournalledAdhocTicketDAO(new AdhocTicketFactory(), directory_, syncPolicy, 5, 100000);
+	}
+
+
+
+	// Ticket 1 exits, 2 is paid, 3 and 4 are parked.
+	private void issueTickets(JournalledAdhocTicketDAO dao) {
+		for (int i = 0; i < 4; i++) {
+			dao.createTicket("Carpark").enter(1000L + i);
+		}
+		IAdhocTicket exited = dao.findTicketByBarcode("A1");
+		exited.pay(2000L, 300);
+		exited.exit(3000L);
+		dao.findTicketByBarcode("A2").pay(4000L, 500);
+		checkTickets(dao);
+	}
+
+
+
+	private void checkTickets(JournalledAdhocTicketDAO dao) {
+		assertEquals(3, dao.getCurrentTickets().size());
+		IAdhocTicket paid = dao.findTicketByBarcode("A2");
+		assertTrue(paid.isPaid());
+		assertEquals(1001L, paid.getEntryDateTime());
+		assertEquals(4000L, paid.getPaidDateTime());
+		assertEquals(500, paid.getChargeCents());
+		assertTrue(dao.findTicketByBarcode("A4").isCurrent());
+		assertEquals(2, dao.getTicketsInState(IAdhocTicket.STATE.CURRENT).size());
+	}
+}
@@ -0,0 +1,89 @@
+package test.bcccp.tickets.adhoc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.tickets.adhoc.IAdhocTicket;
+import bcccp.tickets.adhoc.MappedAdhocTicketDAO;
+
+public class MappedAdhocTicketDAOTest {
+
+	private Path file_;
+
+
+
+	@Before
+	public void setUp() throws IOException {
+		file_ = Files.createTempFile("adhoc-tickets", ".table");
+	}
+
+
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file_);
+	}
+
+
+
+	@Test
+	public void testCreateAndFind() throws IOException {
+		MappedAdhocTicketDAO dao = new MappedAdhocTicketDAO(file_);
+		IAdhocTicket ticket = dao.createTicket("Carpark");
+		assertEquals(1, ticket.getTicketNo());
+		assertEquals("A1", ticket.getBarcode());
+		assertEquals("Carpark", ticket.getCarparkId());
+		assertEquals(IAdhocTicket.STATE.ISSUED, ticket.getState());
+
+		IAdhocTicket found = dao.findTicketByBarcode("A1");
+		assertEquals(ticket, found);
+		ticket.enter(1000L);
+		assertTrue(found.isCurrent());
+		assertEquals(1000L, found.getEntryDateTime());
+
+		assertNull(dao.findTicketByBarcode("A2"));
+		assertNull(dao.findTicketByBarcode("B1"));
+		dao.close();
+	}
+
+
+
+	@Test
+	public void testTicketsSurviveRestart() throws IOException {
+		MappedAdhocTicketDAO dao = new MappedAdhocTicketDAO(file_);
+		for (int i = 0; i < 70000; i++) {
+			IAdhocTicket ticket = dao.createTicket(i % 2 == 0 ? "North" : "South");
+			ticket.enter(1000L + i);
+			if (i % 3 == 0) {
+				ticket.pay(2000L + i, 100 + i);
+			}
+			if (i % 6 == 0) {
+				ticket.exit(3000L + i);
+			}
+		}
+		dao.close();
+
+		MappedAdhocTicketDAO restarted = new MappedAdhocTicketDAO(file_);
+		IAdhocTicket paid = restarted.findTicketByBarcode("A" + Integer.toHexString(66004));
+		assertTrue(paid.isPaid());
+		assertEquals("South", paid.getCarparkId());
+		assertEquals(67003L, paid.getEntryDateTime());
+		assertEquals(68003L, paid.getPaidDateTime());
+		assertEquals(66103L, paid.getChargeCents());
+		assertTrue(restarted.findTicketByBarcode("A1").hasExited());
+
+		assertEquals(70000 - 11667, restarted.getCurrentTickets().size());
+		assertEquals(70000 - 11667, restarted.streamCurrentTickets().parallel().count());
+		assertEquals(11667, restarted.getTicketsInState(IAdhocTicket.STATE.PAID).size());
+		assertEquals(10, restarted.getTicketsEnteredBetween(1000L, 1012L).size());
+		assertEquals(70001, restarted.createTicket("North").getTicketNo());
+		restarted.close();
+	}
+}
@@ -0,0 +1,167 @@
+package test.bcccp.tickets.season;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.tickets.season.ISeasonTicket;
+import bcccp.tickets.season.SeasonTicket;
+import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.UsageRecordFactory;
+import bcccp.tickets.season.UsageStore;
+
+public class SeasonTicketDAOTest {
+
+	private static final int LANES = 8;
+	private static final int ROUNDS = 2000;
+
+	private SeasonTicketDAO dao_;
+	private UsageStore store_;
+
+
+
+	@Before
+	public void setUp() {
+		dao_ = new SeasonTicketDAO(new UsageRecordFactory());
+		store_ = new UsageStore();
+	}
+
+
+
+	@Test
+	public void testRegisterFindDeregister() {
+		ISeasonTicket ticket = new SeasonTicket("S1111", "Carpark", 0L, 0L, store_);
+		dao_.registerTicket(ticket);
+		dao_.registerTicket(new SeasonTicket("S1111", "Carpark", 0L, 0L, store_));
+		assertSame(ticket, dao_.findTicketById("S1111"));
+		assertEquals(1, dao_.getNumberOfTickets());
+		assertNull(dao_.findTicketById(null));
+
+		dao_.deregisterTicket(ticket);
+		assertNull(dao_.findTicketById("S1111"));
+		assertEquals(0, dao_.getNumberOfTickets());
+	}
+
+
+
+	// Tickets made without a store use the DAO's, and give their usages back when they leave.
+	@Test
+	public void testDeregisterReleasesUsages() {
+		ISeasonTicket ticket = new SeasonTicket("S1111", "Carpark", 0L, 0L);
+		dao_.registerTicket(ticket);
+		dao_.recordTicketEntry("S1111");
+		dao_.recordTicketExit("S1111");
+		assertEquals(1, dao_.getUsageStore().getNumberOfRows());
+
+		dao_.deregisterTicket(ticket);
+		assertEquals(0, dao_.getUsageStore().getNumberOfRows());
+		assertTrue(ticket.getUsageRecords().isEmpty());
+	}
+
+
+
+	@Test
+	public void testTicketAlreadyInUse() {
+		dao_.registerTicket(new SeasonTicket("S1111", "Carpark", 0L, 0L, store_));
+		dao_.recordTicketEntry("S1111");
+		try {
+			dao_.recordTicketEntry("S1111");
+			fail("A ticket in use was admitted again");
+		}
+		catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("already in use"));
+		}
+		dao_.recordTicketExit("S1111");
+		assertFalse(dao_.findTicketById("S1111").inUse());
+		assertEquals(1, dao_.findTicketById("S1111").getUsageRecords().size());
+	}
+
+
+
+	@Test
+	public void testRemoveExpiredTickets() {
+		for (int i = 0; i < 10; i++) {
+			dao_.registerTicket(new SeasonTicket("S" + i, "Carpark", 0L, 1000L * i, store_));
+		}
+		dao_.recordTicketEntry("S2");
+		dao_.deregisterTicket(dao_.findTicketById("S3"));
+
+		// S0 to S4 have lapsed, but S2 is still parked and S3 is already gone.
+		assertEquals(3, dao_.removeExpiredTickets(5000L));
+		assertEquals(6, dao_.getNumberOfTickets());
+		assertNotNull(dao_.findTicketById("S2"));
+		assertNotNull(dao_.findTicketById("S5"));
+		assertEquals(0, dao_.removeExpiredTickets(5000L));
+
+		dao_.recordTicketExit("S2");
+		assertEquals(1, dao_.removeExpiredTickets(5000L));
+		assertNull(dao_.findTicketById("S2"));
+	}
+
+
+
+	@Test
+	public void testRemoveExpiredReleasesUsages() {
+		dao_.registerTicket(new SeasonTicket("S1111", "Carpark", 0L, 1000L));
+		dao_.registerTicket(new SeasonTicket("S2222", "Carpark", 0L, 9000L));
+		for (String id : new String[] { "S1111", "S2222" }) {
+			dao_.recordTicketEntry(id);
+			dao_.recordTicketExit(id);
+		}
+		assertEquals(2, dao_.getUsageStore().getNumberOfRows());
+
+		assertEquals(1, dao_.removeExpiredTickets(5000L));
+		assertEquals(1, dao_.getUsageStore().getNumberOfRows());
+		assertEquals(1, dao_.findTicketById("S2222").getUsageRecords().size());
+	}
+
+
+
+	// Every round, all the lanes try to admit the same pass at once; exactly one may.
+	@Test
+	public void testContendedEntry() throws Exception {
+		ISeasonTicket ticket = new SeasonTicket("S1111", "Carpark", 0L, 0L, store_);
+		dao_.registerTicket(ticket);
+		CyclicBarrier start = new CyclicBarrier(LANES);
+		CyclicBarrier end = new CyclicBarrier(LANES, () -> dao_.recordTicketExit("S1111"));
+
+		ExecutorService lanes = Executors.newFixedThreadPool(LANES);
+		List<Future<Integer>> admitted = new ArrayList<>();
+		for (int lane = 0; lane < LANES; lane++) {
+			admitted.add(lanes.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					int count = 0;
+					for (int round = 0; round < ROUNDS; round++) {
+						start.await();
+						try {
+							dao_.recordTicketEntry("S1111");
+							count++;
+						}
+						catch (RuntimeException e) {
+							// Another lane admitted the pass.
+						}
+						end.await();
+					}
+					return count;
+				}
+			}));
+		}
+
+		int total = 0;
+		for (Future<Integer> count : admitted) {
+			total += count.get();
+		}
+		lanes.shutdown();
+		assertEquals(ROUNDS, total);
+		assertEquals(ROUNDS, ticket.getUsageRecords().size());
+	}
+}
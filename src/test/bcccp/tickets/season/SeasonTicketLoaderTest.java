@@ -0,0 +1,95 @@
+package test.bcccp.tickets.season;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bcccp.tickets.season.ISeasonTicket;
+import bcccp.tickets.season.SeasonTicketDAO;
+import bcccp.tickets.season.SeasonTicketLoader;
+import bcccp.tickets.season.UsageRecordFactory;
+import bcccp.tickets.season.UsageStore;
+
+public class SeasonTicketLoaderTest {
+
+	private SeasonTicketDAO dao_;
+	private UsageStore store_;
+
+
+
+	@Before
+	public void setUp() {
+		dao_ = new SeasonTicketDAO(new UsageRecordFactory(), 1000);
+		store_ = new UsageStore(1000);
+	}
+
+
+
+	@Test
+	public void testLoad() throws IOException {
+		int loaded = SeasonTicketLoader.load(input(
+				"# id,carpark,start,end\r\n"
+				+ "S1111,Bathurst Chase,1000,2000\r\n"
+				+ "\r\n"
+				+ "S2222,Bathurst Chase,1500,3000\n"
+				+ "S3333,Orange Grove,0,4000"), dao_, store_);
+		assertEquals(3, loaded);
+		assertEquals(3, dao_.getNumberOfTickets());
+
+		ISeasonTicket ticket = dao_.findTicketById("S2222");
+		assertEquals("Bathurst Chase", ticket.getCarparkId());
+		assertEquals(1500L, ticket.getStartValidPeriod());
+		assertEquals(3000L, ticket.getEndValidPeriod());
+		assertSame(dao_.findTicketById("S1111").getCarparkId(), ticket.getCarparkId());
+		assertEquals("Orange Grove", dao_.findTicketById("S3333").getCarparkId());
+	}
+
+
+
+	@Test
+	public void testLoadMany() throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			lines.append('S').append(i).append(",Bathurst Chase,0,").append(i).append('\n');
+		}
+		assertEquals(100000, SeasonTicketLoader.load(input(lines.toString()), dao_, store_));
+		assertEquals(100000, dao_.getNumberOfTickets());
+		assertEquals(50000, dao_.removeExpiredTickets(50000L));
+		assertNull(dao_.findTicketById("S49999"));
+		assertNotNull(dao_.findTicketById("S50000"));
+	}
+
+
+
+	@Test
+	public void testInvalidLines() throws IOException {
+		String[] invalid = {
+				"S1111,Bathurst Chase,1000",
+				"S1111,Bathurst Chase,1000,2000,3000",
+				",Bathurst Chase,1000,2000",
+				"S1111,,1000,2000",
+				"S1111,Bathurst Chase,10x0,2000",
+				"S1111,Bathurst Chase,2000,1000" };
+		for (String line : invalid) {
+			try {
+				SeasonTicketLoader.load(input("S0000,Bathurst Chase,0,0\n" + line + "\n"), dao_, store_);
+				fail("Loaded " + line);
+			}
+			catch (RuntimeException e) {
+				assertEquals("Invalid season ticket on line 2: " + line, e.getMessage());
+			}
+		}
+	}
+
+
+
+	private InputStream input(String lines) {
+		return new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,76 @@
+package test.bcccp.tickets.season;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import bcccp.tickets.season.IUsageRecord;
+import bcccp.tickets.season.SeasonTicket;
+import bcccp.tickets.season.UsageRecord;
+import bcccp.tickets.season.UsageStore;
+
+public class SeasonTicketTest {
+
+	@Test
+	public void testUsagesKeptPerTicket() {
+		UsageStore store = new UsageStore();
+		SeasonTicket first = new SeasonTicket("S1111", "Carpark", 0L, 0L, store);
+		SeasonTicket second = new SeasonTicket("S2222", "Carpark", 0L, 0L, store);
+		for (int day = 0; day < 2000; day++) {
+			SeasonTicket ticket = day % 4 == 0 ? second : first;
+			UsageRecord usage = new UsageRecord(ticket.getId(), day * 100L);
+			ticket.recordUsage(usage);
+			assertTrue(ticket.inUse());
+			assertSame(usage, ticket.getCurrentUsageRecord());
+			ticket.endUsage(day * 100L + 50);
+			assertEquals(day * 100L + 50, usage.getEndTime());
+		}
+
+		List<IUsageRecord> usages = first.getUsageRecords();
+		assertEquals(1500, usages.size());
+		assertEquals(100L, usages.get(0).getStartTime());
+		assertEquals(150L, usages.get(0).getEndTime());
+		assertEquals("S1111", usages.get(0).getSeasonTicketId());
+		assertEquals(199950L, usages.get(1499).getEndTime());
+		assertEquals(500, second.getUsageRecords().size());
+		assertEquals(400L, second.getUsageRecords().get(1).getStartTime());
+	}
+
+
+
+	@Test
+	public void testReusedIdStartsAfresh() {
+		UsageStore store = new UsageStore();
+		SeasonTicket ticket = new SeasonTicket("S1111", "Carpark", 0L, 0L, store);
+		ticket.recordUsage(new UsageRecord("S1111", 10L));
+		// Recording the current usage again does not add it twice.
+		ticket.recordUsage(ticket.getCurrentUsageRecord());
+		assertEquals(1, ticket.getUsageRecords().size());
+
+		SeasonTicket reissued = new SeasonTicket("S1111", "Carpark", 0L, 0L, store);
+		assertTrue(reissued.getUsageRecords().isEmpty());
+	}
+
+
+
+	// A released ticket's rows are reused instead of growing the store.
+	@Test
+	public void testReleasedUsagesReused() {
+		UsageStore store = new UsageStore();
+		for (int i = 0; i < 1000; i++) {
+			int key = store.register("S" + i);
+			store.append(key, i, i + 1);
+			store.append(key, i + 2, i + 3);
+			assertEquals(2, store.getNumberOfUsages(key));
+			store.release(key);
+		}
+		assertEquals(0, store.getNumberOfRows());
+
+		int key = store.register("S1111");
+		assertTrue(store.append(key, 10L, 20L) < 2);
+		assertEquals(20L, store.getUsageRecords(key).get(0).getEndTime());
+		assertEquals("S1111", store.getUsageRecords(key).get(0).getSeasonTicketId());
+	}
+}